@@ -0,0 +1,102 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Serializes many small documents, one {@link XmlSerializer} per document versus an {@link XmlBatchSerializer} with an increasing number of threads.
+ * Allocations are not reported, since they happen on several threads.
+ * <p>
+ * Scaling is only visible on a machine with several cores, ideally the batch serializer is close to n times faster with n threads.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class BatchBenchmark
+{
+	private final static int DOCUMENTS = 50000;
+
+	private final static int ROUNDS = 5;
+
+
+	public static void main(String[] args) throws Exception
+	{
+		int cores = Runtime.getRuntime().availableProcessors();
+		List<XmlElement> roots = new ArrayList<XmlElement>(DOCUMENTS);
+		for (int round = 0; round < ROUNDS; ++round)
+		{
+			documents(roots);
+			long start = System.nanoTime();
+			for (XmlElement root : roots)
+			{
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				XmlSerializer serializer = new XmlSerializer(out);
+				serializer.serialize(root);
+				serializer.close();
+				out.toByteArray();
+			}
+			BenchmarkUtils.report("new serializer per document", System.nanoTime() - start, -1, DOCUMENTS);
+
+			for (int threads = 1; threads <= cores; threads <<= 1)
+			{
+				ExecutorService executor = Executors.newFixedThreadPool(threads);
+				try
+				{
+					XmlBatchSerializer batch = new XmlBatchSerializer(executor, threads);
+					documents(roots);
+					start = System.nanoTime();
+					batch.serialize(roots);
+					BenchmarkUtils.report("batch (" + threads + " threads)", System.nanoTime() - start, -1, DOCUMENTS);
+				}
+				finally
+				{
+					executor.shutdown();
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Replaces the content of the given list with new documents, elements can not be serialized twice.
+	 */
+	private static void documents(List<XmlElement> roots) throws IOException, InvalidStateException, InvalidValueException
+	{
+		roots.clear();
+		for (int i = 0; i < DOCUMENTS; ++i)
+		{
+			XmlElement root = new XmlElement("urn:ietf:params:xml:ns:caldav", "calendar-query");
+			root.add(new XmlElement("DAV:", "prop").add(new XmlElement("DAV:", "getetag")));
+			root.add(new XmlElement("urn:ietf:params:xml:ns:caldav", "filter").add(
+				new XmlElement("urn:ietf:params:xml:ns:caldav", "comp-filter").addAttribute("name", "VEVENT").addText("event #" + i + " <&>")));
+			roots.add(root);
+		}
+	}
+}
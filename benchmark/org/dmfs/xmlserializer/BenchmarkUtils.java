@@ -0,0 +1,135 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+
+/**
+ * Helpers for the simple micro benchmarks in this folder.
+ * <p>
+ * The benchmarks are plain Java programs with a {@code main} method. They are meant to be run on a desktop JVM, not on Android.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class BenchmarkUtils
+{
+	/**
+	 * A {@link Writer} that discards everything, so we measure the serializer only.
+	 */
+	final static Writer NULL_WRITER = new Writer()
+	{
+		@Override
+		public void write(int c)
+		{
+		}
+
+
+		@Override
+		public void write(String str, int off, int len)
+		{
+		}
+
+
+		@Override
+		public void write(char[] cbuf, int off, int len)
+		{
+		}
+
+
+		@Override
+		public void flush()
+		{
+		}
+
+
+		@Override
+		public void close()
+		{
+		}
+	};
+
+
+	/**
+	 * An {@link OutputStream} that discards everything.
+	 */
+	final static OutputStream NULL_OUTPUT_STREAM = new OutputStream()
+	{
+		@Override
+		public void write(int b)
+		{
+		}
+
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+		}
+	};
+
+
+	/**
+	 * Private constructor. No instantiation allowed.
+	 */
+	private BenchmarkUtils()
+	{
+	}
+
+
+	/**
+	 * Returns the number of bytes allocated by the current thread so far or {@code -1} if the JVM doesn't support allocation measurement.
+	 * 
+	 * @return The number of allocated bytes.
+	 */
+	static long allocatedBytes()
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+		{
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Print a result line.
+	 * 
+	 * @param name
+	 *            The name of the benchmark run.
+	 * @param nanos
+	 *            The time the run took in nanoseconds.
+	 * @param bytes
+	 *            The number of bytes allocated during the run or {@code -1} if unknown.
+	 * @param operations
+	 *            The number of operations of the run.
+	 */
+	static void report(String name, long nanos, long bytes, long operations)
+	{
+		System.out.println(String.format("%-40s %10.1f ms %12.1f ns/op %12s B/op", name, nanos / 1000000.0, (double) nanos / operations,
+			bytes < 0 ? "n/a" : String.format("%.1f", (double) bytes / operations)));
+	}
+}
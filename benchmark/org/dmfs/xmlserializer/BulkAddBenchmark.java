@@ -0,0 +1,102 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Compares adding attributes and children to wide elements one by one and in bulk.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class BulkAddBenchmark
+{
+	private final static int ELEMENTS = 20000;
+
+	private final static int WIDTH = 50;
+
+	private final static int ROUNDS = 5;
+
+
+	public static void main(String[] args) throws IOException, InvalidStateException, InvalidValueException
+	{
+		Map<String, String> attributes = new LinkedHashMap<String, String>();
+		for (int i = 0; i < WIDTH; ++i)
+		{
+			attributes.put("attr" + i, "value" + i);
+		}
+
+		for (int round = 0; round < ROUNDS; ++round)
+		{
+			run("single", attributes, false);
+			run("bulk", attributes, true);
+		}
+	}
+
+
+	private static void run(String name, Map<String, String> attributes, boolean bulk) throws IOException, InvalidStateException, InvalidValueException
+	{
+		long bytes = BenchmarkUtils.allocatedBytes();
+		long start = System.nanoTime();
+
+		XmlSerializer serializer = new XmlSerializer(BenchmarkUtils.NULL_WRITER);
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+		for (int i = 0; i < ELEMENTS; ++i)
+		{
+			XmlElement element = new XmlElement("wide");
+			List<XmlAbstractNode> children = new ArrayList<XmlAbstractNode>(WIDTH);
+			for (int j = 0; j < WIDTH; ++j)
+			{
+				children.add(new XmlElement("child"));
+			}
+
+			if (bulk)
+			{
+				element.addAttributes(attributes).addAll(children);
+			}
+			else
+			{
+				for (Map.Entry<String, String> entry : attributes.entrySet())
+				{
+					element.addAttribute(entry.getKey(), entry.getValue());
+				}
+				for (XmlAbstractNode child : children)
+				{
+					element.add(child);
+				}
+			}
+			root.add(element);
+		}
+		serializer.close();
+
+		long nanos = System.nanoTime() - start;
+		long allocated = BenchmarkUtils.allocatedBytes();
+		BenchmarkUtils.report(name, nanos, bytes < 0 ? -1 : allocated - bytes, ELEMENTS);
+	}
+}
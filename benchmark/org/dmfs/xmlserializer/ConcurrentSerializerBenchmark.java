@@ -0,0 +1,156 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Runs 10000 serializers concurrently, each one writing to a slow channel that blocks for a millisecond per write. It compares the channel sink with the
+ * stream sink (which goes through the synchronized stream adapter of {@link Channels}).
+ * <p>
+ * On a JVM with virtual threads every serializer gets its own virtual thread, otherwise a pool of platform threads is used. Allocations are not reported,
+ * since they happen on many threads.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class ConcurrentSerializerBenchmark
+{
+	private final static int SERIALIZERS = 10000;
+
+	private final static int ITEMS = 200;
+
+	private final static int PLATFORM_THREADS = 256;
+
+	private final static int ROUNDS = 3;
+
+
+	/**
+	 * A channel that discards all bytes, but blocks for a millisecond on every write like a slow client would.
+	 */
+	private final static class SlowChannel implements WritableByteChannel
+	{
+		@Override
+		public int write(ByteBuffer src) throws IOException
+		{
+			try
+			{
+				Thread.sleep(1);
+			}
+			catch (InterruptedException e)
+			{
+				throw new IOException("interrupted");
+			}
+			int len = src.remaining();
+			src.position(src.limit());
+			return len;
+		}
+
+
+		@Override
+		public boolean isOpen()
+		{
+			return true;
+		}
+
+
+		@Override
+		public void close()
+		{
+		}
+	}
+
+
+	public static void main(String[] args) throws Exception
+	{
+		ExecutorService executor;
+		String threads;
+		try
+		{
+			executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			threads = "virtual threads";
+		}
+		catch (NoSuchMethodException e)
+		{
+			executor = Executors.newFixedThreadPool(PLATFORM_THREADS);
+			threads = PLATFORM_THREADS + " threads";
+		}
+
+		try
+		{
+			for (int round = 0; round < ROUNDS; ++round)
+			{
+				run("channel sink, " + threads, executor, true);
+				run("stream sink, " + threads, executor, false);
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+
+	private static void run(String name, ExecutorService executor, final boolean channel) throws Exception
+	{
+		long start = System.nanoTime();
+
+		Future<?>[] results = new Future<?>[SERIALIZERS];
+		for (int i = 0; i < SERIALIZERS; ++i)
+		{
+			results[i] = executor.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					WritableByteChannel sink = new SlowChannel();
+					XmlSerializer serializer = channel ? new XmlSerializer(sink) : new XmlSerializer(Channels.newOutputStream(sink));
+					XmlElement root = new XmlElement("DAV:", "multistatus");
+					serializer.serialize(root);
+					for (int j = 0; j < ITEMS; ++j)
+					{
+						root.add(new XmlElement("DAV:", "response").add(new XmlElement("DAV:", "href").addText("/item/" + j + "?a&b")));
+					}
+					serializer.close();
+					return null;
+				}
+			});
+		}
+		for (Future<?> result : results)
+		{
+			result.get();
+		}
+
+		BenchmarkUtils.report(name, System.nanoTime() - start, -1, SERIALIZERS);
+	}
+}
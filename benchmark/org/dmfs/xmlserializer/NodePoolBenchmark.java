@@ -0,0 +1,76 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+
+
+/**
+ * Compares the allocation rate of streaming a large document with and without node pooling.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class NodePoolBenchmark
+{
+	private final static int ROWS = 1000000;
+
+	private final static int ROUNDS = 5;
+
+
+	public static void main(String[] args) throws IOException, InvalidStateException, InvalidValueException
+	{
+		for (int round = 0; round < ROUNDS; ++round)
+		{
+			run("unpooled", false);
+			run("pooled", true);
+		}
+	}
+
+
+	private static void run(String name, boolean pooled) throws IOException, InvalidStateException, InvalidValueException
+	{
+		long bytes = BenchmarkUtils.allocatedBytes();
+		long start = System.nanoTime();
+
+		XmlSerializer serializer = new XmlSerializer(BenchmarkUtils.NULL_WRITER);
+		if (pooled)
+		{
+			serializer.enableNodePool(64);
+		}
+		serializer.registerNamespace("urn:rows");
+
+		XmlElement root = serializer.element("urn:rows", "rows");
+		serializer.serialize(root);
+		for (int i = 0; i < ROWS; ++i)
+		{
+			XmlElement row = serializer.element("urn:rows", "row");
+			root.add(row);
+			row.add(serializer.element("urn:rows", "name").add(serializer.text("name")));
+			row.add(serializer.element("urn:rows", "value").add(serializer.text("value")));
+		}
+		serializer.close();
+
+		long nanos = System.nanoTime() - start;
+		long allocated = BenchmarkUtils.allocatedBytes();
+		BenchmarkUtils.report(name, nanos, bytes < 0 ? -1 : allocated - bytes, ROWS);
+	}
+}
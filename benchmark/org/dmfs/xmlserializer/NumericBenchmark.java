@@ -0,0 +1,81 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+
+
+/**
+ * Compares writing a numeric-heavy document with {@link String} values and with primitive values.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class NumericBenchmark
+{
+	private final static int ROWS = 1000000;
+
+	private final static int ROUNDS = 5;
+
+
+	public static void main(String[] args) throws IOException, InvalidStateException, InvalidValueException
+	{
+		for (int round = 0; round < ROUNDS; ++round)
+		{
+			run("strings", false);
+			run("primitives", true);
+		}
+	}
+
+
+	private static void run(String name, boolean primitive) throws IOException, InvalidStateException, InvalidValueException
+	{
+		long bytes = BenchmarkUtils.allocatedBytes();
+		long start = System.nanoTime();
+
+		XmlSerializer serializer = new XmlSerializer(BenchmarkUtils.NULL_OUTPUT_STREAM);
+		XmlElement root = new XmlElement("files");
+		serializer.serialize(root);
+		for (int i = 0; i < ROWS; ++i)
+		{
+			long size = i * 7919L;
+			XmlElement file = new XmlElement("file");
+			if (primitive)
+			{
+				file.addAttribute("seq", i).addAttribute("size", size).addAttribute("ratio", i / 4.0);
+				root.add(file);
+				file.add(new XmlElement("count").addText(i % 1000));
+			}
+			else
+			{
+				file.addAttribute("seq", String.valueOf(i)).addAttribute("size", String.valueOf(size)).addAttribute("ratio", String.valueOf(i / 4.0));
+				root.add(file);
+				file.add(new XmlElement("count").addText(String.valueOf(i % 1000)));
+			}
+		}
+		serializer.close();
+
+		long nanos = System.nanoTime() - start;
+		long allocated = BenchmarkUtils.allocatedBytes();
+		BenchmarkUtils.report(name, nanos, bytes < 0 ? -1 : allocated - bytes, ROWS);
+	}
+}
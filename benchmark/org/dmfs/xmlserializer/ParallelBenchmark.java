@@ -0,0 +1,94 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Compares serializing a wide multistatus-like document sequentially and in parallel. Allocations are not reported, since they happen on several threads.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class ParallelBenchmark
+{
+	private final static int RESPONSES = 20000;
+
+	private final static int ROUNDS = 5;
+
+
+	public static void main(String[] args) throws IOException, InvalidStateException, InvalidValueException
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			for (int round = 0; round < ROUNDS; ++round)
+			{
+				run("sequential", null);
+				run("parallel (" + threads + " threads)", executor);
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+
+	private static void run(String name, ExecutorService executor) throws IOException, InvalidStateException, InvalidValueException
+	{
+		long start = System.nanoTime();
+
+		XmlSerializer serializer = new XmlSerializer(BenchmarkUtils.NULL_OUTPUT_STREAM);
+		XmlElement root = new XmlElement("DAV:", "multistatus");
+		serializer.serialize(root);
+		List<XmlAbstractNode> responses = new ArrayList<XmlAbstractNode>(RESPONSES);
+		for (int i = 0; i < RESPONSES; ++i)
+		{
+			XmlElement prop = new XmlElement("DAV:", "prop");
+			prop.add(new XmlElement("DAV:", "displayname").addText("Item <" + i + "> & friends, \"quoted\" \u00e4\u00f6\u00fc"));
+			prop.add(new XmlElement("DAV:", "getcontentlength").addText(i * 1024L));
+			prop.add(new XmlElement("DAV:", "getlastmodified").add(new XmlDateTimeText(XmlDateTimeFormat.RFC_1123, 1300000000000L + i * 1000L)));
+			XmlElement response = new XmlElement("DAV:", "response");
+			response.add(new XmlElement("DAV:", "href").addText("/calendars/user/item-" + i + ".ics?a=1&b=2"));
+			response.add(new XmlElement("DAV:", "propstat").add(prop).add(new XmlElement("DAV:", "status").addText("HTTP/1.1 200 OK")));
+			responses.add(response);
+		}
+		if (executor == null)
+		{
+			root.addAll(responses);
+		}
+		else
+		{
+			root.addAll(responses, executor);
+		}
+		serializer.close();
+
+		BenchmarkUtils.report(name, System.nanoTime() - start, -1, RESPONSES);
+	}
+}
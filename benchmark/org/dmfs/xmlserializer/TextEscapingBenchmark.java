@@ -0,0 +1,126 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Escapes a single text node of increasing size sequentially and in parallel and reports the smallest size from which on the parallel path is faster. Use the
+ * result as the threshold for {@link XmlSerializer#setParallelTextEscaping(java.util.concurrent.Executor, int)}. Allocations are not reported, since they
+ * happen on several threads.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class TextEscapingBenchmark
+{
+	private final static int MIN_SIZE = 16 * 1024;
+
+	private final static int MAX_SIZE = 32 * 1024 * 1024;
+
+	/**
+	 * The number of characters that are escaped per measurement, so small texts are escaped more often than large ones.
+	 */
+	private final static long VOLUME = 64L * 1024 * 1024;
+
+	private final static int ROUNDS = 3;
+
+
+	public static void main(String[] args) throws IOException, InvalidStateException, InvalidValueException
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			for (int round = 0; round < ROUNDS; ++round)
+			{
+				int crossover = -1;
+				for (int size = MIN_SIZE; size <= MAX_SIZE; size <<= 1)
+				{
+					String text = text(size);
+					long sequential = run("sequential, " + size + " chars", text, null);
+					long parallel = run("parallel (" + threads + " threads), " + size + " chars", text, executor);
+					if (parallel < sequential && crossover < 0)
+					{
+						crossover = size;
+					}
+					else if (parallel >= sequential)
+					{
+						crossover = -1;
+					}
+				}
+				System.out.println(crossover < 0 ? "no crossover" : "crossover at " + crossover + " chars");
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+
+	private static long run(String name, String text, ExecutorService executor) throws IOException, InvalidStateException, InvalidValueException
+	{
+		int ops = (int) Math.max(1, VOLUME / text.length());
+		long start = System.nanoTime();
+		for (int i = 0; i < ops; ++i)
+		{
+			XmlSerializer serializer = new XmlSerializer(BenchmarkUtils.NULL_WRITER);
+			if (executor != null)
+			{
+				serializer.setParallelTextEscaping(executor, 1);
+			}
+			XmlElement root = new XmlElement("text");
+			root.addText(text);
+			serializer.serialize(root);
+			serializer.close();
+		}
+		long nanos = System.nanoTime() - start;
+		BenchmarkUtils.report(name, nanos, -1, ops);
+		return nanos / ops;
+	}
+
+
+	/**
+	 * Returns a text of the given size that contains a special character every 50 characters and a surrogate pair every 200 characters.
+	 */
+	private static String text(int size)
+	{
+		StringBuilder text = new StringBuilder(size);
+		for (int i = 0; text.length() < size; ++i)
+		{
+			if (i % 200 == 1)
+			{
+				text.append("\ud83d\ude00");
+			}
+			else
+			{
+				text.append(i % 50 == 0 ? '&' : (char) ('a' + i % 26));
+			}
+		}
+		text.setLength(size);
+		return text.toString();
+	}
+}
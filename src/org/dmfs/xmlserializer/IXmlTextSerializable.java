@@ -32,7 +32,8 @@ import java.io.IOException;
 public interface IXmlTextSerializable
 {
 	/**
-	 * Populate the node with text.
+	 * Populate the node with text. This is called when the node is written, so text added to the node (or written to {@link XmlText#writer()}) goes straight
+	 * to the output.
 	 * 
 	 * @param adapter
 	 *            An {@link XmlText} instance where to add the text.
@@ -0,0 +1,46 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+
+
+/**
+ * Interface for classes that provide the value of an attribute or a text node on demand.
+ * <p>
+ * The value is requested when the node is actually written and it's dropped right after it has been written. Values of nodes that are never written are never
+ * computed.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface IXmlValueSupplier
+{
+	/**
+	 * Get the value.
+	 * 
+	 * @return A {@link CharSequence} containing the value or {@code null} for no value.
+	 * @throws IOException
+	 */
+	public CharSequence getXmlValue() throws IOException;
+}
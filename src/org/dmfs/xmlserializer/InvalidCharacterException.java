@@ -0,0 +1,62 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+
+
+/**
+ * An Exception that indicates a character that is not allowed in XML 1.0 was about to be written. It's only thrown if the serializer has been configured to
+ * reject such characters, see {@link XmlSerializer#setInvalidCharacterPolicy(int)}.
+ * <p>
+ * This is an {@link IOException}, because invalid characters are detected while the output is written.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class InvalidCharacterException extends IOException
+{
+
+	/**
+	 * Auto generated serial.
+	 */
+	private static final long serialVersionUID = 3894306731874214536L;
+
+	/**
+	 * The invalid character.
+	 */
+	public final char character;
+
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param character
+	 *            The invalid character.
+	 */
+	public InvalidCharacterException(char character)
+	{
+		super(String.format("invalid XML character U+%04X", (int) character));
+		this.character = character;
+	}
+}
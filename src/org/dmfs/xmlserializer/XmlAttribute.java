@@ -22,13 +22,15 @@
 package org.dmfs.xmlserializer;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 
 
 /**
  * Class that represents an attribute of an XML element.
  * 
- * Instances of this class are immutable.
+ * Instances of this class are immutable. The namespace prefix is resolved by the serializer that writes the attribute, so a single instance can be shared
+ * among serializers running in different threads.
  * <p>
  * <b>Note:</b> Two XmlAttributes are considered to be equal if their namespaces and their names are equal. The value is not taken into account! We do this to
  * ensure a {@link Set} of XmlAttributes won't contain multiple attributes with the same name.
@@ -43,12 +45,6 @@ public class XmlAttribute
 	 */
 	public final String namespace;
 
-	/**
-	 * An {@link XmlNamespace} instance representing the namespace or {@code null} if this attribute has no namespace or {@link setNamespaceRegistry} has not
-	 * been called yet.
-	 */
-	private XmlNamespace mNamespace;
-
 	/**
 	 * A flag indicating whether this attribute has a namespace.
 	 */
@@ -64,6 +60,12 @@ public class XmlAttribute
 	 */
 	public final String value;
 
+	/**
+	 * The precomputed markup of this attribute without namespace prefix, i.e. the name and the entity encoded value, or {@code null} if the value is encoded
+	 * when the attribute is written.
+	 */
+	private final String mEncoded;
+
 
 	/**
 	 * Constructor for an attribute without namespace.
@@ -90,6 +92,24 @@ public class XmlAttribute
 	 *            A @{link String} containing the attribute's value.
 	 */
 	public XmlAttribute(String namespace, String name, String value)
+	{
+		this(namespace, name, value, false);
+	}
+
+
+	/**
+	 * Constructor for an attribute with namespace that optionally encodes the value right away.
+	 * 
+	 * @param namespace
+	 *            A @{link String} containing the attribute's namespace.
+	 * @param name
+	 *            A @{link String} containing the attribute's name.
+	 * @param value
+	 *            A @{link String} containing the attribute's value.
+	 * @param precompute
+	 *            {@code true} to encode the attribute once in advance instead of every time it's written.
+	 */
+	XmlAttribute(String namespace, String name, String value, boolean precompute)
 	{
 		if (name == null)
 		{
@@ -99,13 +119,32 @@ public class XmlAttribute
 		this.mHasNamespace = namespace != null && namespace.length() > 0;
 		this.name = name;
 		this.value = value;
+
+		if (precompute)
+		{
+			StringWriter out = new StringWriter(name.length() + (value == null ? 0 : value.length()) + 8);
+			try
+			{
+				writeNameAndValue(out, XmlSerializer.INVALID_CHARS_IGNORE);
+			}
+			catch (IOException e)
+			{
+				// a StringWriter doesn't throw
+				throw new RuntimeException("can not encode attribute", e);
+			}
+			mEncoded = out.toString();
+		}
+		else
+		{
+			mEncoded = null;
+		}
 	}
 
 
 	/**
-	 * Set the {@link XmlNamespaceRegistry} and register namespace.
+	 * Register the namespace of this attribute in the {@link XmlNamespaceRegistry}.
 	 * 
-	 * Attributes do not store the namespace registry, they just use it to get an {@link XmlNamespace} instance for their namespace.
+	 * Attributes do not store the namespace registry or the resulting {@link XmlNamespace}, they just ensure the namespace is registered early enough.
 	 * 
 	 * @param namespaceRegistry
 	 *            The {@link XmlNamespaceRegistry} of this XML.
@@ -115,7 +154,7 @@ public class XmlAttribute
 	{
 		if (mHasNamespace)
 		{
-			mNamespace = namespaceRegistry.getNamespace(namespace);
+			namespaceRegistry.getNamespace(namespace);
 		}
 	}
 
@@ -125,22 +164,68 @@ public class XmlAttribute
 	 * 
 	 * @param out
 	 *            The {@link Writer} to write to.
+	 * @param namespaceRegistry
+	 *            The {@link XmlNamespaceRegistry} to resolve the namespace prefix.
 	 * @throws IOException
+	 * @throws InvalidValueException
 	 */
-	final void write(Writer out) throws IOException
+	final void write(Writer out, XmlNamespaceRegistry namespaceRegistry) throws IOException, InvalidValueException
 	{
-		if (mHasNamespace && mNamespace.hasPrefix) // only write a namespace if it has a prefix, attributes do not support default namespaces
+		XmlNames.validate(name);
+		if (mHasNamespace)
+		{
+			XmlNamespace ns = namespaceRegistry.getNamespace(namespace);
+			if (ns.hasPrefix) // only write a namespace if it has a prefix, attributes do not support default namespaces
+			{
+				ns.writePrefix(out);
+				out.write(':');
+			}
+		}
+
+		if (mEncoded != null)
 		{
-			mNamespace.writePrefix(out);
-			out.write(':');
+			out.write(mEncoded);
 		}
+		else
+		{
+			writeNameAndValue(out, namespaceRegistry == null ? XmlSerializer.INVALID_CHARS_IGNORE : namespaceRegistry.getInvalidCharacterPolicy());
+		}
+	}
+
+
+	/**
+	 * Write the name and the entity encoded value of this attribute to a {@link Writer}.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param policy
+	 *            The policy for invalid characters, one of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * @throws IOException
+	 */
+	private void writeNameAndValue(Writer out, int policy) throws IOException
+	{
 		out.write(name);
 		out.write("=\"");
-		XmlUtils.writeXmlEntityEncodedString(out, value);
+		writeValue(out, policy);
 		out.write('"');
 	}
 
 
+	/**
+	 * Write the entity encoded value of this attribute to a {@link Writer}.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param policy
+	 *            The policy for invalid characters, one of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * @throws IOException
+	 */
+	void writeValue(Writer out, int policy) throws IOException
+	{
+		XmlUtils.writeXmlEntityEncodedString(out, value, policy);
+	}
+
+
 	@Override
 	final public int hashCode()
 	{
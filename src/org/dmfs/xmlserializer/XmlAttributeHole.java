@@ -0,0 +1,60 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+/**
+ * A placeholder for an attribute value in an {@link XmlTemplate}.
+ * <p>
+ * Add it to an {@link XmlElement} of a template like any other attribute and set its value in each {@link XmlTemplateInstance}. Outside of a template it's
+ * written with an empty value.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlAttributeHole extends XmlAttribute
+{
+
+	/**
+	 * Constructor for an attribute hole without namespace.
+	 * 
+	 * @param name
+	 *            A @{link String} with the attribute's name.
+	 */
+	public XmlAttributeHole(String name)
+	{
+		this(null, name);
+	}
+
+
+	/**
+	 * Constructor for an attribute hole with namespace.
+	 * 
+	 * @param namespace
+	 *            A @{link String} containing the attribute's namespace.
+	 * @param name
+	 *            A @{link String} containing the attribute's name.
+	 */
+	public XmlAttributeHole(String namespace, String name)
+	{
+		super(namespace, name, null);
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * Serializes many small, independent documents in parallel. Each thread that takes part keeps its own {@link XmlSerializer} and output buffer and reuses
+ * them for every document it serializes, so the per-document cost is not much more than the cost of encoding the document itself.
+ * <p>
+ * The documents are split into batches that are serialized by an {@link Executor}. The calling thread serializes every batch that the executor has not
+ * started yet, so this works with any {@link Executor}, even a saturated one. The results are returned in the order of the input.
+ * </p>
+ * <p>
+ * Instances can be shared among threads.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlBatchSerializer
+{
+	/**
+	 * The number of batches per thread, more batches balance the load better, fewer batches have less overhead.
+	 */
+	private final static int BATCHES_PER_THREAD = 4;
+
+	/**
+	 * The maximum size of an output buffer to keep for the next document.
+	 */
+	private final static int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * An {@link OutputStream} with a buffer that is reused for every document.
+	 */
+	private final static class ReusableOutputStream extends OutputStream
+	{
+		byte[] buffer = new byte[4096];
+		int count;
+
+
+		@Override
+		public void write(int b)
+		{
+			ensureCapacity(count + 1);
+			buffer[count++] = (byte) b;
+		}
+
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			ensureCapacity(count + len);
+			System.arraycopy(b, off, buffer, count, len);
+			count += len;
+		}
+
+
+		private void ensureCapacity(int capacity)
+		{
+			if (capacity > buffer.length)
+			{
+				byte[] newBuffer = new byte[Math.max(capacity, buffer.length * 2)];
+				System.arraycopy(buffer, 0, newBuffer, 0, count);
+				buffer = newBuffer;
+			}
+		}
+
+
+		/**
+		 * Return a copy of the content and reset the stream.
+		 */
+		byte[] take()
+		{
+			byte[] result = new byte[count];
+			System.arraycopy(buffer, 0, result, 0, count);
+			count = 0;
+			if (buffer.length > MAX_RETAINED_BUFFER_SIZE)
+			{
+				// don't keep huge buffers around
+				buffer = new byte[4096];
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * The state of a thread.
+	 */
+	private final static class State
+	{
+		final ReusableOutputStream out = new ReusableOutputStream();
+		final XmlSerializer serializer = new XmlSerializer(out);
+	}
+
+	/**
+	 * The {@link Executor} that serializes the batches.
+	 */
+	private final Executor mExecutor;
+
+	/**
+	 * The number of threads of {@link #mExecutor}, used to determine the number of batches.
+	 */
+	private final int mThreads;
+
+	/**
+	 * The state of each thread.
+	 */
+	private final ThreadLocal<State> mState = new ThreadLocal<State>()
+	{
+		@Override
+		protected State initialValue()
+		{
+			return new State();
+		}
+	};
+
+
+	/**
+	 * Create a new batch serializer.
+	 * 
+	 * @param executor
+	 *            The {@link Executor} to serialize the documents.
+	 * @param threads
+	 *            The number of threads of {@code executor}.
+	 */
+	public XmlBatchSerializer(Executor executor, int threads)
+	{
+		if (executor == null)
+		{
+			throw new NullPointerException("executor must not be null");
+		}
+		if (threads <= 0)
+		{
+			throw new IllegalArgumentException("threads must be greater than 0");
+		}
+		mExecutor = executor;
+		mThreads = threads;
+	}
+
+
+	/**
+	 * Serialize a number of documents.
+	 * 
+	 * @param roots
+	 *            The root elements of the documents.
+	 * @return The UTF-8 encoded documents in the order of {@code roots}.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 * @throws InvalidValueException
+	 */
+	public byte[][] serialize(final List<? extends XmlElement> roots) throws IOException, InvalidStateException, InvalidValueException
+	{
+		return serialize(roots, false);
+	}
+
+
+	/**
+	 * Serialize a number of documents with {@link IXmlElementSerializable} root nodes. The serializables are populated on the serializing threads.
+	 * 
+	 * @param roots
+	 *            The root nodes of the documents.
+	 * @return The UTF-8 encoded documents in the order of {@code roots}.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 * @throws InvalidValueException
+	 */
+	public byte[][] serializeSerializables(final List<? extends IXmlElementSerializable> roots) throws IOException, InvalidStateException,
+		InvalidValueException
+	{
+		return serialize(roots, true);
+	}
+
+
+	private byte[][] serialize(final List<?> roots, final boolean serializables) throws IOException, InvalidStateException, InvalidValueException
+	{
+		final int count = roots.size();
+		final byte[][] result = new byte[count][];
+		if (count == 0)
+		{
+			return result;
+		}
+
+		final int batchCount = Math.min(count, mThreads * BATCHES_PER_THREAD);
+		List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(batchCount);
+		for (int i = 0; i < batchCount; ++i)
+		{
+			final int start = (int) ((long) count * i / batchCount);
+			final int end = (int) ((long) count * (i + 1) / batchCount);
+			tasks.add(new FutureTask<Void>(new Callable<Void>()
+			{
+				public Void call() throws Exception
+				{
+					State state = mState.get();
+					try
+					{
+						for (int j = start; j < end; ++j)
+						{
+							Object root = roots.get(j);
+							XmlElement element = serializables ? new XmlElementSerializableAdapter((IXmlElementSerializable) root) : (XmlElement) root;
+							state.serializer.serialize(element);
+							state.serializer.close();
+							result[j] = state.out.take();
+						}
+					}
+					catch (Exception e)
+					{
+						// the state may contain a partial document, start over with a new one
+						mState.remove();
+						throw e;
+					}
+					return null;
+				}
+			}));
+		}
+
+		for (FutureTask<Void> task : tasks)
+		{
+			try
+			{
+				mExecutor.execute(task);
+			}
+			catch (RejectedExecutionException e)
+			{
+				// the task will be run on this thread below
+			}
+		}
+
+		int i = 0;
+		try
+		{
+			for (; i < batchCount; ++i)
+			{
+				// run the task on this thread unless the executor has already started it
+				tasks.get(i).run();
+				XmlParallelGroup.get(tasks.get(i));
+			}
+		}
+		finally
+		{
+			// in case of an error don't waste any time on the remaining batches
+			for (; i < batchCount; ++i)
+			{
+				tasks.get(i).cancel(false);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * A text node that contains binary data encoded in Base64 or hex.
+ * <p>
+ * The data is read and encoded in chunks when the node is written, so it's never held in memory as a whole, neither raw nor encoded. Since the encoded data
+ * never contains any characters that need to be escaped, it's written without scanning it for special characters.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlBinaryText extends XmlAbstractNode
+{
+	/**
+	 * Base64 encoding as specified in RFC 4648.
+	 */
+	public final static int ENCODING_BASE64 = 0;
+
+	/**
+	 * Hex encoding, using upper case digits.
+	 */
+	public final static int ENCODING_HEX = 1;
+
+	/**
+	 * The number of bytes to encode at once, a multiple of 3, so only the last chunk needs Base64 padding.
+	 */
+	private final static int CHUNK_SIZE = 3 * 1024;
+
+	private final static char[] BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	private final static char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * The encoding, one of {@link #ENCODING_BASE64} or {@link #ENCODING_HEX}.
+	 */
+	private final int mEncoding;
+
+	/**
+	 * The data if it comes from an {@link InputStream}, otherwise {@code null}.
+	 */
+	private final InputStream mStream;
+
+	/**
+	 * The data if it comes from a {@link ByteBuffer}, otherwise {@code null}.
+	 */
+	private final ByteBuffer mBuffer;
+
+	/**
+	 * The data if it comes from a {@link FileChannel}, otherwise {@code null}.
+	 */
+	private final FileChannel mChannel;
+
+	/**
+	 * The position of the data in {@link #mChannel}.
+	 */
+	private final long mPosition;
+
+	/**
+	 * The length of the data in {@link #mChannel}.
+	 */
+	private final long mCount;
+
+	/**
+	 * The maximum length of a line of encoded data or {@code 0} to write everything into one line.
+	 */
+	private int mLineLength;
+
+	/**
+	 * The output chunk.
+	 */
+	private char[] mOutChunk;
+
+	/**
+	 * The number of chars in {@link #mOutChunk}.
+	 */
+	private int mOutPos;
+
+	/**
+	 * The length of the current line.
+	 */
+	private int mColumn;
+
+
+	/**
+	 * Create a binary text node that encodes the content of an {@link InputStream}. The stream is read to the end when the node is written, but it's not
+	 * closed.
+	 * 
+	 * @param data
+	 *            The {@link InputStream} to read from.
+	 * @param encoding
+	 *            The encoding, one of {@link #ENCODING_BASE64} or {@link #ENCODING_HEX}.
+	 */
+	public XmlBinaryText(InputStream data, int encoding)
+	{
+		this(encoding, data, null, null, 0, 0);
+	}
+
+
+	/**
+	 * Create a binary text node that encodes the remaining content of a {@link ByteBuffer}, for instance a {@link java.nio.MappedByteBuffer}. The position of
+	 * the buffer is not changed.
+	 * 
+	 * @param data
+	 *            The {@link ByteBuffer} to encode.
+	 * @param encoding
+	 *            The encoding, one of {@link #ENCODING_BASE64} or {@link #ENCODING_HEX}.
+	 */
+	public XmlBinaryText(ByteBuffer data, int encoding)
+	{
+		this(encoding, null, data, null, 0, 0);
+	}
+
+
+	/**
+	 * Create a binary text node that encodes a region of a file. The region is mapped into memory when the node is written.
+	 * 
+	 * @param channel
+	 *            The {@link FileChannel} to read from.
+	 * @param position
+	 *            The position of the first byte.
+	 * @param count
+	 *            The number of bytes.
+	 * @param encoding
+	 *            The encoding, one of {@link #ENCODING_BASE64} or {@link #ENCODING_HEX}.
+	 */
+	public XmlBinaryText(FileChannel channel, long position, long count, int encoding)
+	{
+		this(encoding, null, null, channel, position, count);
+		if (position < 0 || count < 0)
+		{
+			throw new IllegalArgumentException("invalid position or count");
+		}
+	}
+
+
+	private XmlBinaryText(int encoding, InputStream stream, ByteBuffer buffer, FileChannel channel, long position, long count)
+	{
+		if (encoding != ENCODING_BASE64 && encoding != ENCODING_HEX)
+		{
+			throw new IllegalArgumentException("unknown encoding " + encoding);
+		}
+		if (stream == null && buffer == null && channel == null)
+		{
+			throw new NullPointerException("data must not be null");
+		}
+		mEncoding = encoding;
+		mStream = stream;
+		mBuffer = buffer;
+		mChannel = channel;
+		mPosition = position;
+		mCount = count;
+	}
+
+
+	/**
+	 * Wrap the encoded data into lines of the given length, e.g. 76 for MIME.
+	 * 
+	 * @param lineLength
+	 *            The maximum line length. For Base64 it must be a multiple of 4, for hex it must be even. Use {@code 0} to disable wrapping (the default).
+	 * @return This XmlBinaryText instance.
+	 * @throws InvalidStateException
+	 *             if the node has been written already.
+	 */
+	public XmlBinaryText setLineLength(int lineLength) throws InvalidStateException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("Can not change line length - node has been written already!");
+		}
+		if (lineLength < 0 || lineLength % (mEncoding == ENCODING_BASE64 ? 4 : 2) != 0)
+		{
+			throw new IllegalArgumentException("invalid line length " + lineLength);
+		}
+		mLineLength = lineLength;
+		return this;
+	}
+
+
+	@Override
+	void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+	{
+		// nothing to do
+	}
+
+
+	@Override
+	void open(Writer out) throws IOException, InvalidStateException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("Can not open binary text node - it's already open!");
+		}
+		state = STATE_START_TAG_CLOSED;
+
+		// room for an encoded chunk plus line breaks, the worst case is hex with a line length of 2
+		mOutChunk = new char[CHUNK_SIZE * 3 + 2];
+		mOutPos = 0;
+		mColumn = 0;
+
+		if (mStream != null)
+		{
+			encode(out, mStream);
+		}
+		else if (mBuffer != null)
+		{
+			encode(out, mBuffer.duplicate());
+		}
+		else
+		{
+			encode(out, mChannel.map(FileChannel.MapMode.READ_ONLY, mPosition, mCount));
+		}
+
+		// free the buffer
+		mOutChunk = null;
+	}
+
+
+	@Override
+	void close() throws InvalidStateException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("Can not close binary text node - it's not open!");
+		}
+		state = STATE_CLOSED;
+	}
+
+
+	/**
+	 * Encode the content of an {@link InputStream}.
+	 */
+	private void encode(Writer out, InputStream in) throws IOException
+	{
+		byte[] chunk = new byte[CHUNK_SIZE];
+		int len;
+		do
+		{
+			// fill the chunk completely, so only the last one can have a partial Base64 group
+			len = 0;
+			int read;
+			while (len < CHUNK_SIZE && (read = in.read(chunk, len, CHUNK_SIZE - len)) >= 0)
+			{
+				len += read;
+			}
+			encodeChunk(out, chunk, 0, len);
+		} while (len == CHUNK_SIZE);
+	}
+
+
+	/**
+	 * Encode the remaining content of a {@link ByteBuffer}.
+	 */
+	private void encode(Writer out, ByteBuffer data) throws IOException
+	{
+		if (data.hasArray())
+		{
+			byte[] array = data.array();
+			int offset = data.arrayOffset() + data.position();
+			int remaining = data.remaining();
+			while (remaining > 0)
+			{
+				int len = Math.min(remaining, CHUNK_SIZE);
+				encodeChunk(out, array, offset, len);
+				offset += len;
+				remaining -= len;
+			}
+		}
+		else
+		{
+			byte[] chunk = new byte[CHUNK_SIZE];
+			while (data.hasRemaining())
+			{
+				int len = Math.min(data.remaining(), CHUNK_SIZE);
+				data.get(chunk, 0, len);
+				encodeChunk(out, chunk, 0, len);
+			}
+		}
+	}
+
+
+	/**
+	 * Encode a chunk of data and write it. All but the last chunk must have a length that is a multiple of 3.
+	 */
+	private void encodeChunk(Writer out, byte[] data, int offset, int len) throws IOException
+	{
+		final int end = offset + len;
+		if (mEncoding == ENCODING_HEX)
+		{
+			for (int i = offset; i < end; ++i)
+			{
+				int b = data[i] & 0xff;
+				append(HEX_DIGITS[b >> 4]);
+				append(HEX_DIGITS[b & 0x0f]);
+			}
+		}
+		else
+		{
+			final char[] digits = BASE64_DIGITS;
+			int i = offset;
+			for (; i + 2 < end; i += 3)
+			{
+				int group = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+				append(digits[group >> 18]);
+				append(digits[(group >> 12) & 0x3f]);
+				append(digits[(group >> 6) & 0x3f]);
+				append(digits[group & 0x3f]);
+			}
+
+			if (i < end)
+			{
+				// last partial group, add padding
+				int group = (data[i] & 0xff) << 16 | (i + 1 < end ? (data[i + 1] & 0xff) << 8 : 0);
+				append(digits[group >> 18]);
+				append(digits[(group >> 12) & 0x3f]);
+				append(i + 1 < end ? digits[(group >> 6) & 0x3f] : '=');
+				append('=');
+			}
+		}
+		out.write(mOutChunk, 0, mOutPos);
+		mOutPos = 0;
+	}
+
+
+	/**
+	 * Append an encoded character to the output chunk, inserting a line break if necessary.
+	 */
+	private void append(char c)
+	{
+		if (mLineLength > 0 && mColumn == mLineLength)
+		{
+			mOutChunk[mOutPos++] = '\n';
+			mColumn = 0;
+		}
+		mOutChunk[mOutPos++] = c;
+		++mColumn;
+	}
+}
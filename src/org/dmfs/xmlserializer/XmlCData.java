@@ -0,0 +1,522 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * An XML CDATA section.
+ * <p>
+ * Text in a CDATA section is written as it is, so large texts with many special characters (like embedded HTML) don't grow by entity encoding. Any
+ * occurrence of {@code ]]>} in the text is split across two CDATA sections automatically, even if it spans multiple calls to {@code add}.
+ * </p>
+ * <p>
+ * In {@link #MODE_AUTO} the node decides for each chunk of text whether a CDATA section or entity encoding results in the shorter output, so text with only a
+ * few special characters is written like an {@link XmlText} node.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class XmlCData extends XmlAbstractNode
+{
+	/**
+	 * Always write the text in CDATA sections.
+	 */
+	public final static int MODE_CDATA = 0;
+
+	/**
+	 * Choose between CDATA sections and entity encoding for each chunk of text.
+	 */
+	public final static int MODE_AUTO = 1;
+
+	/**
+	 * The size of the chunks text is written and evaluated in.
+	 */
+	private final static int CHUNK_SIZE = 2048;
+
+	/**
+	 * The number of special characters in a chunk from which on a CDATA section is shorter than entity encoding. Entities add at least 3 characters per
+	 * special character, a CDATA section adds 12 characters.
+	 */
+	private final static int CDATA_THRESHOLD = 4;
+
+	private final static String CDATA_START = "<![CDATA[";
+	private final static String CDATA_END = "]]>";
+
+	/**
+	 * The mode of this node.
+	 */
+	private final int mMode;
+
+	/**
+	 * The first text segment of this node.
+	 */
+	private String mText;
+
+	/**
+	 * A {@link List} of the cached content of this node.
+	 */
+	private List<Object> mTextList;
+
+	/**
+	 * A buffer to copy chunks of text to, allocated on demand.
+	 */
+	private char[] mChunk;
+
+	/**
+	 * Whether a CDATA section is currently open.
+	 */
+	private boolean mInCData;
+
+	/**
+	 * The number of consecutive ']' characters (up to 2) at the end of the current CDATA section.
+	 */
+	private int mBrackets;
+
+	/**
+	 * The writer to write to.
+	 */
+	private Writer mOut;
+
+	/**
+	 * The policy for characters that are invalid in XML 1.0, taken from the document this node belongs to.
+	 */
+	private int mPolicy = XmlSerializer.INVALID_CHARS_IGNORE;
+
+
+	/**
+	 * Constructor for a CDATA node that always writes CDATA sections.
+	 * 
+	 * @param text
+	 *            The text of this node (may be {@code null}).
+	 */
+	public XmlCData(String text)
+	{
+		this(text, MODE_CDATA);
+	}
+
+
+	/**
+	 * Constructor for a CDATA node.
+	 * 
+	 * @param text
+	 *            The text of this node (may be {@code null}).
+	 * @param mode
+	 *            Either {@link #MODE_CDATA} or {@link #MODE_AUTO}.
+	 */
+	public XmlCData(String text, int mode)
+	{
+		if (mode != MODE_CDATA && mode != MODE_AUTO)
+		{
+			throw new IllegalArgumentException("invalid mode " + mode);
+		}
+		mText = text;
+		mMode = mode;
+	}
+
+
+	/**
+	 * Add text to this node. If the node has not been opened yet, the sequence is kept until the node is written, so don't modify it in the meantime.
+	 * 
+	 * @param text
+	 *            The text to append.
+	 * @return This XmlCData instance.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 */
+	public XmlCData add(CharSequence text) throws IOException, InvalidStateException
+	{
+		if (text != null && text.length() > 0)
+		{
+			addContent(text);
+		}
+		else if (state == STATE_CLOSED)
+		{
+			throw new InvalidStateException("Can not add text - node already closed!");
+		}
+		return this;
+	}
+
+
+	/**
+	 * Add a part of a char array to this node. If the node has not been opened yet, the array is kept until the node is written, so don't modify it in the
+	 * meantime.
+	 * 
+	 * @param text
+	 *            The text to append.
+	 * @param offset
+	 *            The offset of the first character.
+	 * @param length
+	 *            The number of characters.
+	 * @return This XmlCData instance.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 */
+	public XmlCData add(char[] text, int offset, int length) throws IOException, InvalidStateException
+	{
+		if (offset < 0 || length < 0 || offset + length > text.length)
+		{
+			throw new IndexOutOfBoundsException("invalid offset or length");
+		}
+
+		if (length > 0)
+		{
+			addContent(CharBuffer.wrap(text, offset, length));
+		}
+		else if (state == STATE_CLOSED)
+		{
+			throw new InvalidStateException("Can not add text - node already closed!");
+		}
+		return this;
+	}
+
+
+	/**
+	 * Add the content of a {@link Reader} to this node. The content is streamed in chunks of constant size. The reader is not closed.
+	 * 
+	 * @param reader
+	 *            The {@link Reader} to read the text from.
+	 * @return This XmlCData instance.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 */
+	public XmlCData add(Reader reader) throws IOException, InvalidStateException
+	{
+		if (reader == null)
+		{
+			throw new NullPointerException("reader must not be null");
+		}
+		addContent(reader);
+		return this;
+	}
+
+
+	/**
+	 * Cache or write text content, depending on the current state.
+	 * 
+	 * @param content
+	 *            A {@link CharSequence} or {@link Reader}.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 */
+	private void addContent(Object content) throws IOException, InvalidStateException
+	{
+		switch (state)
+		{
+			case STATE_NEW:
+				if (mTextList == null)
+				{
+					mTextList = new ArrayList<Object>();
+				}
+				mTextList.add(content);
+				break;
+			case STATE_START_TAG_OPEN:
+			case STATE_START_TAG_CLOSED:
+				writeContent(content);
+				break;
+			case STATE_CLOSED:
+				throw new InvalidStateException("Can not add text - node already closed!");
+		}
+	}
+
+
+	/**
+	 * Write text content chunk by chunk.
+	 * 
+	 * @param content
+	 *            A {@link CharSequence} or {@link Reader}.
+	 * @throws IOException
+	 */
+	private void writeContent(Object content) throws IOException
+	{
+		if (content instanceof CharBuffer && ((CharBuffer) content).hasArray())
+		{
+			CharBuffer buffer = (CharBuffer) content;
+			final char[] array = buffer.array();
+			final int end = buffer.arrayOffset() + buffer.limit();
+			int pos = buffer.arrayOffset() + buffer.position();
+			while (pos < end)
+			{
+				int count = chunkLength(array, pos, end - pos);
+				writeChunk(array, pos, count);
+				pos += count;
+			}
+		}
+		else if (content instanceof Reader)
+		{
+			Reader reader = (Reader) content;
+			final char[] chunk = chunk();
+			int carry = 0;
+			int read;
+			while ((read = reader.read(chunk, carry, CHUNK_SIZE - carry)) >= 0)
+			{
+				read += carry;
+				// keep a trailing high surrogate for the next chunk, so surrogate pairs are never split
+				carry = read > 0 && Character.isHighSurrogate(chunk[read - 1]) ? 1 : 0;
+				writeChunk(chunk, 0, read - carry);
+				if (carry > 0)
+				{
+					chunk[0] = chunk[read - 1];
+				}
+			}
+			writeChunk(chunk, 0, carry);
+		}
+		else
+		{
+			CharSequence text = (CharSequence) content;
+			final char[] chunk = chunk();
+			final int len = text.length();
+			int pos = 0;
+			while (pos < len)
+			{
+				int count = Math.min(CHUNK_SIZE, len - pos);
+				if (pos + count < len && Character.isHighSurrogate(text.charAt(pos + count - 1)))
+				{
+					// don't split surrogate pairs
+					--count;
+				}
+				if (text instanceof String)
+				{
+					((String) text).getChars(pos, pos + count, chunk, 0);
+				}
+				else
+				{
+					for (int i = 0; i < count; ++i)
+					{
+						chunk[i] = text.charAt(pos + i);
+					}
+				}
+				writeChunk(chunk, 0, count);
+				pos += count;
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the length of the next chunk of a char array, making sure surrogate pairs are not split.
+	 */
+	private static int chunkLength(char[] chars, int offset, int remaining)
+	{
+		if (remaining <= CHUNK_SIZE)
+		{
+			return remaining;
+		}
+		return Character.isHighSurrogate(chars[offset + CHUNK_SIZE - 1]) ? CHUNK_SIZE - 1 : CHUNK_SIZE;
+	}
+
+
+	/**
+	 * Write a chunk of text, either in a CDATA section or entity encoded.
+	 * 
+	 * @param chars
+	 *            The characters to write.
+	 * @param offset
+	 *            The offset of the first character.
+	 * @param length
+	 *            The number of characters.
+	 * @throws IOException
+	 */
+	private void writeChunk(char[] chars, int offset, int length) throws IOException
+	{
+		if (length == 0)
+		{
+			return;
+		}
+
+		final Writer out = mOut;
+		if (mMode == MODE_AUTO && !mInCData && countSpecialChars(chars, offset, length) < CDATA_THRESHOLD)
+		{
+			XmlUtils.writeXmlEntityEncodedChars(out, chars, offset, length, mPolicy);
+			return;
+		}
+
+		if (mMode == MODE_AUTO && mInCData && countSpecialChars(chars, offset, length) == 0)
+		{
+			// nothing to gain from CDATA, close the current section
+			out.write(CDATA_END);
+			mInCData = false;
+			mBrackets = 0;
+			XmlUtils.writeXmlEntityEncodedChars(out, chars, offset, length, mPolicy);
+			return;
+		}
+
+		if (!mInCData)
+		{
+			out.write(CDATA_START);
+			mInCData = true;
+		}
+
+		int start = offset;
+		int brackets = mBrackets;
+		final int end = offset + length;
+		final boolean check = mPolicy != XmlSerializer.INVALID_CHARS_IGNORE;
+		for (int pos = offset; pos < end; ++pos)
+		{
+			char c = chars[pos];
+			if (c == ']')
+			{
+				if (brackets < 2)
+				{
+					++brackets;
+				}
+			}
+			else
+			{
+				if (c == '>' && brackets == 2)
+				{
+					// split "]]>" by ending the section after "]]" and starting a new one before ">"
+					if (pos > start)
+					{
+						out.write(chars, start, pos - start);
+					}
+					out.write(CDATA_END);
+					out.write(CDATA_START);
+					start = pos;
+				}
+				else if (check && (c < ' ' || c >= '\ud800'))
+				{
+					if (pos + 1 < end && Character.isHighSurrogate(c) && Character.isLowSurrogate(chars[pos + 1]))
+					{
+						// valid surrogate pair
+						++pos;
+					}
+					else if (c < ' ' ? c != '\t' && c != '\n' && c != '\r' : c <= '\udfff' || c >= '\ufffe')
+					{
+						if (pos > start)
+						{
+							out.write(chars, start, pos - start);
+						}
+						XmlUtils.writeInvalid(out, c, mPolicy);
+						start = pos + 1;
+					}
+				}
+				brackets = 0;
+			}
+		}
+		if (end > start)
+		{
+			out.write(chars, start, end - start);
+		}
+		mBrackets = brackets;
+	}
+
+
+	/**
+	 * Count the characters that would be replaced by entities.
+	 */
+	private static int countSpecialChars(char[] chars, int offset, int length)
+	{
+		int count = 0;
+		final int end = offset + length;
+		for (int pos = offset; pos < end; ++pos)
+		{
+			char c = chars[pos];
+			if (c == '<' || c == '&' || c == '>' || c == '"' || c == '\'')
+			{
+				++count;
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 * Returns the chunk buffer of this node, allocating it if necessary.
+	 */
+	private char[] chunk()
+	{
+		if (mChunk == null)
+		{
+			mChunk = new char[CHUNK_SIZE];
+		}
+		return mChunk;
+	}
+
+
+	@Override
+	final void open(Writer out) throws InvalidStateException, IOException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("Can not open CDATA node - it's already open!");
+		}
+		state = STATE_START_TAG_CLOSED;
+		mOut = out;
+
+		if (mMode == MODE_CDATA)
+		{
+			// always write a section, even if it's empty
+			out.write(CDATA_START);
+			mInCData = true;
+		}
+
+		// write initial text, if any
+		if (mText != null)
+		{
+			writeContent(mText);
+			mText = null;
+		}
+
+		// write cached text if any
+		if (mTextList != null)
+		{
+			for (Object text : mTextList)
+			{
+				writeContent(text);
+			}
+			mTextList = null;
+		}
+	}
+
+
+	@Override
+	final void close() throws IOException, InvalidStateException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("Can not close CDATA node - it's not open!");
+		}
+
+		if (mInCData)
+		{
+			mOut.write(CDATA_END);
+			mInCData = false;
+		}
+		mChunk = null;
+		state = STATE_CLOSED;
+	}
+
+
+	@Override
+	final void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+	{
+		mPolicy = namespaceRegistry.getInvalidCharacterPolicy();
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * A node that writes a fragment from an {@link XmlFragmentCache}, serializing and caching it on a cache miss. Use
+ * {@link XmlFragmentCache#fragment(Object, IXmlElementSerializable)} to get one.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlCachedFragment extends XmlAbstractNode
+{
+	/**
+	 * The {@link XmlFragmentCache}.
+	 */
+	private final XmlFragmentCache mCache;
+
+	/**
+	 * The key of the fragment.
+	 */
+	private final Object mKey;
+
+	/**
+	 * The source of the fragment.
+	 */
+	private final IXmlElementSerializable mSource;
+
+	/**
+	 * The {@link XmlNamespaceRegistry} of this XML document.
+	 */
+	private XmlNamespaceRegistry mNamespaceRegistry;
+
+
+	XmlCachedFragment(XmlFragmentCache cache, Object key, IXmlElementSerializable source)
+	{
+		mCache = cache;
+		mKey = key;
+		mSource = source;
+	}
+
+
+	@Override
+	void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+	{
+		// namespaces are registered when the fragment is written, at that time the parent start tag is closed
+		mNamespaceRegistry = namespaceRegistry;
+	}
+
+
+	@Override
+	void open(Writer out) throws IOException, InvalidStateException, InvalidValueException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("can not open fragment - it's already open!");
+		}
+
+		XmlNamespaceRegistry registry = mNamespaceRegistry;
+		XmlFragmentCache.Entry entry = mCache.get(mKey, registry);
+		if (entry != null)
+		{
+			// cache hit, make sure enclosing fragments know about the bindings we depend on
+			registry.record(entry.bindings);
+			out.write(entry.data);
+		}
+		else
+		{
+			entry = serialize(registry, getDepth());
+			mCache.put(mKey, entry);
+			out.write(entry.data);
+		}
+		state = STATE_START_TAG_CLOSED;
+	}
+
+
+	/**
+	 * Serialize the source element and determine the prefix bindings the result depends on.
+	 */
+	private XmlFragmentCache.Entry serialize(XmlNamespaceRegistry registry, int depth) throws IOException, InvalidStateException, InvalidValueException
+	{
+		Set<XmlNamespace> used = new HashSet<XmlNamespace>();
+		Set<XmlNamespace> previous = registry.startRecording(used);
+		CharArrayWriter buffer = new CharArrayWriter(256);
+		XmlNamespace[] declarations = new XmlNamespace[0];
+		try
+		{
+			XmlElement element = new XmlElementSerializableAdapter(mSource);
+			element.setNamespaceRegistry(registry);
+			element.setDepth(depth);
+
+			// any namespace registered at our depth is defined by the fragment itself
+			Set<XmlNamespace> namespaces = registry.getNamespaces(depth);
+			if (namespaces != null && namespaces.size() > 0)
+			{
+				declarations = namespaces.toArray(new XmlNamespace[namespaces.size()]);
+			}
+
+			element.open(buffer);
+			element.close();
+		}
+		finally
+		{
+			registry.stopRecording(previous);
+		}
+
+		for (XmlNamespace ns : declarations)
+		{
+			used.remove(ns);
+		}
+		XmlNamespace[] bindings = used.toArray(new XmlNamespace[used.size()]);
+		registry.record(bindings);
+		return new XmlFragmentCache.Entry(buffer.toCharArray(), bindings, declarations);
+	}
+
+
+	@Override
+	void close() throws InvalidStateException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("can not close fragment - it's not open!");
+		}
+		state = STATE_CLOSED;
+	}
+}
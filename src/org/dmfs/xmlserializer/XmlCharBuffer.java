@@ -0,0 +1,183 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * A growable character buffer for serialized content that is handed off between threads. In contrast to {@link java.io.CharArrayWriter} no method is
+ * synchronized, in particular {@link #writeTo(Writer)} doesn't hold a monitor while the content is written to a (possibly blocking) output. Instances are
+ * not thread-safe, the hand-off must be safely published by the caller.
+ * 
+ * For internal use only.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class XmlCharBuffer extends Writer
+{
+	/**
+	 * The content of this buffer.
+	 */
+	private char[] mChars;
+
+	/**
+	 * The number of characters in {@link #mChars}.
+	 */
+	private int mCount;
+
+
+	/**
+	 * Create a buffer with the given initial capacity.
+	 * 
+	 * @param size
+	 *            The initial capacity.
+	 */
+	XmlCharBuffer(int size)
+	{
+		mChars = new char[Math.max(size, 16)];
+	}
+
+
+	@Override
+	public void write(int c)
+	{
+		if (mCount == mChars.length)
+		{
+			grow(1);
+		}
+		mChars[mCount++] = (char) c;
+	}
+
+
+	@Override
+	public void write(char[] cbuf, int off, int len)
+	{
+		if (len > mChars.length - mCount)
+		{
+			grow(len);
+		}
+		System.arraycopy(cbuf, off, mChars, mCount, len);
+		mCount += len;
+	}
+
+
+	@Override
+	public void write(String str)
+	{
+		write(str, 0, str.length());
+	}
+
+
+	@Override
+	public void write(String str, int off, int len)
+	{
+		if (len > mChars.length - mCount)
+		{
+			grow(len);
+		}
+		str.getChars(off, off + len, mChars, mCount);
+		mCount += len;
+	}
+
+
+	@Override
+	public Writer append(CharSequence csq)
+	{
+		String s = String.valueOf(csq);
+		write(s, 0, s.length());
+		return this;
+	}
+
+
+	@Override
+	public Writer append(CharSequence csq, int start, int end)
+	{
+		return append((csq == null ? "null" : csq).subSequence(start, end));
+	}
+
+
+	@Override
+	public Writer append(char c)
+	{
+		write(c);
+		return this;
+	}
+
+
+	/**
+	 * Write the content of this buffer to another {@link Writer}.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @throws IOException
+	 */
+	void writeTo(Writer out) throws IOException
+	{
+		out.write(mChars, 0, mCount);
+	}
+
+
+	/**
+	 * Returns the number of characters in this buffer.
+	 */
+	int size()
+	{
+		return mCount;
+	}
+
+
+	/**
+	 * Remove all content, keeping the capacity.
+	 */
+	void reset()
+	{
+		mCount = 0;
+	}
+
+
+	/**
+	 * Make room for at least {@code count} more characters.
+	 */
+	private void grow(int count)
+	{
+		char[] chars = new char[Math.max(mChars.length << 1, mCount + count)];
+		System.arraycopy(mChars, 0, chars, 0, mCount);
+		mChars = chars;
+	}
+
+
+	@Override
+	public void flush()
+	{
+		// nothing to do
+	}
+
+
+	@Override
+	public void close()
+	{
+		// nothing to do
+	}
+}
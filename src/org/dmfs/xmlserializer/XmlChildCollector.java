@@ -0,0 +1,180 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * Collects child nodes that are produced in segments, possibly in parallel, and writes them in encounter order. This is the building block for a
+ * {@code java.util.stream.Collector} that serializes stream elements straight into a parent element. Each worker encodes the nodes of its
+ * {@link XmlSegment} into a private buffer right away, segments are merged in encounter order and the result is written to the parent:
+ * 
+ * <pre>
+ * XmlChildCollector children = new XmlChildCollector();
+ * parent.add(children);
+ * children.write(items.parallelStream().collect(
+ * 	Collector.of(children::newSegment, (segment, item) -&gt; segment.add(toXmlNode(item)), XmlSegment::append)));
+ * </pre>
+ * <p>
+ * The nodes themselves are not kept, only their serialized form. Errors are not thrown by the segments, since the functions of a collector can't throw
+ * checked exceptions. Instead, a failed segment drops all further nodes and {@link #write(XmlSegment)} throws the first error.
+ * </p>
+ * <p>
+ * Segments are created and filled after the collector has been written, which happens when it's added to an element that has been written already.
+ * Nodes are encoded on other threads, so they can only use namespaces that are bound by an ancestor at that time. Register these namespaces in advance
+ * (e.g. with {@link XmlSerializer#registerNamespace(String)}). The collector can collect any number of times until it's closed, which happens when the
+ * parent is closed or another node is added to the parent.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlChildCollector extends XmlAbstractNode
+{
+	/**
+	 * A fork of the {@link XmlNamespaceRegistry} of this XML document. Segments encode their nodes with forks of this fork. It's never modified, so it can be
+	 * forked on any thread.
+	 */
+	private volatile XmlNamespaceRegistry mNamespaces;
+
+	/**
+	 * The {@link XmlNamespaceRegistry} of this XML document.
+	 */
+	private XmlNamespaceRegistry mNamespaceRegistry;
+
+	/**
+	 * The {@link Writer} to write to.
+	 */
+	private Writer mOut;
+
+
+	/**
+	 * Create a new, empty {@link XmlSegment} of this collector. This method can be called from any thread.
+	 * 
+	 * @return A new {@link XmlSegment}.
+	 */
+	public XmlSegment newSegment()
+	{
+		return new XmlSegment(this);
+	}
+
+
+	/**
+	 * Write the nodes of a segment to the parent and empty the segment. Call this on the thread that serializes the document.
+	 * 
+	 * @param segment
+	 *            An {@link XmlSegment} of this collector.
+	 * @throws InvalidStateException
+	 *             if this collector is not open or the segment has failed for that reason.
+	 * @throws IOException
+	 *             if the output has failed or a node of the segment could not be encoded.
+	 * @throws InvalidValueException
+	 *             if a node of the segment is invalid, e.g. because it uses a namespace that is not bound.
+	 */
+	public void write(XmlSegment segment) throws InvalidStateException, IOException, InvalidValueException
+	{
+		if (segment.collector() != this)
+		{
+			throw new IllegalArgumentException("segment belongs to another collector");
+		}
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("can not write segment - collector is not open");
+		}
+
+		Exception error = segment.error();
+		if (error instanceof IOException)
+		{
+			throw (IOException) error;
+		}
+		if (error instanceof InvalidStateException)
+		{
+			throw (InvalidStateException) error;
+		}
+		if (error instanceof InvalidValueException)
+		{
+			throw (InvalidValueException) error;
+		}
+
+		for (XmlCharBuffer part : segment.parts())
+		{
+			part.writeTo(mOut);
+		}
+		for (XmlNamespaceRegistry fork : segment.forks())
+		{
+			mNamespaceRegistry.record(fork.getRecorded());
+		}
+		segment.clear();
+	}
+
+
+	/**
+	 * Returns a fork of the {@link XmlNamespaceRegistry} of this document for a segment.
+	 * 
+	 * @throws InvalidStateException
+	 *             if this collector has not been written yet.
+	 */
+	XmlNamespaceRegistry fork() throws InvalidStateException
+	{
+		XmlNamespaceRegistry namespaces = mNamespaces;
+		if (namespaces == null)
+		{
+			throw new InvalidStateException("can not add node - collector has not been written yet");
+		}
+		return namespaces.fork(getDepth());
+	}
+
+
+	@Override
+	void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+	{
+		mNamespaceRegistry = namespaceRegistry;
+	}
+
+
+	@Override
+	void open(Writer out) throws InvalidStateException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("can not open collector - it's already open!");
+		}
+
+		// the registry is not thread-safe, create a copy on this thread
+		mNamespaces = mNamespaceRegistry.fork(getDepth());
+		mOut = out;
+		state = STATE_START_TAG_CLOSED;
+	}
+
+
+	@Override
+	void close() throws InvalidStateException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("can not close collector - it's not open!");
+		}
+		state = STATE_CLOSED;
+	}
+}
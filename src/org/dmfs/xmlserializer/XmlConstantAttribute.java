@@ -0,0 +1,64 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+/**
+ * An {@link XmlAttribute} that encodes its value only once, when it's created.
+ * <p>
+ * Use this for attributes that are written over and over again with the same value. Instances can be kept in static fields and shared by serializers running
+ * in different threads.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlConstantAttribute extends XmlAttribute
+{
+
+	/**
+	 * Constructor for a constant attribute without namespace.
+	 * 
+	 * @param name
+	 *            A @{link String} with the attribute's name.
+	 * @param value
+	 *            A @{link String} with the attribute's value.
+	 */
+	public XmlConstantAttribute(String name, String value)
+	{
+		this(null, name, value);
+	}
+
+
+	/**
+	 * Constructor for a constant attribute with namespace.
+	 * 
+	 * @param namespace
+	 *            A @{link String} containing the attribute's namespace.
+	 * @param name
+	 *            A @{link String} containing the attribute's name.
+	 * @param value
+	 *            A @{link String} containing the attribute's value.
+	 */
+	public XmlConstantAttribute(String namespace, String name, String value)
+	{
+		super(namespace, name, value, true);
+	}
+}
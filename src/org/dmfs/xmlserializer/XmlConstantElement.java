@@ -0,0 +1,250 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * An immutable leaf element, i.e. an element that contains attributes and text only.
+ * <p>
+ * In contrast to {@link XmlElement} this class doesn't keep any state. Its markup is encoded once, when it's created, and the namespace prefixes are resolved
+ * by the serializer that writes it. That means you can keep instances in static fields and add them to any number of documents in any number of threads.
+ * Adding a constant element to an open {@link XmlElement} doesn't allocate any objects.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlConstantElement
+{
+	/**
+	 * The namespace of this element or {@code null} if this element has no namespace.
+	 */
+	public final String namespace;
+
+	/**
+	 * The tag name of this element.
+	 */
+	public final String tagName;
+
+	/**
+	 * A flag indicating whether this element has a namespace.
+	 */
+	private final boolean mHasNamespace;
+
+	/**
+	 * The precomputed tag name and all attributes without namespace.
+	 */
+	private final String mStartTag;
+
+	/**
+	 * The attributes that have a namespace. Their prefix is resolved when they are written.
+	 */
+	private final XmlAttribute[] mNamespacedAttributes;
+
+	/**
+	 * The entity encoded text of this element or {@code null} if this element is empty.
+	 */
+	private final String mEncodedText;
+
+
+	/**
+	 * Constructor for an empty constant element.
+	 * 
+	 * @param namespace
+	 *            A {@link String} containing the namespace of this element or {@code null}.
+	 * @param tagname
+	 *            A {@link String} containing the name of this element's tag.
+	 */
+	public XmlConstantElement(String namespace, String tagname)
+	{
+		this(namespace, tagname, null);
+	}
+
+
+	/**
+	 * Constructor for a constant element with text and attributes.
+	 * 
+	 * @param namespace
+	 *            A {@link String} containing the namespace of this element or {@code null}.
+	 * @param tagname
+	 *            A {@link String} containing the name of this element's tag.
+	 * @param text
+	 *            The text of this element or {@code null} for an empty element.
+	 * @param attributes
+	 *            The {@link XmlAttribute}s of this element.
+	 * @throws IllegalArgumentException
+	 *             if the tag name or the name of an attribute without namespace is not a valid XML name (unless name validation is disabled).
+	 */
+	public XmlConstantElement(String namespace, String tagname, String text, XmlAttribute... attributes)
+	{
+		if (tagname == null)
+		{
+			throw new NullPointerException("tagname must not be null");
+		}
+		this.namespace = namespace;
+		this.tagName = tagname;
+		mHasNamespace = namespace != null && namespace.length() > 0;
+
+		// remove duplicates, the last attribute wins (like in XmlElement)
+		Set<XmlAttribute> attributeSet = new LinkedHashSet<XmlAttribute>();
+		for (XmlAttribute attr : attributes)
+		{
+			attributeSet.remove(attr);
+			attributeSet.add(attr);
+		}
+
+		StringWriter out = new StringWriter();
+		List<XmlAttribute> namespacedAttributes = new ArrayList<XmlAttribute>();
+		try
+		{
+			XmlNames.validate(tagname);
+			out.write(tagname);
+			for (XmlAttribute attr : attributeSet)
+			{
+				if (attr.namespace != null && attr.namespace.length() > 0)
+				{
+					// can't precompute the prefix, but we can precompute the value of plain attributes
+					namespacedAttributes.add(attr.getClass() == XmlAttribute.class ? new XmlConstantAttribute(attr.namespace, attr.name, attr.value) : attr);
+				}
+				else
+				{
+					out.write(' ');
+					// attributes without namespace don't need a registry
+					attr.write(out, null);
+				}
+			}
+			mStartTag = out.toString();
+
+			if (text != null)
+			{
+				out = new StringWriter(text.length() + 16);
+				XmlUtils.writeXmlEntityEncodedString(out, text);
+				mEncodedText = out.toString();
+			}
+			else
+			{
+				mEncodedText = null;
+			}
+		}
+		catch (IOException e)
+		{
+			// a StringWriter doesn't throw
+			throw new RuntimeException("can not encode element", e);
+		}
+		catch (InvalidValueException e)
+		{
+			// the name of an attribute is invalid
+			throw new IllegalArgumentException(e.getMessage());
+		}
+		mNamespacedAttributes = namespacedAttributes.toArray(new XmlAttribute[namespacedAttributes.size()]);
+	}
+
+
+	/**
+	 * Register all namespaces of this element in the given {@link XmlNamespaceRegistry}.
+	 * 
+	 * @param namespaceRegistry
+	 *            The {@link XmlNamespaceRegistry}.
+	 * @throws InvalidValueException
+	 */
+	void registerNamespaces(XmlNamespaceRegistry namespaceRegistry) throws InvalidValueException
+	{
+		if (mHasNamespace)
+		{
+			namespaceRegistry.getNamespace(namespace);
+		}
+		for (XmlAttribute attr : mNamespacedAttributes)
+		{
+			attr.setNamespaceRegistry(namespaceRegistry);
+		}
+	}
+
+
+	/**
+	 * Write the complete element to a {@link Writer}. The namespaces must have been registered by {@link #registerNamespaces(XmlNamespaceRegistry)} before.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param namespaceRegistry
+	 *            The {@link XmlNamespaceRegistry} of the document.
+	 * @param depth
+	 *            The depth of this element in the document.
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 */
+	void write(Writer out, XmlNamespaceRegistry namespaceRegistry, int depth) throws IOException, InvalidValueException
+	{
+		XmlNamespace ns = mHasNamespace ? namespaceRegistry.getNamespace(namespace) : null;
+
+		out.write('<');
+		if (ns != null && ns.hasPrefix)
+		{
+			ns.writePrefix(out);
+			out.write(':');
+			out.write(mStartTag);
+		}
+		else if (ns != null)
+		{
+			out.write(mStartTag);
+			out.write(' ');
+			ns.write(out);
+		}
+		else
+		{
+			out.write(mStartTag);
+		}
+
+		for (XmlAttribute attr : mNamespacedAttributes)
+		{
+			out.write(' ');
+			attr.write(out, namespaceRegistry);
+		}
+
+		XmlElement.writeNamespaces(out, namespaceRegistry.getNamespaces(depth));
+
+		if (mEncodedText == null)
+		{
+			out.write("/>");
+		}
+		else
+		{
+			out.write('>');
+			out.write(mEncodedText);
+			out.write("</");
+			if (ns != null && ns.hasPrefix)
+			{
+				ns.writePrefix(out);
+				out.write(':');
+			}
+			out.write(tagName);
+			out.write('>');
+		}
+		namespaceRegistry.clear(depth);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * Adapter class that caches an {@link XmlConstantElement} in an {@link XmlElement} that has not been opened yet.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class XmlConstantElementAdapter extends XmlAbstractNode
+{
+	/**
+	 * The adapted {@link XmlConstantElement}.
+	 */
+	private final XmlConstantElement mElement;
+
+	/**
+	 * The {@link XmlNamespaceRegistry} of this XML document.
+	 */
+	private XmlNamespaceRegistry mNamespaceRegistry;
+
+
+	/**
+	 * Constructor for an adapter of an {@link XmlConstantElement}.
+	 * 
+	 * @param element
+	 *            The {@link XmlConstantElement}.
+	 */
+	XmlConstantElementAdapter(XmlConstantElement element)
+	{
+		mElement = element;
+	}
+
+
+	@Override
+	void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry) throws InvalidValueException
+	{
+		mNamespaceRegistry = namespaceRegistry;
+		mElement.registerNamespaces(namespaceRegistry);
+	}
+
+
+	@Override
+	void open(Writer out) throws IOException, InvalidStateException, InvalidValueException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("can not open element - it's already open!");
+		}
+		mElement.write(out, mNamespaceRegistry, getDepth());
+		state = STATE_START_TAG_CLOSED;
+	}
+
+
+	@Override
+	void close() throws IOException, InvalidStateException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("can not close element - it's not open!");
+		}
+		state = STATE_CLOSED;
+	}
+}
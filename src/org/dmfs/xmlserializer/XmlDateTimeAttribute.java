@@ -0,0 +1,112 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+
+/**
+ * An {@link XmlAttribute} with a timestamp value in one of the {@link XmlDateTimeFormat}s. The {@link #value} field of these attributes is always
+ * {@code null}.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlDateTimeAttribute extends XmlAttribute
+{
+	/**
+	 * The format of the timestamp.
+	 */
+	private final XmlDateTimeFormat mFormat;
+
+	/**
+	 * The timestamp in milliseconds since the epoch.
+	 */
+	private final long mMillis;
+
+
+	/**
+	 * Constructor for a timestamp attribute without namespace.
+	 * 
+	 * @param name
+	 *            A @{link String} with the attribute's name.
+	 * @param format
+	 *            The {@link XmlDateTimeFormat} of the timestamp.
+	 * @param millis
+	 *            The timestamp in milliseconds since the epoch.
+	 */
+	public XmlDateTimeAttribute(String name, XmlDateTimeFormat format, long millis)
+	{
+		this(null, name, format, millis);
+	}
+
+
+	/**
+	 * Constructor for a timestamp attribute with namespace.
+	 * 
+	 * @param namespace
+	 *            A @{link String} containing the attribute's namespace.
+	 * @param name
+	 *            A @{link String} containing the attribute's name.
+	 * @param format
+	 *            The {@link XmlDateTimeFormat} of the timestamp.
+	 * @param millis
+	 *            The timestamp in milliseconds since the epoch.
+	 */
+	public XmlDateTimeAttribute(String namespace, String name, XmlDateTimeFormat format, long millis)
+	{
+		super(namespace, name, null);
+		if (format == null)
+		{
+			throw new NullPointerException("format must not be null");
+		}
+		mFormat = format;
+		mMillis = millis;
+	}
+
+
+	/**
+	 * Constructor for a timestamp attribute with namespace.
+	 * 
+	 * @param namespace
+	 *            A @{link String} containing the attribute's namespace.
+	 * @param name
+	 *            A @{link String} containing the attribute's name.
+	 * @param format
+	 *            The {@link XmlDateTimeFormat} of the timestamp.
+	 * @param date
+	 *            The timestamp {@link Date}.
+	 */
+	public XmlDateTimeAttribute(String namespace, String name, XmlDateTimeFormat format, Date date)
+	{
+		this(namespace, name, format, date.getTime());
+	}
+
+
+	@Override
+	void writeValue(Writer out, int policy) throws IOException
+	{
+		mFormat.write(out, mMillis);
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+
+/**
+ * A date-time format for timestamps in XML documents. The supported formats are rendered in UTC directly from epoch milliseconds, without
+ * {@link java.text.SimpleDateFormat} and without creating a {@link String}.
+ * <p>
+ * Timestamps are rendered field by field straight to the output. Once the same second is written twice in a row, a format caches its rendering, so writing
+ * that timestamp (or timestamps within the same second) again just copies the cached characters. Formats are thread-safe and can be shared by serializers
+ * running in different threads.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlDateTimeFormat
+{
+	private final static int TYPE_RFC_1123 = 0;
+	private final static int TYPE_ISO_8601 = 1;
+	private final static int TYPE_ISO_8601_MILLIS = 2;
+	private final static int TYPE_UTC_DATE_TIME = 3;
+
+	/**
+	 * The format of HTTP dates as defined in RFC 1123, e.g. {@code Sun, 06 Nov 1994 08:49:37 GMT}. This is the format of the WebDAV {@code getlastmodified}
+	 * property.
+	 */
+	public final static XmlDateTimeFormat RFC_1123 = new XmlDateTimeFormat(TYPE_RFC_1123);
+
+	/**
+	 * The ISO 8601 format in UTC without fractions of a second, e.g. {@code 1994-11-06T08:49:37Z}. This is the format of the WebDAV {@code creationdate}
+	 * property.
+	 */
+	public final static XmlDateTimeFormat ISO_8601 = new XmlDateTimeFormat(TYPE_ISO_8601);
+
+	/**
+	 * The ISO 8601 format in UTC with milliseconds, e.g. {@code 1994-11-06T08:49:37.123Z}.
+	 */
+	public final static XmlDateTimeFormat ISO_8601_MILLIS = new XmlDateTimeFormat(TYPE_ISO_8601_MILLIS);
+
+	/**
+	 * The iCalendar UTC DATE-TIME format as defined in RFC 5545, e.g. {@code 19941106T084937Z}.
+	 */
+	public final static XmlDateTimeFormat UTC_DATE_TIME = new XmlDateTimeFormat(TYPE_UTC_DATE_TIME);
+
+	private final static String[] DAY_NAMES = { "Thu", "Fri", "Sat", "Sun", "Mon", "Tue", "Wed" };
+
+	private final static String[] MONTH_NAMES = { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+
+	private final static long SECONDS_PER_DAY = 24L * 60 * 60;
+
+	/**
+	 * The type of this format.
+	 */
+	private final int mType;
+
+	/**
+	 * The cached rendering of a second that has been written repeatedly or {@code null}. Entries are immutable, so they can be swapped without locking.
+	 */
+	private volatile CachedSecond mLast;
+
+	/**
+	 * The last second that has been rendered without the cache.
+	 */
+	private volatile long mMissed = Long.MIN_VALUE;
+
+	/**
+	 * An immutable cache entry with the rendered characters of a specific second.
+	 */
+	private final static class CachedSecond
+	{
+		final long second;
+		final XmlCharBuffer chars;
+
+
+		CachedSecond(long second, XmlCharBuffer chars)
+		{
+			this.second = second;
+			this.chars = chars;
+		}
+	}
+
+
+	private XmlDateTimeFormat(int type)
+	{
+		mType = type;
+	}
+
+
+	/**
+	 * Returns the given timestamp formatted as a {@link String}.
+	 * 
+	 * @param millis
+	 *            The timestamp in milliseconds since the epoch.
+	 * @return The formatted timestamp.
+	 */
+	public String format(long millis)
+	{
+		StringWriter out = new StringWriter(32);
+		try
+		{
+			write(out, millis);
+		}
+		catch (IOException e)
+		{
+			// a StringWriter doesn't throw
+			throw new RuntimeException("can not format timestamp", e);
+		}
+		return out.toString();
+	}
+
+
+	/**
+	 * Write the given timestamp to a {@link Writer}. The result never needs to be entity encoded.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param millis
+	 *            The timestamp in milliseconds since the epoch.
+	 * @throws IOException
+	 */
+	void write(Writer out, long millis) throws IOException
+	{
+		long second = floorDiv(millis, 1000);
+		writePrefix(out, second);
+		if (mType == TYPE_ISO_8601_MILLIS)
+		{
+			int fraction = (int) (millis - second * 1000);
+			out.write('.');
+			out.write('0' + fraction / 100);
+			out.write('0' + fraction / 10 % 10);
+			out.write('0' + fraction % 10);
+		}
+		out.write(mType == TYPE_RFC_1123 ? " GMT" : "Z");
+	}
+
+
+	/**
+	 * Write the rendering of the given second up to and including the seconds field. Seconds that are written repeatedly are copied from the cache, other
+	 * seconds are rendered straight to the output.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param second
+	 *            The second since the epoch.
+	 * @throws IOException
+	 */
+	private void writePrefix(Writer out, long second) throws IOException
+	{
+		CachedSecond last = mLast;
+		if (last != null && last.second == second)
+		{
+			last.chars.writeTo(out);
+		}
+		else if (mMissed == second)
+		{
+			// the second repeats, cache it
+			XmlCharBuffer chars = new XmlCharBuffer(32);
+			render(chars, second);
+			mLast = new CachedSecond(second, chars);
+			chars.writeTo(out);
+		}
+		else
+		{
+			mMissed = second;
+			render(out, second);
+		}
+	}
+
+
+	/**
+	 * Render the given second.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param second
+	 *            The second since the epoch.
+	 * @throws IOException
+	 */
+	private void render(Writer out, long second) throws IOException
+	{
+		long days = floorDiv(second, SECONDS_PER_DAY);
+		int secondOfDay = (int) (second - days * SECONDS_PER_DAY);
+
+		// convert the day to a civil date, see http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+		long z = days + 719468;
+		long era = floorDiv(z, 146097);
+		int dayOfEra = (int) (z - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int mp = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		int hour = secondOfDay / 3600;
+		int minute = secondOfDay / 60 % 60;
+		int sec = secondOfDay % 60;
+
+		switch (mType)
+		{
+			case TYPE_RFC_1123:
+				out.write(DAY_NAMES[(int) (days - floorDiv(days, 7) * 7)]);
+				out.write(", ");
+				writeTwoDigits(out, day);
+				out.write(' ');
+				out.write(MONTH_NAMES[month - 1]);
+				out.write(' ');
+				writeYear(out, year);
+				out.write(' ');
+				writeTwoDigits(out, hour);
+				out.write(':');
+				writeTwoDigits(out, minute);
+				out.write(':');
+				writeTwoDigits(out, sec);
+				break;
+			case TYPE_ISO_8601:
+			case TYPE_ISO_8601_MILLIS:
+				writeYear(out, year);
+				out.write('-');
+				writeTwoDigits(out, month);
+				out.write('-');
+				writeTwoDigits(out, day);
+				out.write('T');
+				writeTwoDigits(out, hour);
+				out.write(':');
+				writeTwoDigits(out, minute);
+				out.write(':');
+				writeTwoDigits(out, sec);
+				break;
+			case TYPE_UTC_DATE_TIME:
+				writeYear(out, year);
+				writeTwoDigits(out, month);
+				writeTwoDigits(out, day);
+				out.write('T');
+				writeTwoDigits(out, hour);
+				writeTwoDigits(out, minute);
+				writeTwoDigits(out, sec);
+				break;
+		}
+	}
+
+
+	private static void writeTwoDigits(Writer out, int value) throws IOException
+	{
+		out.write('0' + value / 10);
+		out.write('0' + value % 10);
+	}
+
+
+	private static void writeYear(Writer out, long year) throws IOException
+	{
+		if (year < 0)
+		{
+			// years derived from epoch milliseconds are far from Long.MIN_VALUE, so they can be negated
+			out.write('-');
+			year = -year;
+		}
+		else if (year < 1000)
+		{
+			// pad to four digits
+			out.write(year < 10 ? "000" : year < 100 ? "00" : "0");
+		}
+
+		// write the digits from the most significant one on, without creating a String
+		long divisor = 1;
+		while (year / divisor >= 10)
+		{
+			divisor *= 10;
+		}
+		while (divisor > 0)
+		{
+			out.write('0' + (int) (year / divisor % 10));
+			divisor /= 10;
+		}
+	}
+
+
+	private static long floorDiv(long value, long divisor)
+	{
+		long result = value / divisor;
+		return value % divisor < 0 ? result - 1 : result;
+	}
+}
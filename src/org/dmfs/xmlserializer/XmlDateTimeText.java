@@ -0,0 +1,109 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+
+/**
+ * A text node with a timestamp in one of the {@link XmlDateTimeFormat}s.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlDateTimeText extends XmlAbstractNode
+{
+	/**
+	 * The format of the timestamp.
+	 */
+	private final XmlDateTimeFormat mFormat;
+
+	/**
+	 * The timestamp in milliseconds since the epoch.
+	 */
+	private final long mMillis;
+
+
+	/**
+	 * Constructor for a timestamp text node.
+	 * 
+	 * @param format
+	 *            The {@link XmlDateTimeFormat} of the timestamp.
+	 * @param millis
+	 *            The timestamp in milliseconds since the epoch.
+	 */
+	public XmlDateTimeText(XmlDateTimeFormat format, long millis)
+	{
+		if (format == null)
+		{
+			throw new NullPointerException("format must not be null");
+		}
+		mFormat = format;
+		mMillis = millis;
+	}
+
+
+	/**
+	 * Constructor for a timestamp text node.
+	 * 
+	 * @param format
+	 *            The {@link XmlDateTimeFormat} of the timestamp.
+	 * @param date
+	 *            The timestamp {@link Date}.
+	 */
+	public XmlDateTimeText(XmlDateTimeFormat format, Date date)
+	{
+		this(format, date.getTime());
+	}
+
+
+	@Override
+	final void open(Writer out) throws InvalidStateException, IOException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("Can not open text node - it's already open!");
+		}
+		state = STATE_START_TAG_CLOSED;
+		mFormat.write(out, mMillis);
+	}
+
+
+	@Override
+	final void close() throws InvalidStateException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("Can not close text node - it's not open!");
+		}
+		state = STATE_CLOSED;
+	}
+
+
+	@Override
+	final void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+	{
+		// nothing to do
+	}
+}
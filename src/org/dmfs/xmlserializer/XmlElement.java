@@ -28,7 +28,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -42,7 +44,7 @@ public class XmlElement extends XmlAbstractNode
 	/**
 	 * A {@link String identifying the namespace of this node or {@code null} if this node has no namespace .
 	 */
-	private final String mNamespaceString;
+	private String mNamespaceString;
 
 	/**
 	 * An {@link XmlNamespace} or {@code null} if this node has no namespace or no {@link NamespaceRegistry} has not been set yet.
@@ -52,7 +54,7 @@ public class XmlElement extends XmlAbstractNode
 	/**
 	 * The tag name of this element.
 	 */
-	private final String mTagName;
+	private String mTagName;
 
 	/**
 	 * A {@link List} of {@link XmlAbstractNode}s that are children of this node or {@code null} if this node has no children (yet).
@@ -84,6 +86,21 @@ public class XmlElement extends XmlAbstractNode
 	 */
 	private XmlNamespaceRegistry mNamespaceRegistry;
 
+	/**
+	 * The {@link XmlNodePool} this element is returned to when it has been closed or {@code null} if this element is not pooled.
+	 */
+	private XmlNodePool mPool;
+
+	/**
+	 * The {@link XmlOrderedWriter} that keeps the output in order or {@code null} if no {@link XmlPendingNode} has been added to this element.
+	 */
+	private XmlOrderedWriter mOrderedOut;
+
+	/**
+	 * A flag that indicates whether an {@link XmlPendingNode} has been added before this element has been opened.
+	 */
+	private boolean mHasPendingChildren = false;
+
 
 	/**
 	 * Constructor for a new element with namespace.
@@ -154,9 +171,10 @@ public class XmlElement extends XmlAbstractNode
 				if (mChildren == null)
 				{
 					mChildren = new ArrayList<XmlAbstractNode>();
-					mHasChildren = true;
 				}
 				mChildren.add(node);
+				mHasChildren = true;
+				mHasPendingChildren |= node instanceof XmlPendingNode;
 				if (mNamespaceRegistry != null)
 				{
 					node.setNamespaceRegistry(mNamespaceRegistry);
@@ -174,6 +192,7 @@ public class XmlElement extends XmlAbstractNode
 
 				closeOpeningTag();
 				// close opening tag before we write child elements
+				prepareOutput(node);
 				node.open(mOut);
 				mHasChildren = true;
 				break;
@@ -189,6 +208,7 @@ public class XmlElement extends XmlAbstractNode
 				node.setNamespaceRegistry(mNamespaceRegistry);
 				node.setDepth(getDepth() + 1);
 
+				prepareOutput(node);
 				node.open(mOut);
 				mHasChildren = true;
 				break;
@@ -200,6 +220,246 @@ public class XmlElement extends XmlAbstractNode
 	}
 
 
+	/**
+	 * Add a number of {@link XmlAbstractNode}s as children to this node. This has the same result as adding the nodes one by one, but the state of this node
+	 * is evaluated only once and internal structures are sized for all nodes in advance.
+	 * <p>
+	 * If the start tag of this node is still open, the namespaces of all nodes are registered before the start tag is closed, so they are declared once in
+	 * this element instead of in each child.
+	 * </p>
+	 * 
+	 * @param nodes
+	 *            The new child nodes.
+	 * @return This XmlElement instance.
+	 * @throws InvalidStateException
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 */
+	public final XmlElement addAll(Collection<? extends XmlAbstractNode> nodes) throws InvalidStateException, IOException, InvalidValueException
+	{
+		if (state == STATE_CLOSED)
+		{
+			throw new InvalidStateException("can not add child - closing tag already written");
+		}
+
+		if (nodes.isEmpty())
+		{
+			return this;
+		}
+
+		final int depth = getDepth() + 1;
+		final XmlNamespaceRegistry registry = mNamespaceRegistry;
+		switch (state)
+		{
+			case STATE_NEW:
+				// cache all nodes to write them later when this node gets opened
+				if (mChildren == null)
+				{
+					mChildren = new ArrayList<XmlAbstractNode>(nodes.size());
+				}
+				else if (mChildren instanceof ArrayList)
+				{
+					((ArrayList<XmlAbstractNode>) mChildren).ensureCapacity(mChildren.size() + nodes.size());
+				}
+				mChildren.addAll(nodes);
+				for (XmlAbstractNode node : nodes)
+				{
+					mHasPendingChildren |= node instanceof XmlPendingNode;
+					if (registry != null)
+					{
+						node.setNamespaceRegistry(registry);
+					}
+					node.setDepth(depth);
+				}
+				break;
+
+			case STATE_START_TAG_OPEN:
+				// bind all namespaces while the start tag is still open
+				for (XmlAbstractNode node : nodes)
+				{
+					node.setNamespaceRegistry(registry);
+					node.setDepth(depth);
+				}
+				closeOpeningTag();
+				openAll(nodes, false);
+				break;
+
+			case STATE_START_TAG_CLOSED:
+				openAll(nodes, true);
+				break;
+		}
+		mHasChildren = true;
+		return this;
+	}
+
+
+	/**
+	 * Add a number of {@link XmlAbstractNode}s as children to this node and serialize them in parallel. Each node is written to a private buffer by
+	 * {@code executor}, the buffers are written in document order. This method returns when all nodes have been written. The calling thread serializes all
+	 * nodes that the executor has not started yet, so this works with any {@link Executor}, even a saturated one.
+	 * <p>
+	 * The nodes must be independent of each other and of this node. Namespaces must be bound before the nodes are serialized, since the prefixes would
+	 * otherwise depend on the order of serialization. If the start tag of this node is still open, the namespaces of all nodes are bound to this node, just
+	 * like {@link #addAll(Collection)} does, otherwise they need to be bound by an ancestor already (e.g. by
+	 * {@link XmlSerializer#registerNamespace(String)}). In both cases the result is identical to adding the nodes sequentially.
+	 * </p>
+	 * 
+	 * @param nodes
+	 *            The new child nodes.
+	 * @param executor
+	 *            The {@link Executor} to serialize the nodes.
+	 * @return This XmlElement instance.
+	 * @throws InvalidStateException
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 *             if a node uses a namespace that is not bound.
+	 */
+	public final XmlElement addAll(Collection<? extends XmlAbstractNode> nodes, Executor executor) throws InvalidStateException, IOException,
+		InvalidValueException
+	{
+		if (nodes.isEmpty() && state != STATE_CLOSED)
+		{
+			return this;
+		}
+		return add(new XmlParallelGroup(nodes, executor, state != STATE_START_TAG_CLOSED));
+	}
+
+
+	/**
+	 * Add a number of {@link IXmlElementSerializable}s as children to this node. See {@link #addAll(Collection)} for details.
+	 * 
+	 * @param serializables
+	 *            The {@link IXmlElementSerializable} instances to add.
+	 * @return This XmlElement instance.
+	 * @throws InvalidStateException
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 */
+	public final XmlElement addAll(Iterable<? extends IXmlElementSerializable> serializables) throws InvalidStateException, IOException,
+		InvalidValueException
+	{
+		List<XmlAbstractNode> nodes = serializables instanceof Collection ? new ArrayList<XmlAbstractNode>(((Collection<?>) serializables).size())
+			: new ArrayList<XmlAbstractNode>();
+		for (IXmlElementSerializable serializable : serializables)
+		{
+			nodes.add(new XmlElementSerializableAdapter(serializable));
+		}
+		return addAll(nodes);
+	}
+
+
+	/**
+	 * Write a number of child nodes to the output, closing the previous one before the next one is opened. The last node remains open.
+	 * 
+	 * @param nodes
+	 *            The nodes to write.
+	 * @param prepare
+	 *            {@code true} if the namespace registry and depth of the nodes have yet to be set.
+	 * @throws InvalidStateException
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 */
+	private void openAll(Collection<? extends XmlAbstractNode> nodes, boolean prepare) throws InvalidStateException, IOException, InvalidValueException
+	{
+		final int depth = getDepth() + 1;
+		for (XmlAbstractNode node : nodes)
+		{
+			if (mOpenChild != null)
+			{
+				mOpenChild.close();
+			}
+			mOpenChild = node;
+			if (prepare)
+			{
+				node.setNamespaceRegistry(mNamespaceRegistry);
+				node.setDepth(depth);
+			}
+			prepareOutput(node);
+			node.open(mOut);
+		}
+	}
+
+
+	/**
+	 * Make sure the output is kept in order if {@code node} is an {@link XmlPendingNode}. Call this before the node is opened.
+	 * 
+	 * @param node
+	 *            The node that's about to be opened.
+	 */
+	private void prepareOutput(XmlAbstractNode node)
+	{
+		if (mOrderedOut == null && node instanceof XmlPendingNode)
+		{
+			mOut = mOrderedOut = new XmlOrderedWriter(mOut);
+		}
+	}
+
+
+	/**
+	 * Add a number of attributes without namespace to this node. This has the same result as adding the attributes one by one, but the state of this node is
+	 * evaluated only once and the attribute cache is sized for all attributes in advance.
+	 * 
+	 * @param attributes
+	 *            A {@link Map} of attribute names to values.
+	 * @return This XmlElement instance.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 *             if the attributes can't be written because the start tag has already been closed (because another node has been added).
+	 * @throws InvalidValueException
+	 */
+	public final XmlElement addAttributes(Map<String, String> attributes) throws IOException, InvalidStateException, InvalidValueException
+	{
+		if (state != STATE_NEW && state != STATE_START_TAG_OPEN)
+		{
+			throw new InvalidStateException("can not add attribute - start tag already closed");
+		}
+
+		if (attributes.isEmpty())
+		{
+			return this;
+		}
+
+		// the names in the map are unique, so we only need to replace attributes that have been added before
+		boolean replace = mAttributes != null && !mAttributes.isEmpty();
+		if (mAttributes == null)
+		{
+			// make room for all attributes without rehashing
+			mAttributes = new HashSet<XmlAttribute>(attributes.size() * 4 / 3 + 1);
+		}
+
+		final Set<XmlAttribute> cache = mAttributes;
+		if (state == STATE_NEW)
+		{
+			for (Map.Entry<String, String> entry : attributes.entrySet())
+			{
+				XmlAttribute attr = new XmlAttribute(entry.getKey(), entry.getValue());
+				if (replace)
+				{
+					// remove the attribute to ensure the new value gets added (see XmlAttribute for the reason}
+					cache.remove(attr);
+				}
+				cache.add(attr);
+			}
+		}
+		else
+		{
+			final Writer out = mOut;
+			final XmlNamespaceRegistry registry = mNamespaceRegistry;
+			for (Map.Entry<String, String> entry : attributes.entrySet())
+			{
+				XmlAttribute attr = new XmlAttribute(entry.getKey(), entry.getValue());
+				// attributes that have already been written are ignored, just like in add(XmlAttribute)
+				if (cache.add(attr))
+				{
+					out.write(' ');
+					attr.write(out, registry);
+				}
+			}
+		}
+		return this;
+	}
+
+
 	/**
 	 * Add an {@link XmlAttribute} to this node.
 	 * 
@@ -258,7 +518,7 @@ public class XmlElement extends XmlAbstractNode
 				if (mAttributes.add(attr))
 				{
 					mOut.write(' ');
-					attr.write(mOut);
+					attr.write(mOut, mNamespaceRegistry);
 				}
 				break;
 
@@ -269,6 +529,54 @@ public class XmlElement extends XmlAbstractNode
 	}
 
 
+	/**
+	 * Add an {@link XmlConstantElement} as child to this node.
+	 * <p>
+	 * If this node has been opened for writing the constant element is written immediately without allocating any objects.
+	 * </p>
+	 * 
+	 * @param element
+	 *            The {@link XmlConstantElement} to add.
+	 * @return This XmlElement instance.
+	 * @throws InvalidStateException
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 */
+	public final XmlElement add(XmlConstantElement element) throws InvalidStateException, IOException, InvalidValueException
+	{
+		switch (state)
+		{
+			case STATE_NEW:
+				// cache the element until this node gets opened
+				add(new XmlConstantElementAdapter(element));
+				break;
+
+			case STATE_START_TAG_OPEN:
+				// register namespaces before closing the opening tag, so they are defined in this element
+				element.registerNamespaces(mNamespaceRegistry);
+				closeOpeningTag();
+				element.write(mOut, mNamespaceRegistry, getDepth() + 1);
+				mHasChildren = true;
+				break;
+
+			case STATE_START_TAG_CLOSED:
+				if (mOpenChild != null)
+				{
+					mOpenChild.close();
+					mOpenChild = null;
+				}
+				element.registerNamespaces(mNamespaceRegistry);
+				element.write(mOut, mNamespaceRegistry, getDepth() + 1);
+				mHasChildren = true;
+				break;
+
+			default:
+				throw new InvalidStateException("can not add child - closing tag already written");
+		}
+		return this;
+	}
+
+
 	/**
 	 * Add an IXmlElementSerializable child to this node.
 	 * 
@@ -337,6 +645,57 @@ public class XmlElement extends XmlAbstractNode
 	}
 
 
+	/**
+	 * Convenience method to add a text node with a long value. The value is written without creating a {@link String}.
+	 * 
+	 * @param value
+	 *            The value of the node.
+	 * @return This XmlElement instance.
+	 * @throws InvalidStateException
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 */
+	public final XmlElement addText(long value) throws InvalidStateException, IOException, InvalidValueException
+	{
+		add(new XmlPrimitiveText(value));
+		return this;
+	}
+
+
+	/**
+	 * Convenience method to add a text node with a double value.
+	 * 
+	 * @param value
+	 *            The value of the node.
+	 * @return This XmlElement instance.
+	 * @throws InvalidStateException
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 */
+	public final XmlElement addText(double value) throws InvalidStateException, IOException, InvalidValueException
+	{
+		add(new XmlPrimitiveText(value));
+		return this;
+	}
+
+
+	/**
+	 * Convenience method to add a text node with a boolean value.
+	 * 
+	 * @param value
+	 *            The value of the node.
+	 * @return This XmlElement instance.
+	 * @throws InvalidStateException
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 */
+	public final XmlElement addText(boolean value) throws InvalidStateException, IOException, InvalidValueException
+	{
+		add(new XmlPrimitiveText(value));
+		return this;
+	}
+
+
 	/**
 	 * Convenience method to add an attribute without namespace.
 	 * 
@@ -356,6 +715,63 @@ public class XmlElement extends XmlAbstractNode
 	}
 
 
+	/**
+	 * Convenience method to add an attribute without namespace and with a long value. The value is written without creating a {@link String}.
+	 * 
+	 * @param name
+	 *            A {@link String} with the name of the attribute.
+	 * @param value
+	 *            The attribute's value.
+	 * @return This XmlElement instance.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 * @throws InvalidValueException
+	 */
+	public final XmlElement addAttribute(String name, long value) throws IOException, InvalidStateException, InvalidValueException
+	{
+		add(new XmlPrimitiveAttribute(name, value));
+		return this;
+	}
+
+
+	/**
+	 * Convenience method to add an attribute without namespace and with a double value.
+	 * 
+	 * @param name
+	 *            A {@link String} with the name of the attribute.
+	 * @param value
+	 *            The attribute's value.
+	 * @return This XmlElement instance.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 * @throws InvalidValueException
+	 */
+	public final XmlElement addAttribute(String name, double value) throws IOException, InvalidStateException, InvalidValueException
+	{
+		add(new XmlPrimitiveAttribute(name, value));
+		return this;
+	}
+
+
+	/**
+	 * Convenience method to add an attribute without namespace and with a boolean value.
+	 * 
+	 * @param name
+	 *            A {@link String} with the name of the attribute.
+	 * @param value
+	 *            The attribute's value.
+	 * @return This XmlElement instance.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 * @throws InvalidValueException
+	 */
+	public final XmlElement addAttribute(String name, boolean value) throws IOException, InvalidStateException, InvalidValueException
+	{
+		add(new XmlPrimitiveAttribute(name, value));
+		return this;
+	}
+
+
 	/**
 	 * Open the start tag and write it to the {@link Writer} {@code out}.
 	 * 
@@ -369,6 +785,11 @@ public class XmlElement extends XmlAbstractNode
 			throw new InvalidStateException("can not open start tag in state " + state);
 		}
 
+		XmlNames.validate(mTagName);
+		if (mHasPendingChildren)
+		{
+			out = mOrderedOut = new XmlOrderedWriter(out);
+		}
 		mOut = out;
 		out.write('<');
 		if (mNamespace != null && mNamespace.hasPrefix)
@@ -390,7 +811,7 @@ public class XmlElement extends XmlAbstractNode
 
 		state = STATE_START_TAG_OPEN;
 
-		writeAttributes(out, mAttributes);
+		writeAttributes(out, mAttributes, mNamespaceRegistry);
 		if (mHasChildren)
 		{
 			closeOpeningTag();
@@ -426,8 +847,17 @@ public class XmlElement extends XmlAbstractNode
 					mOpenChild.close();
 					mOpenChild = null;
 				}
-				// free child list
-				mChildren = null;
+				if (mOrderedOut != null)
+				{
+					// our parent writes to the output directly, wait until all pending children have been written
+					mOrderedOut.await();
+					mOrderedOut = null;
+				}
+				// free child list, pooled elements keep it for the next use
+				if (mPool == null)
+				{
+					mChildren = null;
+				}
 
 				mOut.write("</");
 				if (mNamespace != null && mNamespace.hasPrefix)
@@ -444,6 +874,64 @@ public class XmlElement extends XmlAbstractNode
 			default:
 				throw new InvalidStateException("can not close element - already closed");
 		}
+
+		if (mPool != null)
+		{
+			// don't keep the former children reachable while this element sits in the pool
+			if (mChildren != null)
+			{
+				mChildren.clear();
+			}
+			mPool.recycle(this);
+		}
+	}
+
+
+	/**
+	 * Set the {@link XmlNodePool} this element is returned to when it has been closed.
+	 * 
+	 * @param pool
+	 *            The {@link XmlNodePool}.
+	 */
+	final void setPool(XmlNodePool pool)
+	{
+		mPool = pool;
+	}
+
+
+	/**
+	 * Reset a closed element, so it can be used again. Child and attribute containers are kept to avoid reallocating them.
+	 * 
+	 * @param namespace
+	 *            A {@link String} containing the new namespace of this element.
+	 * @param tagname
+	 *            A {@link String} containing the new name of this element's tag.
+	 */
+	final void reset(String namespace, String tagname)
+	{
+		if (tagname == null)
+		{
+			throw new NullPointerException("tagname must not be null");
+		}
+		mNamespaceString = namespace;
+		mTagName = tagname;
+		mNamespace = null;
+		mNamespaceRegistry = null;
+		mOut = null;
+		mOpenChild = null;
+		mHasChildren = false;
+		mOrderedOut = null;
+		mHasPendingChildren = false;
+		if (mChildren != null)
+		{
+			mChildren.clear();
+		}
+		if (mAttributes != null)
+		{
+			mAttributes.clear();
+		}
+		state = STATE_NEW;
+		setDepth(0);
 	}
 
 
@@ -454,17 +942,21 @@ public class XmlElement extends XmlAbstractNode
 	 *            The {@link Writer} to write to.
 	 * @param attributes
 	 *            A {@link Set} of {@link XmlAttribute}s to write
+	 * @param namespaceRegistry
+	 *            The {@link XmlNamespaceRegistry} to resolve namespace prefixes.
 	 * 
 	 * @throws IOException
+	 * @throws InvalidValueException
 	 */
-	private final static void writeAttributes(Writer out, Set<XmlAttribute> attributes) throws IOException
+	private final static void writeAttributes(Writer out, Set<XmlAttribute> attributes, XmlNamespaceRegistry namespaceRegistry) throws IOException,
+		InvalidValueException
 	{
 		if (attributes != null && attributes.size() > 0)
 		{
 			for (XmlAttribute attr : attributes)
 			{
 				out.write(' ');
-				attr.write(out);
+				attr.write(out, namespaceRegistry);
 			}
 		}
 	}
@@ -551,7 +1043,7 @@ public class XmlElement extends XmlAbstractNode
 	 * @param namespaceList
 	 * @throws IOException
 	 */
-	private static void writeNamespaces(Writer out, Collection<XmlNamespace> namespaceList) throws IOException
+	static void writeNamespaces(Writer out, Collection<XmlNamespace> namespaceList) throws IOException
 	{
 		if (namespaceList != null && namespaceList.size() > 0)
 		{
@@ -564,6 +1056,58 @@ public class XmlElement extends XmlAbstractNode
 	}
 
 
+	/**
+	 * Compile this element and all of its children into an {@link XmlTemplate}. The element is closed afterwards.
+	 * 
+	 * @param compiler
+	 *            The {@link XmlTemplateCompiler}.
+	 * @throws InvalidStateException
+	 *             if this element has been opened already.
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 */
+	final void compile(XmlTemplateCompiler compiler) throws InvalidStateException, IOException, InvalidValueException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("can not compile element in state " + state);
+		}
+
+		XmlNames.validate(mTagName);
+		compiler.startElement(mNamespaceString, mTagName);
+		if (mAttributes != null)
+		{
+			for (XmlAttribute attr : mAttributes)
+			{
+				XmlNames.validate(attr.name);
+				compiler.attribute(attr);
+			}
+		}
+
+		if (mHasChildren)
+		{
+			compiler.closeStartTag(false);
+			for (XmlAbstractNode node : mChildren)
+			{
+				if (node instanceof XmlElement)
+				{
+					((XmlElement) node).compile(compiler);
+				}
+				else
+				{
+					compiler.node(node);
+				}
+			}
+			compiler.endElement(mNamespaceString, mTagName);
+		}
+		else
+		{
+			compiler.closeStartTag(true);
+		}
+		state = STATE_CLOSED;
+	}
+
+
 	/**
 	 * Set the {@link XmlNamespaceRegistry}.
 	 * 
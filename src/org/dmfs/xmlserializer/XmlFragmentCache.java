@@ -0,0 +1,294 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A cache for serialized XML sub-trees.
+ * <p>
+ * Use it for sub-trees that are identical across many documents. Add the node returned by {@link #fragment(Object, IXmlElementSerializable)} to an
+ * {@link XmlElement}. On a cache miss the sub-tree is serialized as usual and the result is stored. On a hit the stored markup is written directly, without
+ * building or serializing the sub-tree.
+ * </p>
+ * <p>
+ * Entries are stored per key and per namespace prefix binding, because the markup depends on the prefixes that are in use when the fragment is written. To
+ * get the most out of the cache, register the namespaces of the fragments early (see {@link XmlSerializer#registerNamespace(String)}), so they have the same
+ * prefixes in all documents.
+ * </p>
+ * <p>
+ * The cache is bounded by the total number of cached characters and evicts the least recently used keys first. It's thread-safe and can be shared by many
+ * serializers.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlFragmentCache
+{
+	/**
+	 * The maximum number of prefix binding variants to keep per key.
+	 */
+	private final static int MAX_VARIANTS = 4;
+
+	/**
+	 * The cached entries by key, in access order.
+	 */
+	private final Map<Object, Entry> mEntries = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+
+	/**
+	 * The maximum number of cached characters.
+	 */
+	private final int mMaxSize;
+
+	/**
+	 * The number of cached characters.
+	 */
+	private int mSize;
+
+	/**
+	 * The number of cache hits.
+	 */
+	private long mHits;
+
+	/**
+	 * The number of cache misses.
+	 */
+	private long mMisses;
+
+
+	/**
+	 * A cached fragment and the prefix bindings it depends on. Variants for the same key are chained.
+	 */
+	final static class Entry
+	{
+		/**
+		 * The serialized fragment.
+		 */
+		final char[] data;
+
+		/**
+		 * The namespaces that the fragment uses, but that are defined outside of it.
+		 */
+		final XmlNamespace[] bindings;
+
+		/**
+		 * The namespaces that are defined by the fragment itself.
+		 */
+		final XmlNamespace[] declarations;
+
+		/**
+		 * The next variant for the same key or {@code null}.
+		 */
+		Entry next;
+
+
+		Entry(char[] data, XmlNamespace[] bindings, XmlNamespace[] declarations)
+		{
+			this.data = data;
+			this.bindings = bindings;
+			this.declarations = declarations;
+		}
+
+
+		/**
+		 * Check whether all prefix bindings of this entry are active in the given {@link XmlNamespaceRegistry} and the namespaces defined by the fragment are
+		 * not defined yet.
+		 */
+		boolean matches(XmlNamespaceRegistry namespaceRegistry)
+		{
+			for (XmlNamespace ns : bindings)
+			{
+				if (!ns.equals(namespaceRegistry.peekNamespace(ns.namespace)))
+				{
+					return false;
+				}
+			}
+			for (XmlNamespace ns : declarations)
+			{
+				if (namespaceRegistry.peekNamespace(ns.namespace) != null)
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+
+	/**
+	 * Create a new fragment cache.
+	 * 
+	 * @param maxSize
+	 *            The maximum number of characters to cache.
+	 */
+	public XmlFragmentCache(int maxSize)
+	{
+		if (maxSize <= 0)
+		{
+			throw new IllegalArgumentException("maxSize must be greater than 0");
+		}
+		mMaxSize = maxSize;
+	}
+
+
+	/**
+	 * Get a node that writes the fragment for the given key. {@code source} is serialized only if the fragment is not in the cache yet.
+	 * 
+	 * @param key
+	 *            The key of the fragment. It must identify the content of the fragment and implement {@link Object#equals(Object)} and
+	 *            {@link Object#hashCode()}.
+	 * @param source
+	 *            The {@link IXmlElementSerializable} that produces the fragment on a cache miss.
+	 * @return An {@link XmlCachedFragment} node to add to an {@link XmlElement}.
+	 */
+	public XmlCachedFragment fragment(Object key, IXmlElementSerializable source)
+	{
+		if (key == null)
+		{
+			throw new NullPointerException("key must not be null");
+		}
+		return new XmlCachedFragment(this, key, source);
+	}
+
+
+	/**
+	 * Returns the number of cache hits so far.
+	 * 
+	 * @return The number of hits.
+	 */
+	public synchronized long getHits()
+	{
+		return mHits;
+	}
+
+
+	/**
+	 * Returns the number of cache misses so far.
+	 * 
+	 * @return The number of misses.
+	 */
+	public synchronized long getMisses()
+	{
+		return mMisses;
+	}
+
+
+	/**
+	 * Returns the number of characters in the cache.
+	 * 
+	 * @return The size of the cache.
+	 */
+	public synchronized int getSize()
+	{
+		return mSize;
+	}
+
+
+	/**
+	 * Remove all entries from the cache. The hit and miss counters are not reset.
+	 */
+	public synchronized void clear()
+	{
+		mEntries.clear();
+		mSize = 0;
+	}
+
+
+	/**
+	 * Find an entry that matches the current prefix bindings and update the counters.
+	 * 
+	 * @param key
+	 *            The key of the fragment.
+	 * @param namespaceRegistry
+	 *            The {@link XmlNamespaceRegistry} of the document.
+	 * @return The matching {@link Entry} or {@code null} on a cache miss.
+	 */
+	synchronized Entry get(Object key, XmlNamespaceRegistry namespaceRegistry)
+	{
+		Entry entry = mEntries.get(key);
+		while (entry != null)
+		{
+			if (entry.matches(namespaceRegistry))
+			{
+				++mHits;
+				return entry;
+			}
+			entry = entry.next;
+		}
+		++mMisses;
+		return null;
+	}
+
+
+	/**
+	 * Store a fragment, evicting the least recently used entries if the cache gets too big.
+	 * 
+	 * @param key
+	 *            The key of the fragment.
+	 * @param entry
+	 *            The new {@link Entry}.
+	 */
+	synchronized void put(Object key, Entry entry)
+	{
+		int length = entry.data.length;
+		if (length > mMaxSize)
+		{
+			// this will never fit
+			return;
+		}
+
+		// the new variant goes first, drop the oldest ones
+		Entry first = mEntries.remove(key);
+		entry.next = first;
+		mSize += length;
+		int count = 1;
+		Entry e = entry;
+		while (e.next != null)
+		{
+			if (++count > MAX_VARIANTS)
+			{
+				for (Entry dropped = e.next; dropped != null; dropped = dropped.next)
+				{
+					mSize -= dropped.data.length;
+				}
+				e.next = null;
+				break;
+			}
+			e = e.next;
+		}
+		mEntries.put(key, entry);
+
+		// evict least recently used keys, the new one is the most recently used, so it's removed last
+		Iterator<Entry> iterator = mEntries.values().iterator();
+		while (mSize > mMaxSize && iterator.hasNext())
+		{
+			for (Entry dropped = iterator.next(); dropped != null; dropped = dropped.next)
+			{
+				mSize -= dropped.data.length;
+			}
+			iterator.remove();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * An {@link XmlAttribute} that gets its value from an {@link IXmlValueSupplier} when it's written. The {@link #value} field of these attributes is always
+ * {@code null}.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlLazyAttribute extends XmlAttribute
+{
+	/**
+	 * The size of the buffer used to encode values that are not {@link String}s.
+	 */
+	private final static int BUFFER_SIZE = 512;
+
+	/**
+	 * The supplier of the value.
+	 */
+	private final IXmlValueSupplier mSupplier;
+
+
+	/**
+	 * Constructor for a lazy attribute without namespace.
+	 * 
+	 * @param name
+	 *            A @{link String} with the attribute's name.
+	 * @param supplier
+	 *            The {@link IXmlValueSupplier} that provides the value.
+	 */
+	public XmlLazyAttribute(String name, IXmlValueSupplier supplier)
+	{
+		this(null, name, supplier);
+	}
+
+
+	/**
+	 * Constructor for a lazy attribute with namespace.
+	 * 
+	 * @param namespace
+	 *            A @{link String} containing the attribute's namespace.
+	 * @param name
+	 *            A @{link String} containing the attribute's name.
+	 * @param supplier
+	 *            The {@link IXmlValueSupplier} that provides the value.
+	 */
+	public XmlLazyAttribute(String namespace, String name, IXmlValueSupplier supplier)
+	{
+		super(namespace, name, null);
+		if (supplier == null)
+		{
+			throw new NullPointerException("supplier must not be null");
+		}
+		mSupplier = supplier;
+	}
+
+
+	@Override
+	void writeValue(Writer out, int policy) throws IOException
+	{
+		CharSequence value = mSupplier.getXmlValue();
+		if (value instanceof String)
+		{
+			XmlUtils.writeXmlEntityEncodedString(out, (String) value, policy);
+		}
+		else if (value != null)
+		{
+			XmlUtils.writeXmlEntityEncodedSequence(out, value, new char[Math.max(2, Math.min(value.length(), BUFFER_SIZE))], policy);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Validates tag and attribute names against the Name production of XML 1.0.
+ * <p>
+ * Names that passed validation are kept in a bounded, process wide cache, so each distinct name is checked only once and repeated names cost just a lookup.
+ * The cache is cleared when it's full, which is cheap and rarely happens, since documents usually use a small vocabulary of names.
+ * </p>
+ * 
+ * For internal use only.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class XmlNames
+{
+	/**
+	 * The maximum number of names in the cache.
+	 */
+	private final static int MAX_CACHE_SIZE = 4096;
+
+	/**
+	 * The cache of valid names. The values are not used.
+	 */
+	private final static ConcurrentMap<String, Boolean> VALID_NAMES = new ConcurrentHashMap<String, Boolean>(256);
+
+	/**
+	 * Whether names are validated at all.
+	 */
+	private static volatile boolean sEnabled = true;
+
+
+	/**
+	 * Private constructor. No instantiation allowed.
+	 */
+	private XmlNames()
+	{
+	}
+
+
+	/**
+	 * Enable or disable name validation for the entire process.
+	 * 
+	 * @param enabled
+	 *            {@code true} to validate names, {@code false} to trust them.
+	 */
+	static void setEnabled(boolean enabled)
+	{
+		sEnabled = enabled;
+	}
+
+
+	/**
+	 * Ensure the given name is a valid XML name, unless validation has been disabled.
+	 * 
+	 * @param name
+	 *            The name to check.
+	 * @throws InvalidValueException
+	 *             if the name is not valid.
+	 */
+	static void validate(String name) throws InvalidValueException
+	{
+		if (sEnabled && !VALID_NAMES.containsKey(name))
+		{
+			if (!isValidName(name))
+			{
+				throw new InvalidValueException("invalid XML name: \"" + name + "\"");
+			}
+			if (VALID_NAMES.size() >= MAX_CACHE_SIZE)
+			{
+				VALID_NAMES.clear();
+			}
+			VALID_NAMES.put(name, Boolean.TRUE);
+		}
+	}
+
+
+	/**
+	 * Returns whether the given {@link String} matches the Name production of XML 1.0.
+	 * 
+	 * @param name
+	 *            The name to check.
+	 * @return {@code true} if the name is valid.
+	 */
+	static boolean isValidName(String name)
+	{
+		final int len = name.length();
+		if (len == 0)
+		{
+			return false;
+		}
+
+		for (int i = 0; i < len; ++i)
+		{
+			char c = name.charAt(i);
+			if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_' || c == ':')
+			{
+				// fast path for the most common characters
+				continue;
+			}
+
+			if (i > 0 && (c >= '0' && c <= '9' || c == '-' || c == '.'))
+			{
+				continue;
+			}
+
+			if (c < 0x80)
+			{
+				return false;
+			}
+
+			int codePoint = c;
+			if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(name.charAt(i + 1)))
+			{
+				codePoint = Character.toCodePoint(c, name.charAt(++i));
+			}
+
+			if (!isNameStartChar(codePoint) && (i == 0 || !isNameChar(codePoint)))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Returns whether the given non-ASCII code point is a NameStartChar.
+	 */
+	private static boolean isNameStartChar(int c)
+	{
+		return c >= 0xC0 && c <= 0xD6 || c >= 0xD8 && c <= 0xF6 || c >= 0xF8 && c <= 0x2FF || c >= 0x370 && c <= 0x37D || c >= 0x37F && c <= 0x1FFF
+			|| c >= 0x200C && c <= 0x200D || c >= 0x2070 && c <= 0x218F || c >= 0x2C00 && c <= 0x2FEF || c >= 0x3001 && c <= 0xD7FF || c >= 0xF900
+			&& c <= 0xFDCF || c >= 0xFDF0 && c <= 0xFFFD || c >= 0x10000 && c <= 0xEFFFF;
+	}
+
+
+	/**
+	 * Returns whether the given non-ASCII code point is a NameChar, but not a NameStartChar.
+	 */
+	private static boolean isNameChar(int c)
+	{
+		return c == 0xB7 || c >= 0x300 && c <= 0x36F || c >= 0x203F && c <= 0x2040;
+	}
+}
@@ -56,6 +56,73 @@ final class XmlNamespaceRegistry
 	 */
 	private int mPrefixCounter = 0;
 
+	/**
+	 * A {@link Set} that receives every namespace that is looked up or {@code null} if lookups are not recorded.
+	 */
+	private Set<XmlNamespace> mRecorder;
+
+	/**
+	 * The policy for characters that are invalid in XML 1.0. This is a document wide setting and every node of a document has access to its registry, so
+	 * it's kept here.
+	 */
+	private int mInvalidCharacterPolicy = XmlSerializer.INVALID_CHARS_IGNORE;
+
+	/**
+	 * Indicates that this registry is a fork that can only resolve namespaces that were bound when it was created.
+	 */
+	private boolean mFrozen = false;
+
+	/**
+	 * The {@link XmlParallelEscaper} for large texts or {@code null} if texts are always escaped sequentially.
+	 */
+	private XmlParallelEscaper mTextEscaper;
+
+
+	/**
+	 * Set the policy for characters that are invalid in XML 1.0.
+	 * 
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 */
+	void setInvalidCharacterPolicy(int policy)
+	{
+		mInvalidCharacterPolicy = policy;
+	}
+
+
+	/**
+	 * Returns the policy for characters that are invalid in XML 1.0.
+	 * 
+	 * @return One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 */
+	int getInvalidCharacterPolicy()
+	{
+		return mInvalidCharacterPolicy;
+	}
+
+
+	/**
+	 * Set the {@link XmlParallelEscaper} for large texts.
+	 * 
+	 * @param escaper
+	 *            The {@link XmlParallelEscaper} or {@code null} to escape all texts sequentially.
+	 */
+	void setTextEscaper(XmlParallelEscaper escaper)
+	{
+		mTextEscaper = escaper;
+	}
+
+
+	/**
+	 * Returns the {@link XmlParallelEscaper} for large texts.
+	 * 
+	 * @return The {@link XmlParallelEscaper} or {@code null} if texts are escaped sequentially.
+	 */
+	XmlParallelEscaper getTextEscaper()
+	{
+		return mTextEscaper;
+	}
+
 
 	/**
 	 * Get an {@link XmlNamespace} object for the given namespace. Returns an existing namespace if any, creates a new object otherwise.
@@ -68,12 +135,114 @@ final class XmlNamespaceRegistry
 	XmlNamespace getNamespace(String namespace) throws InvalidValueException
 	{
 		XmlNamespace ns;
-		if ((ns = mNamespaces.get(namespace)) != null)
+		if ((ns = mNamespaces.get(namespace)) == null)
 		{
-			return ns;
+			ns = createNamespace(namespace);
 		}
 
-		return createNamespace(namespace);
+		if (mRecorder != null)
+		{
+			mRecorder.add(ns);
+		}
+		return ns;
+	}
+
+
+	/**
+	 * Get the {@link XmlNamespace} object that is currently defined for the given namespace, without creating a new one.
+	 * 
+	 * @param namespace
+	 *            A {@link String} containing the namespace.
+	 * @return An existing {@link XmlNamespace} instance or {@code null} if the namespace is not defined.
+	 */
+	XmlNamespace peekNamespace(String namespace)
+	{
+		return mNamespaces.get(namespace);
+	}
+
+
+	/**
+	 * Start recording all namespaces that are looked up by {@link #getNamespace(String)}.
+	 * 
+	 * @param recorder
+	 *            A {@link Set} that receives the namespaces.
+	 * @return The previous recorder or {@code null}. Pass it to {@link #stopRecording(Set)} to restore it.
+	 */
+	Set<XmlNamespace> startRecording(Set<XmlNamespace> recorder)
+	{
+		Set<XmlNamespace> previous = mRecorder;
+		mRecorder = recorder;
+		return previous;
+	}
+
+
+	/**
+	 * Stop recording namespaces and restore the previous recorder.
+	 * 
+	 * @param previous
+	 *            The recorder returned by {@link #startRecording(Set)}.
+	 */
+	void stopRecording(Set<XmlNamespace> previous)
+	{
+		mRecorder = previous;
+	}
+
+
+	/**
+	 * Add namespaces to the current recorder, if any. Use this when namespaces are used without looking them up.
+	 * 
+	 * @param namespaces
+	 *            The namespaces to record.
+	 */
+	void record(XmlNamespace[] namespaces)
+	{
+		if (mRecorder != null)
+		{
+			for (XmlNamespace ns : namespaces)
+			{
+				mRecorder.add(ns);
+			}
+		}
+	}
+
+
+	/**
+	 * Create a private copy of this registry for serializing a subtree at {@code depth} on another thread. The copy resolves all namespaces that are currently
+	 * bound to the same prefixes, but it refuses to bind new namespaces, since the prefixes it would assign depend on the order of serialization.
+	 * <p>
+	 * If this registry is recording, the fork records into a new {@link Set}. Pass the result of {@link #getRecorded()} to {@link #record(XmlNamespace[])}
+	 * once the subtree has been serialized.
+	 * </p>
+	 * 
+	 * @param depth
+	 *            The depth of the subtree.
+	 * @return A new {@link XmlNamespaceRegistry}.
+	 */
+	XmlNamespaceRegistry fork(int depth)
+	{
+		XmlNamespaceRegistry fork = new XmlNamespaceRegistry();
+		fork.mNamespaces.putAll(mNamespaces);
+		fork.mPrefixCounter = mPrefixCounter;
+		fork.mFirstUnlockedLevel = depth;
+		fork.mInvalidCharacterPolicy = mInvalidCharacterPolicy;
+		fork.mTextEscaper = mTextEscaper;
+		fork.mFrozen = true;
+		if (mRecorder != null)
+		{
+			fork.mRecorder = new HashSet<XmlNamespace>();
+		}
+		return fork;
+	}
+
+
+	/**
+	 * Returns the namespaces recorded so far.
+	 * 
+	 * @return An array of {@link XmlNamespace}s, empty if this registry is not recording.
+	 */
+	XmlNamespace[] getRecorded()
+	{
+		return mRecorder == null ? new XmlNamespace[0] : mRecorder.toArray(new XmlNamespace[mRecorder.size()]);
 	}
 
 
@@ -157,6 +326,12 @@ final class XmlNamespaceRegistry
 	 */
 	private XmlNamespace createNamespace(String namespace) throws InvalidValueException
 	{
+		if (mFrozen)
+		{
+			throw new InvalidValueException("namespace " + namespace
+				+ " is not bound, subtrees that are serialized in parallel can only use namespaces that are bound by an ancestor");
+		}
+
 		String prefix = buildPrefix();
 
 		XmlNamespace ns = new XmlNamespace(prefix, namespace);
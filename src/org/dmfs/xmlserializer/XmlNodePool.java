@@ -0,0 +1,151 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A pool of {@link XmlElement} and {@link XmlText} instances that can be used again once they have been closed.
+ * <p>
+ * Each {@link XmlSerializer} has its own pool. Pooled nodes may be closed on other threads when they are serialized by
+ * {@link XmlElement#addAll(java.util.Collection, java.util.concurrent.Executor)}, so access to the pool is synchronized.
+ * </p>
+ * 
+ * For internal use only.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class XmlNodePool
+{
+	/**
+	 * The maximum number of free instances to keep per node type.
+	 */
+	private final int mMaxSize;
+
+	/**
+	 * A {@link List} of closed {@link XmlElement}s that are ready to be used again.
+	 */
+	private final List<XmlElement> mFreeElements;
+
+	/**
+	 * A {@link List} of closed {@link XmlText}s that are ready to be used again.
+	 */
+	private final List<XmlText> mFreeTexts;
+
+
+	/**
+	 * Constructor for a new node pool.
+	 * 
+	 * @param maxSize
+	 *            The maximum number of free instances to keep per node type.
+	 */
+	XmlNodePool(int maxSize)
+	{
+		if (maxSize <= 0)
+		{
+			throw new IllegalArgumentException("maxSize must be greater than 0");
+		}
+		mMaxSize = maxSize;
+		mFreeElements = new ArrayList<XmlElement>(Math.min(maxSize, 64));
+		mFreeTexts = new ArrayList<XmlText>(Math.min(maxSize, 64));
+	}
+
+
+	/**
+	 * Get an {@link XmlElement} from the pool. Creates a new instance if the pool is empty.
+	 * 
+	 * @param namespace
+	 *            A {@link String} containing the namespace of the element or {@code null}.
+	 * @param tagname
+	 *            A {@link String} containing the name of the element's tag.
+	 * @return An {@link XmlElement} in state {@link XmlAbstractNode#STATE_NEW}.
+	 */
+	synchronized XmlElement obtainElement(String namespace, String tagname)
+	{
+		int size = mFreeElements.size();
+		if (size == 0)
+		{
+			XmlElement element = new XmlElement(namespace, tagname);
+			element.setPool(this);
+			return element;
+		}
+
+		XmlElement element = mFreeElements.remove(size - 1);
+		element.reset(namespace, tagname);
+		return element;
+	}
+
+
+	/**
+	 * Get an {@link XmlText} from the pool. Creates a new instance if the pool is empty.
+	 * 
+	 * @param text
+	 *            The text of the node (may be {@code null}).
+	 * @return An {@link XmlText} in state {@link XmlAbstractNode#STATE_NEW}.
+	 */
+	synchronized XmlText obtainText(String text)
+	{
+		int size = mFreeTexts.size();
+		if (size == 0)
+		{
+			XmlText node = new XmlText(text);
+			node.setPool(this);
+			return node;
+		}
+
+		XmlText node = mFreeTexts.remove(size - 1);
+		node.reset(text);
+		return node;
+	}
+
+
+	/**
+	 * Return a closed {@link XmlElement} to the pool. If the pool is full the element is dropped.
+	 * 
+	 * @param element
+	 *            The closed {@link XmlElement}.
+	 */
+	synchronized void recycle(XmlElement element)
+	{
+		if (mFreeElements.size() < mMaxSize)
+		{
+			mFreeElements.add(element);
+		}
+	}
+
+
+	/**
+	 * Return a closed {@link XmlText} to the pool. If the pool is full the node is dropped.
+	 * 
+	 * @param text
+	 *            The closed {@link XmlText}.
+	 */
+	synchronized void recycle(XmlText text)
+	{
+		if (mFreeTexts.size() < mMaxSize)
+		{
+			mFreeTexts.add(text);
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedList;
+
+
+/**
+ * An output for event loop servers that must never block on a slow client. Pass it to {@link XmlSerializer#XmlSerializer(WritableByteChannel)}. Writing to
+ * this output never blocks, the encoded bytes are kept in a queue of chunks until {@link #drainTo(WritableByteChannel)} hands them to a non-blocking
+ * channel.
+ * <p>
+ * The amount of buffered data is bounded by the producer: stop adding nodes when {@link #wouldBlock()} returns {@code true}, call
+ * {@link XmlSerializer#flush()} and {@link #drainTo(WritableByteChannel)}, and resume adding nodes once the channel is writable again and
+ * {@link #wouldBlock()} returns {@code false}. All serialization state lives in the open nodes, so the document can be continued at any time. The buffer
+ * may exceed the limit by the size of one node, large content can be added in pieces through {@link XmlText#writer()} to check {@link #wouldBlock()} in
+ * between.
+ * </p>
+ * <p>
+ * A typical write handler looks like this:
+ * </p>
+ * 
+ * <pre>
+ * while (!output.wouldBlock() &amp;&amp; hasMore())
+ * {
+ * 	parent.add(next());
+ * }
+ * serializer.flush();
+ * if (!output.drainTo(socketChannel))
+ * {
+ * 	// wait for OP_WRITE
+ * }
+ * </pre>
+ * 
+ * Instances are not thread-safe.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlNonBlockingOutput implements WritableByteChannel
+{
+	/**
+	 * The size of a chunk.
+	 */
+	private final static int CHUNK_SIZE = 8192;
+
+	/**
+	 * The maximum number of drained chunks to keep for reuse.
+	 */
+	private final static int MAX_FREE_CHUNKS = 4;
+
+	/**
+	 * A chunk of buffered bytes.
+	 */
+	private final static class Chunk
+	{
+		/**
+		 * The bytes of this chunk. The buffer is always in write mode, its position is the end of the data.
+		 */
+		final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+		/**
+		 * The position of the first byte that has not been drained yet.
+		 */
+		int start;
+	}
+
+	/**
+	 * The buffered chunks, the first one is drained next, the last one receives new bytes.
+	 */
+	private final LinkedList<Chunk> mChunks = new LinkedList<Chunk>();
+
+	/**
+	 * Drained chunks that can be used again.
+	 */
+	private final LinkedList<Chunk> mFreeChunks = new LinkedList<Chunk>();
+
+	/**
+	 * The number of bytes at which {@link #wouldBlock()} returns {@code true}.
+	 */
+	private final int mLimit;
+
+	/**
+	 * The number of buffered bytes.
+	 */
+	private int mBuffered;
+
+	/**
+	 * Indicates whether this output has been closed.
+	 */
+	private boolean mClosed;
+
+
+	/**
+	 * Create a new output.
+	 * 
+	 * @param limit
+	 *            The number of buffered bytes at which {@link #wouldBlock()} returns {@code true}.
+	 */
+	public XmlNonBlockingOutput(int limit)
+	{
+		if (limit <= 0)
+		{
+			throw new IllegalArgumentException("limit must be greater than 0");
+		}
+		mLimit = limit;
+	}
+
+
+	/**
+	 * Returns whether the buffer has reached its limit. Producers should not add any more nodes until enough data has been drained.
+	 * 
+	 * @return {@code true} if no more nodes should be added right now.
+	 */
+	public boolean wouldBlock()
+	{
+		return mBuffered >= mLimit;
+	}
+
+
+	/**
+	 * Returns the number of bytes that wait to be drained. Bytes that are still buffered by the serializer are not included, call
+	 * {@link XmlSerializer#flush()} first.
+	 * 
+	 * @return The number of buffered bytes.
+	 */
+	public int buffered()
+	{
+		return mBuffered;
+	}
+
+
+	/**
+	 * Write as many buffered bytes to {@code channel} as it accepts without blocking.
+	 * 
+	 * @param channel
+	 *            A {@link WritableByteChannel}, usually in non-blocking mode.
+	 * @return {@code true} if all bytes have been written, {@code false} if the channel didn't accept all of them.
+	 * @throws IOException
+	 */
+	public boolean drainTo(WritableByteChannel channel) throws IOException
+	{
+		final LinkedList<Chunk> chunks = mChunks;
+		while (!chunks.isEmpty())
+		{
+			Chunk chunk = chunks.getFirst();
+			ByteBuffer data = chunk.buffer.duplicate();
+			data.flip();
+			data.position(chunk.start);
+			mBuffered -= channel.write(data);
+			chunk.start = data.position();
+			if (data.hasRemaining())
+			{
+				return false;
+			}
+
+			chunks.removeFirst();
+			if (mFreeChunks.size() < MAX_FREE_CHUNKS)
+			{
+				chunk.buffer.clear();
+				chunk.start = 0;
+				mFreeChunks.add(chunk);
+			}
+		}
+		return true;
+	}
+
+
+	public int write(ByteBuffer src) throws IOException
+	{
+		if (mClosed)
+		{
+			throw new ClosedChannelException();
+		}
+
+		final int count = src.remaining();
+		final LinkedList<Chunk> chunks = mChunks;
+		while (src.hasRemaining())
+		{
+			Chunk chunk = chunks.isEmpty() ? null : chunks.getLast();
+			if (chunk == null || !chunk.buffer.hasRemaining())
+			{
+				chunk = mFreeChunks.isEmpty() ? new Chunk() : mFreeChunks.removeFirst();
+				chunks.add(chunk);
+			}
+			ByteBuffer buffer = chunk.buffer;
+			int len = Math.min(buffer.remaining(), src.remaining());
+			int limit = src.limit();
+			src.limit(src.position() + len);
+			buffer.put(src);
+			src.limit(limit);
+		}
+		mBuffered += count;
+		return count;
+	}
+
+
+	public boolean isOpen()
+	{
+		return !mClosed;
+	}
+
+
+	public void close()
+	{
+		// buffered bytes can still be drained
+		mClosed = true;
+	}
+}
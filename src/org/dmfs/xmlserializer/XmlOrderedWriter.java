@@ -0,0 +1,369 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.LinkedList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A {@link Writer} that keeps the output of an element in document order while some of its children are still being produced on other threads.
+ * <p>
+ * Every child that is not complete when it's opened reserves a {@link Slot}. Everything written after a pending slot is buffered until the slot has been
+ * filled. Filled slots at the head of the queue are written immediately, on whatever thread filled them, so nothing is buffered longer than necessary. As
+ * long as no slot is pending all output is passed through.
+ * </p>
+ * 
+ * For internal use only.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class XmlOrderedWriter extends Writer
+{
+	/**
+	 * A position in the output that is filled by another thread.
+	 */
+	static final class Slot
+	{
+		/**
+		 * The {@link XmlNamespaceRegistry} to serialize the content of this slot.
+		 */
+		final XmlNamespaceRegistry namespaceRegistry;
+
+		/**
+		 * The depth of the content of this slot.
+		 */
+		final int depth;
+
+		/**
+		 * The content of this slot or {@code null} if the slot has not been filled yet.
+		 */
+		private XmlCharBuffer mContent;
+
+		/**
+		 * Everything that has been written after this slot, until the next slot has been reserved.
+		 */
+		private final XmlCharBuffer mFollowing = new XmlCharBuffer(256);
+
+
+		Slot(XmlNamespaceRegistry namespaceRegistry, int depth)
+		{
+			this.namespaceRegistry = namespaceRegistry;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * The {@link Writer} to write to.
+	 */
+	private final Writer mOut;
+
+	/**
+	 * The lock that guards all fields and the output.
+	 */
+	private final ReentrantLock mLock = new ReentrantLock();
+
+	/**
+	 * Signaled when the last pending slot has been written or an error occurred.
+	 */
+	private final Condition mDrained = mLock.newCondition();
+
+	/**
+	 * The reserved slots in document order.
+	 */
+	private final LinkedList<Slot> mSlots = new LinkedList<Slot>();
+
+	/**
+	 * The first error that occurred while filling a slot or writing the output, if any.
+	 */
+	private Exception mError;
+
+
+	XmlOrderedWriter(Writer out)
+	{
+		mOut = out;
+	}
+
+
+	/**
+	 * Reserve a slot at the current position of the output.
+	 * 
+	 * @param slot
+	 *            The {@link Slot} to reserve. It may have been filled already.
+	 * @throws IOException
+	 */
+	void reserve(Slot slot) throws IOException
+	{
+		mLock.lock();
+		try
+		{
+			checkError();
+			mSlots.add(slot);
+			drain();
+		}
+		finally
+		{
+			mLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Fill a slot and write all complete output at the head of the queue. This may be called from any thread.
+	 * 
+	 * @param slot
+	 *            The {@link Slot} to fill.
+	 * @param content
+	 *            The serialized content of the slot.
+	 */
+	void fill(Slot slot, XmlCharBuffer content)
+	{
+		mLock.lock();
+		try
+		{
+			slot.mContent = content;
+			drain();
+		}
+		finally
+		{
+			mLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Report that a slot can not be filled. This fails the entire output. This may be called from any thread.
+	 * 
+	 * @param error
+	 *            The reason.
+	 */
+	void fail(Exception error)
+	{
+		mLock.lock();
+		try
+		{
+			setError(error);
+		}
+		finally
+		{
+			mLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Wait until all slots have been filled and written.
+	 * 
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 * @throws InvalidValueException
+	 *             if a slot has been filled with invalid content.
+	 */
+	void await() throws IOException, InvalidStateException, InvalidValueException
+	{
+		mLock.lock();
+		try
+		{
+			while (mError == null && !mSlots.isEmpty())
+			{
+				mDrained.await();
+			}
+			if (mError instanceof InvalidStateException)
+			{
+				throw (InvalidStateException) mError;
+			}
+			if (mError instanceof InvalidValueException)
+			{
+				throw (InvalidValueException) mError;
+			}
+			checkError();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for pending nodes");
+		}
+		finally
+		{
+			mLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Write all filled slots at the head of the queue, followed by whatever has been written after them. The caller must hold the lock.
+	 */
+	private void drain()
+	{
+		LinkedList<Slot> slots = mSlots;
+		try
+		{
+			while (mError == null && !slots.isEmpty() && slots.getFirst().mContent != null)
+			{
+				Slot slot = slots.removeFirst();
+				slot.mContent.writeTo(mOut);
+				slot.mFollowing.writeTo(mOut);
+			}
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+		if (slots.isEmpty())
+		{
+			mDrained.signalAll();
+		}
+	}
+
+
+	/**
+	 * Fail the output. The caller must hold the lock.
+	 */
+	private void setError(Exception error)
+	{
+		if (mError == null)
+		{
+			mError = error;
+		}
+		mSlots.clear();
+		mDrained.signalAll();
+	}
+
+
+	/**
+	 * Throw an {@link IOException} if the output has failed. The caller must hold the lock.
+	 */
+	private void checkError() throws IOException
+	{
+		if (mError instanceof IOException)
+		{
+			throw (IOException) mError;
+		}
+		else if (mError != null)
+		{
+			IOException e = new IOException("a pending node failed");
+			e.initCause(mError);
+			throw e;
+		}
+	}
+
+
+	@Override
+	public void write(int c) throws IOException
+	{
+		mLock.lock();
+		try
+		{
+			checkError();
+			if (mSlots.isEmpty())
+			{
+				mOut.write(c);
+			}
+			else
+			{
+				mSlots.getLast().mFollowing.write(c);
+			}
+		}
+		finally
+		{
+			mLock.unlock();
+		}
+	}
+
+
+	@Override
+	public void write(char[] buffer, int offset, int count) throws IOException
+	{
+		mLock.lock();
+		try
+		{
+			checkError();
+			if (mSlots.isEmpty())
+			{
+				mOut.write(buffer, offset, count);
+			}
+			else
+			{
+				mSlots.getLast().mFollowing.write(buffer, offset, count);
+			}
+		}
+		finally
+		{
+			mLock.unlock();
+		}
+	}
+
+
+	@Override
+	public void write(String str, int offset, int count) throws IOException
+	{
+		mLock.lock();
+		try
+		{
+			checkError();
+			if (mSlots.isEmpty())
+			{
+				mOut.write(str, offset, count);
+			}
+			else
+			{
+				mSlots.getLast().mFollowing.write(str, offset, count);
+			}
+		}
+		finally
+		{
+			mLock.unlock();
+		}
+	}
+
+
+	@Override
+	public void flush() throws IOException
+	{
+		mLock.lock();
+		try
+		{
+			checkError();
+			if (mSlots.isEmpty())
+			{
+				mOut.flush();
+			}
+		}
+		finally
+		{
+			mLock.unlock();
+		}
+	}
+
+
+	@Override
+	public void close() throws IOException
+	{
+		// the underlying writer belongs to the serializer, don't close it
+		flush();
+	}
+}
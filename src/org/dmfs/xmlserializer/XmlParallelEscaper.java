@@ -0,0 +1,473 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * Escapes large texts in parallel. Texts that exceed a threshold are split into chunks of {@link #CHUNK_SIZE} characters, which are escaped into private
+ * buffers by an {@link Executor}. The buffers are written to the output in order, so the result is identical to escaping the text on a single thread.
+ * <p>
+ * Chunks never end with a high surrogate, so surrogate pairs are never split and unpaired surrogates are detected just like in sequential escaping. Only
+ * {@link #MAX_PENDING} chunks are in flight at any time, which limits the memory needed for the buffers regardless of the size of the text. Chunks that the
+ * executor hasn't started when they are due are escaped by the calling thread, so a saturated or rejecting executor can't cause a deadlock.
+ * </p>
+ * 
+ * For internal use only.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class XmlParallelEscaper
+{
+	/**
+	 * The number of characters per chunk.
+	 */
+	final static int CHUNK_SIZE = 32 * 1024;
+
+	/**
+	 * The maximum number of chunks that are escaped at the same time.
+	 */
+	private final static int MAX_PENDING = 16;
+
+	/**
+	 * The {@link Executor} that escapes the chunks.
+	 */
+	private final Executor mExecutor;
+
+	/**
+	 * The minimum length of a text to be escaped in parallel.
+	 */
+	private final int mThreshold;
+
+
+	/**
+	 * Create an escaper that escapes texts of at least {@code threshold} characters on {@code executor}.
+	 * 
+	 * @param executor
+	 *            The {@link Executor} that escapes the chunks.
+	 * @param threshold
+	 *            The minimum length of a text to be escaped in parallel.
+	 */
+	XmlParallelEscaper(Executor executor, int threshold)
+	{
+		mExecutor = executor;
+		mThreshold = threshold;
+	}
+
+
+	/**
+	 * Writes a part of a {@link String} to {@code out} replacing special XML tokens by their respective XML entities. Ranges shorter than the threshold are
+	 * escaped by the calling thread.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param s
+	 *            The raw {@link String}.
+	 * @param offset
+	 *            The offset of the first character to write.
+	 * @param length
+	 *            The number of characters to write.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * @throws IOException
+	 */
+	void writeString(Writer out, String s, int offset, int length, int policy) throws IOException
+	{
+		if (length < mThreshold)
+		{
+			XmlUtils.writeXmlEntityEncodedString(out, s, offset, length, policy);
+			return;
+		}
+
+		LinkedList<FutureTask<XmlCharBuffer>> pending = new LinkedList<FutureTask<XmlCharBuffer>>();
+		try
+		{
+			final int end = offset + length;
+			int pos = offset;
+			while (pos < end)
+			{
+				int count = chunkLength(s, pos, end);
+				submit(out, pending, new Chunk(s, null, pos, count, policy), true);
+				pos += count;
+			}
+			drain(out, pending);
+		}
+		finally
+		{
+			cancel(pending);
+		}
+	}
+
+
+	/**
+	 * Writes a part of a char array to {@code out} replacing special XML tokens by their respective XML entities. Ranges shorter than the threshold are
+	 * escaped by the calling thread. The array must not be modified before this method returns.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param chars
+	 *            The raw characters.
+	 * @param offset
+	 *            The offset of the first character to write.
+	 * @param length
+	 *            The number of characters to write.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * @throws IOException
+	 */
+	void writeChars(Writer out, char[] chars, int offset, int length, int policy) throws IOException
+	{
+		if (length < mThreshold)
+		{
+			XmlUtils.writeXmlEntityEncodedChars(out, chars, offset, length, policy);
+			return;
+		}
+
+		LinkedList<FutureTask<XmlCharBuffer>> pending = new LinkedList<FutureTask<XmlCharBuffer>>();
+		try
+		{
+			final CharBuffer sequence = CharBuffer.wrap(chars);
+			final int end = offset + length;
+			int pos = offset;
+			while (pos < end)
+			{
+				int count = chunkLength(sequence, pos, end);
+				submit(out, pending, new Chunk(null, chars, pos, count, policy), true);
+				pos += count;
+			}
+			drain(out, pending);
+		}
+		finally
+		{
+			cancel(pending);
+		}
+	}
+
+
+	/**
+	 * Writes a part of a {@link CharSequence} to {@code out} replacing special XML tokens by their respective XML entities. Sequences other than
+	 * {@link String}s are copied to private arrays chunk by chunk. Ranges shorter than the threshold are escaped by the calling thread using {@code buffer}.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param s
+	 *            The raw {@link CharSequence}.
+	 * @param offset
+	 *            The offset of the first character to write.
+	 * @param length
+	 *            The number of characters to write.
+	 * @param buffer
+	 *            A buffer for chunks that are escaped by the calling thread.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * @throws IOException
+	 */
+	void writeSequence(Writer out, CharSequence s, int offset, int length, char[] buffer, int policy) throws IOException
+	{
+		if (s instanceof String)
+		{
+			writeString(out, (String) s, offset, length, policy);
+			return;
+		}
+		if (length < mThreshold)
+		{
+			XmlUtils.writeXmlEntityEncodedSequence(out, s, offset, length, buffer, policy);
+			return;
+		}
+
+		LinkedList<FutureTask<XmlCharBuffer>> pending = new LinkedList<FutureTask<XmlCharBuffer>>();
+		try
+		{
+			final int end = offset + length;
+			int pos = offset;
+			while (pos < end)
+			{
+				int count = chunkLength(s, pos, end);
+				char[] chunk = new char[count];
+				for (int i = 0; i < count; ++i)
+				{
+					chunk[i] = s.charAt(pos + i);
+				}
+				submit(out, pending, new Chunk(null, chunk, 0, count, policy), true);
+				pos += count;
+			}
+			drain(out, pending);
+		}
+		finally
+		{
+			cancel(pending);
+		}
+	}
+
+
+	/**
+	 * Reads a {@link Reader} to the end and writes the content to {@code out} replacing special XML tokens by their respective XML entities. The first
+	 * {@code threshold} characters are escaped by the calling thread using {@code buffer}, anything beyond that is escaped in parallel. A high surrogate at
+	 * the very end of the content is not written but returned, so the caller can pair it with whatever follows. The {@link Reader} is not closed.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param in
+	 *            The {@link Reader} to read from.
+	 * @param buffer
+	 *            A buffer for chunks that are escaped by the calling thread, at least two characters long.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * @return The high surrogate at the end of the content or {@code 0} if the content doesn't end with a high surrogate.
+	 * @throws IOException
+	 */
+	char writeReader(Writer out, Reader in, char[] buffer, int policy) throws IOException
+	{
+		// stream the head of the text just like XmlUtils.writeXmlEntityEncodedReader does
+		long total = 0;
+		int carry = 0;
+		int count = 0;
+		while (total < mThreshold && (count = carry == 0 ? in.read(buffer) : in.read(buffer, carry, buffer.length - carry)) >= 0)
+		{
+			total += count;
+			count += carry;
+			carry = 0;
+			if (count > 0 && Character.isHighSurrogate(buffer[count - 1]))
+			{
+				// keep the high surrogate for the next chunk, it might be followed by a low surrogate
+				carry = 1;
+			}
+			XmlUtils.writeXmlEntityEncodedChars(out, buffer, 0, count - carry, policy);
+			if (carry > 0)
+			{
+				buffer[0] = buffer[count - 1];
+			}
+		}
+
+		if (count < 0)
+		{
+			// the reader is exhausted
+			return carry > 0 ? buffer[0] : 0;
+		}
+
+		// escape the rest in parallel, every chunk gets its own array
+		LinkedList<FutureTask<XmlCharBuffer>> pending = new LinkedList<FutureTask<XmlCharBuffer>>();
+		try
+		{
+			char[] chunk = new char[CHUNK_SIZE];
+			if (carry > 0)
+			{
+				chunk[0] = buffer[0];
+			}
+			count = carry;
+			int read;
+			while ((read = in.read(chunk, count, CHUNK_SIZE - count)) >= 0)
+			{
+				count += read;
+				if (count == CHUNK_SIZE)
+				{
+					char[] next = new char[CHUNK_SIZE];
+					carry = Character.isHighSurrogate(chunk[CHUNK_SIZE - 1]) ? 1 : 0;
+					if (carry > 0)
+					{
+						next[0] = chunk[CHUNK_SIZE - 1];
+					}
+					submit(out, pending, new Chunk(null, chunk, 0, CHUNK_SIZE - carry, policy), true);
+					chunk = next;
+					count = carry;
+				}
+			}
+			char high = 0;
+			if (count > 0 && Character.isHighSurrogate(chunk[count - 1]))
+			{
+				high = chunk[--count];
+			}
+			if (count > 0)
+			{
+				// nothing to overlap with, the last chunk is escaped by this thread
+				submit(out, pending, new Chunk(null, chunk, 0, count, policy), false);
+			}
+			drain(out, pending);
+			return high;
+		}
+		finally
+		{
+			cancel(pending);
+		}
+	}
+
+
+	/**
+	 * Returns the length of the chunk that starts at {@code pos}. Chunks don't end with a high surrogate unless it's the last character of the text.
+	 */
+	private static int chunkLength(CharSequence s, int pos, int end)
+	{
+		int count = Math.min(CHUNK_SIZE, end - pos);
+		if (pos + count < end && Character.isHighSurrogate(s.charAt(pos + count - 1)))
+		{
+			// don't split a surrogate pair, the high surrogate goes into the next chunk
+			--count;
+		}
+		return count;
+	}
+
+
+	/**
+	 * Queue a chunk. If too many chunks are pending, the oldest one is written first.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param pending
+	 *            The pending chunks in document order.
+	 * @param chunk
+	 *            The {@link Chunk} to queue.
+	 * @param execute
+	 *            Whether to hand the chunk to the executor, otherwise it's escaped by the calling thread when it's due.
+	 * @throws IOException
+	 */
+	private void submit(Writer out, LinkedList<FutureTask<XmlCharBuffer>> pending, Chunk chunk, boolean execute) throws IOException
+	{
+		if (pending.size() == MAX_PENDING)
+		{
+			writeNext(out, pending);
+		}
+		FutureTask<XmlCharBuffer> task = new FutureTask<XmlCharBuffer>(chunk);
+		pending.add(task);
+		if (execute)
+		{
+			try
+			{
+				mExecutor.execute(task);
+			}
+			catch (RejectedExecutionException e)
+			{
+				// the task will be run on this thread when it's due
+			}
+		}
+	}
+
+
+	/**
+	 * Write all pending chunks.
+	 */
+	private static void drain(Writer out, LinkedList<FutureTask<XmlCharBuffer>> pending) throws IOException
+	{
+		while (!pending.isEmpty())
+		{
+			writeNext(out, pending);
+		}
+	}
+
+
+	/**
+	 * Write the oldest pending chunk, escaping it on this thread unless the executor has already started it.
+	 */
+	private static void writeNext(Writer out, LinkedList<FutureTask<XmlCharBuffer>> pending) throws IOException
+	{
+		FutureTask<XmlCharBuffer> task = pending.removeFirst();
+		task.run();
+		try
+		{
+			task.get().writeTo(out);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while escaping text");
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+			{
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+
+	/**
+	 * Cancel all pending chunks. In case of an error there is no point in escaping them.
+	 */
+	private static void cancel(LinkedList<FutureTask<XmlCharBuffer>> pending)
+	{
+		for (FutureTask<XmlCharBuffer> task : pending)
+		{
+			task.cancel(false);
+		}
+	}
+
+
+	/**
+	 * A chunk of a {@link String} or a char array.
+	 */
+	private final static class Chunk implements Callable<XmlCharBuffer>
+	{
+		private final String mString;
+		private final char[] mChars;
+		private final int mOffset;
+		private final int mLength;
+		private final int mPolicy;
+
+
+		Chunk(String string, char[] chars, int offset, int length, int policy)
+		{
+			mString = string;
+			mChars = chars;
+			mOffset = offset;
+			mLength = length;
+			mPolicy = policy;
+		}
+
+
+		public XmlCharBuffer call() throws IOException
+		{
+			// leave some room for entities
+			XmlCharBuffer buffer = new XmlCharBuffer(mLength + (mLength >> 3));
+			if (mString != null)
+			{
+				XmlUtils.writeXmlEntityEncodedString(buffer, mString, mOffset, mLength, mPolicy);
+			}
+			else
+			{
+				XmlUtils.writeXmlEntityEncodedChars(buffer, mChars, mOffset, mLength, mPolicy);
+			}
+			return buffer;
+		}
+	}
+}
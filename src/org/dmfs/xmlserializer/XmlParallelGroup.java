@@ -0,0 +1,245 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * A group of sibling nodes that are serialized in parallel. Each node is written to a private buffer by an {@link Executor}, the buffers are written to the
+ * output in document order.
+ * <p>
+ * Every node is serialized with a fork of the {@link XmlNamespaceRegistry} that resolves all namespaces bound at the time the group is opened. Unless the
+ * group has been added after the start tag of the parent has been closed, the namespaces of all nodes are bound to the parent, just like
+ * {@link XmlElement#addAll(Collection)} does. So the result is identical to adding the nodes sequentially.
+ * </p>
+ * 
+ * For internal use only.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class XmlParallelGroup extends XmlAbstractNode
+{
+	/**
+	 * The nodes of this group.
+	 */
+	private final XmlAbstractNode[] mNodes;
+
+	/**
+	 * The {@link Executor} that serializes the nodes.
+	 */
+	private final Executor mExecutor;
+
+	/**
+	 * Indicates whether the namespaces of the nodes are to be bound to the parent.
+	 */
+	private final boolean mBindNamespaces;
+
+	/**
+	 * The {@link XmlNamespaceRegistry} of this XML document.
+	 */
+	private XmlNamespaceRegistry mNamespaceRegistry;
+
+
+	/**
+	 * Create a new group.
+	 * 
+	 * @param nodes
+	 *            The nodes of this group.
+	 * @param executor
+	 *            The {@link Executor} to serialize the nodes.
+	 * @param bindNamespaces
+	 *            {@code true} to bind the namespaces of all nodes to the parent when the namespace registry is set. Pass {@code false} if the start tag of the
+	 *            parent has been closed already.
+	 */
+	XmlParallelGroup(Collection<? extends XmlAbstractNode> nodes, Executor executor, boolean bindNamespaces)
+	{
+		if (executor == null)
+		{
+			throw new NullPointerException("executor must not be null");
+		}
+		mNodes = nodes.toArray(new XmlAbstractNode[nodes.size()]);
+		mExecutor = executor;
+		mBindNamespaces = bindNamespaces;
+	}
+
+
+	@Override
+	void setDepth(int depth)
+	{
+		super.setDepth(depth);
+		for (XmlAbstractNode node : mNodes)
+		{
+			node.setDepth(depth);
+		}
+	}
+
+
+	@Override
+	void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry) throws InvalidValueException
+	{
+		mNamespaceRegistry = namespaceRegistry;
+		if (mBindNamespaces)
+		{
+			// the start tag of the parent is still open, bind all namespaces to it
+			for (XmlAbstractNode node : mNodes)
+			{
+				node.setNamespaceRegistry(namespaceRegistry);
+			}
+		}
+	}
+
+
+	@Override
+	void open(Writer out) throws IOException, InvalidStateException, InvalidValueException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("can not open group - it's already open!");
+		}
+
+		final XmlNamespaceRegistry registry = mNamespaceRegistry;
+		final int depth = getDepth();
+		final XmlAbstractNode[] nodes = mNodes;
+		final int count = nodes.length;
+
+		List<FutureTask<XmlCharBuffer>> tasks = new ArrayList<FutureTask<XmlCharBuffer>>(count);
+		XmlNamespaceRegistry[] forks = new XmlNamespaceRegistry[count];
+		for (int i = 0; i < count; ++i)
+		{
+			// forks must be created on this thread, the registry is not thread-safe
+			final XmlNamespaceRegistry fork = registry.fork(depth);
+			final XmlAbstractNode node = nodes[i];
+			forks[i] = fork;
+			tasks.add(new FutureTask<XmlCharBuffer>(new Callable<XmlCharBuffer>()
+			{
+				public XmlCharBuffer call() throws Exception
+				{
+					XmlCharBuffer buffer = new XmlCharBuffer(256);
+					node.setNamespaceRegistry(fork);
+					node.open(buffer);
+					node.close();
+					return buffer;
+				}
+			}));
+		}
+
+		for (FutureTask<XmlCharBuffer> task : tasks)
+		{
+			try
+			{
+				mExecutor.execute(task);
+			}
+			catch (RejectedExecutionException e)
+			{
+				// the task will be run on this thread below
+			}
+		}
+
+		int i = 0;
+		try
+		{
+			for (; i < count; ++i)
+			{
+				FutureTask<XmlCharBuffer> task = tasks.get(i);
+				// run the task on this thread unless the executor has already started it
+				task.run();
+				get(task).writeTo(out);
+				registry.record(forks[i].getRecorded());
+			}
+		}
+		finally
+		{
+			// in case of an error don't waste any time on the remaining nodes
+			for (; i < count; ++i)
+			{
+				tasks.get(i).cancel(false);
+			}
+		}
+
+		state = STATE_START_TAG_CLOSED;
+	}
+
+
+	/**
+	 * Wait for a task to complete and return its result. Exceptions thrown by the task are passed on.
+	 */
+	static <T> T get(FutureTask<T> task) throws IOException, InvalidStateException, InvalidValueException
+	{
+		try
+		{
+			return task.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for a subtree");
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+			{
+				throw (IOException) cause;
+			}
+			if (cause instanceof InvalidStateException)
+			{
+				throw (InvalidStateException) cause;
+			}
+			if (cause instanceof InvalidValueException)
+			{
+				throw (InvalidValueException) cause;
+			}
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+
+	@Override
+	void close() throws InvalidStateException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("can not close group - it's not open!");
+		}
+		state = STATE_CLOSED;
+	}
+}
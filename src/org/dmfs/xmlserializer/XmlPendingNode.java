@@ -0,0 +1,227 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * A placeholder for a child node that is produced asynchronously, e.g. by another thread. Add it to an {@link XmlElement} like any other node and call
+ * {@link #complete(XmlAbstractNode)} once the actual node is available.
+ * <p>
+ * Adding a placeholder never blocks. If it has been completed when it's written, the node is written right away. Otherwise anything that's added after the
+ * placeholder is buffered, and the node is serialized and written by the thread that completes it, together with everything that follows it up to the
+ * next pending placeholder. So output is written as soon as it's at the head of the document, and nothing is buffered longer than necessary.
+ * </p>
+ * <p>
+ * Closing the parent element (or the document) waits until all of its placeholders have been completed and written.
+ * </p>
+ * <p>
+ * A node that's completed after the placeholder has been written can only use namespaces that are bound by an ancestor at that time, since it's serialized
+ * on another thread. Register these namespaces in advance (e.g. with {@link XmlSerializer#registerNamespace(String)}), otherwise the output fails with an
+ * {@link InvalidValueException}.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlPendingNode extends XmlAbstractNode
+{
+	/**
+	 * Marks a placeholder that has been completed after it has been written.
+	 */
+	private final static Object DONE = new Object();
+
+	/**
+	 * The hand-off between the thread that writes the placeholder and the thread that completes it. It contains the node or an {@link Exception} if the
+	 * placeholder has been completed first, or an {@link XmlOrderedWriter.Slot} if it has been written first.
+	 */
+	private final AtomicReference<Object> mHandOff = new AtomicReference<Object>();
+
+	/**
+	 * The {@link XmlOrderedWriter} this placeholder has been written to.
+	 */
+	private volatile XmlOrderedWriter mOut;
+
+	/**
+	 * The {@link XmlNamespaceRegistry} of this XML document.
+	 */
+	private XmlNamespaceRegistry mNamespaceRegistry;
+
+
+	/**
+	 * Complete this placeholder. This method can be called from any thread. Errors that occur while serializing {@code node} are reported when the parent
+	 * element is closed.
+	 * 
+	 * @param node
+	 *            The actual node.
+	 * @throws IllegalStateException
+	 *             if this placeholder has been completed already.
+	 */
+	public void complete(XmlAbstractNode node)
+	{
+		if (node == null)
+		{
+			throw new NullPointerException("node must not be null");
+		}
+		handOff(node);
+	}
+
+
+	/**
+	 * Complete this placeholder with an error. This method can be called from any thread. The error fails the output and is reported when the parent element
+	 * is closed.
+	 * 
+	 * @param error
+	 *            The reason why no node can be produced.
+	 * @throws IllegalStateException
+	 *             if this placeholder has been completed already.
+	 */
+	public void fail(Exception error)
+	{
+		if (error == null)
+		{
+			throw new NullPointerException("error must not be null");
+		}
+		handOff(error);
+	}
+
+
+	private void handOff(Object result)
+	{
+		Object current = mHandOff.get();
+		if (current == null && mHandOff.compareAndSet(null, result))
+		{
+			// not written yet, the writer takes care of it
+			return;
+		}
+
+		current = mHandOff.get();
+		if (!(current instanceof XmlOrderedWriter.Slot) || !mHandOff.compareAndSet(current, DONE))
+		{
+			throw new IllegalStateException("placeholder has been completed already");
+		}
+
+		XmlOrderedWriter.Slot slot = (XmlOrderedWriter.Slot) current;
+		XmlOrderedWriter out = mOut;
+		if (result instanceof Exception)
+		{
+			out.fail((Exception) result);
+			return;
+		}
+
+		XmlAbstractNode node = (XmlAbstractNode) result;
+		XmlCharBuffer buffer = new XmlCharBuffer(256);
+		try
+		{
+			node.setDepth(slot.depth);
+			node.setNamespaceRegistry(slot.namespaceRegistry);
+			node.open(buffer);
+			node.close();
+		}
+		catch (Exception e)
+		{
+			out.fail(e);
+			return;
+		}
+		out.fill(slot, buffer);
+	}
+
+
+	@Override
+	void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+	{
+		mNamespaceRegistry = namespaceRegistry;
+	}
+
+
+	@Override
+	void open(Writer out) throws IOException, InvalidStateException, InvalidValueException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("can not open placeholder - it's already open!");
+		}
+
+		Object result = mHandOff.get();
+		if (result == null)
+		{
+			if (!(out instanceof XmlOrderedWriter))
+			{
+				throw new InvalidStateException("pending placeholders can only be added to an XmlElement");
+			}
+
+			// the registry is not thread-safe, the completing thread gets a private copy
+			XmlOrderedWriter.Slot slot = new XmlOrderedWriter.Slot(mNamespaceRegistry.fork(getDepth()), getDepth());
+			mOut = (XmlOrderedWriter) out;
+			if (mHandOff.compareAndSet(null, slot))
+			{
+				((XmlOrderedWriter) out).reserve(slot);
+				state = STATE_START_TAG_CLOSED;
+				return;
+			}
+			// completed in the meantime
+			result = mHandOff.get();
+		}
+
+		if (result instanceof Exception)
+		{
+			Exception error = (Exception) result;
+			if (error instanceof IOException)
+			{
+				throw (IOException) error;
+			}
+			if (error instanceof InvalidStateException)
+			{
+				throw (InvalidStateException) error;
+			}
+			if (error instanceof InvalidValueException)
+			{
+				throw (InvalidValueException) error;
+			}
+			IOException e = new IOException("pending node failed");
+			e.initCause(error);
+			throw e;
+		}
+
+		// the node is complete already, write it right away
+		XmlAbstractNode node = (XmlAbstractNode) result;
+		node.setDepth(getDepth());
+		node.setNamespaceRegistry(mNamespaceRegistry);
+		node.open(out);
+		node.close();
+		state = STATE_START_TAG_CLOSED;
+	}
+
+
+	@Override
+	void close() throws InvalidStateException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("can not close placeholder - it's not open!");
+		}
+		state = STATE_CLOSED;
+	}
+}
@@ -0,0 +1,523 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A pipeline that lets several producer threads serialize sibling nodes while a single thread writes them to the output. Use it to overlap serialization
+ * with blocking I/O.
+ * <p>
+ * The pipeline is a ring of pre-allocated slots. A producer claims the next sequence number by incrementing an atomic counter and serializes its node into
+ * the slot of that sequence. Then it publishes the slot. A single writer thread writes the slots in sequence order and releases each one for reuse. No locks
+ * are involved. Producers wait only when the ring is full, and the writer waits only when the next slot has not been published yet.
+ * </p>
+ * <p>
+ * Add the pipeline to an {@link XmlElement} first. Then start the producers, which call {@link #add(XmlAbstractNode)} and, once all of them are done,
+ * {@link #finish()}. To write the slots while the producers are still running, call {@link #drain()} on a dedicated I/O thread. It writes the slots until
+ * {@link #finish()} has been called and all claimed slots have been written. Until the pipeline is closed, the thread that owns the serializer must not
+ * write anything else to it.
+ * </p>
+ * <p>
+ * The pipeline is closed when its parent is closed or another node is added to the parent. If a thread drains the pipeline, closing it waits for that
+ * thread to finish. Otherwise the closing thread writes the slots itself. Nodes are written in the order they have been claimed, so nodes added by the same
+ * thread keep their order. The thread that writes the pipeline may add nodes as well. If nobody drains the pipeline and it finds the ring full, it writes
+ * the published slots itself.
+ * </p>
+ * <p>
+ * Nodes are serialized on other threads, so they can only use namespaces that are bound by an ancestor when the pipeline is written. Register these
+ * namespaces in advance (e.g. with {@link XmlSerializer#registerNamespace(String)}), otherwise adding the node fails with an {@link InvalidValueException}.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlPipeline extends XmlAbstractNode
+{
+	/**
+	 * The bit of {@link #mClaimed} that indicates that no more nodes will be added.
+	 */
+	private final static long FINISHED = 1L << 62;
+
+	/**
+	 * The time to park a waiting thread, in nanoseconds. Producers that wait for a free slot poll in this interval. The writer is woken up when a slot is
+	 * published, for the writer this is just a safety net.
+	 */
+	private final static long PARK_NANOS = 100000;
+
+	/**
+	 * A slot of the ring.
+	 */
+	private final static class Slot
+	{
+		/**
+		 * The buffer that receives the serialized node. It's reused every time this slot is claimed.
+		 */
+		final XmlCharBuffer buffer;
+
+		/**
+		 * The {@link XmlNamespaceRegistry} to serialize nodes in this slot. It's created when the slot is used for the first time.
+		 */
+		XmlNamespaceRegistry namespaceRegistry;
+
+		/**
+		 * The error that occurred while serializing the node of this slot or {@code null}.
+		 */
+		Exception error;
+
+		/**
+		 * The sequence number of the node this slot has been published for.
+		 */
+		volatile long published = -1;
+
+
+		Slot(int bufferSize)
+		{
+			buffer = new XmlCharBuffer(bufferSize);
+		}
+	}
+
+	/**
+	 * The slots of the ring.
+	 */
+	private final Slot[] mSlots;
+
+	/**
+	 * The number of claimed sequence numbers, the {@link #FINISHED} bit is set once {@link #finish()} has been called.
+	 */
+	private final AtomicLong mClaimed = new AtomicLong();
+
+	/**
+	 * The number of slots that have been written. Only the writer modifies it.
+	 */
+	private volatile long mWritten = 0;
+
+	/**
+	 * The thread that writes the slots or {@code null} if it's not waiting.
+	 */
+	private volatile Thread mWaitingWriter;
+
+	/**
+	 * The thread that is allowed to write the slots or {@code null} if no thread writes them right now. The owner takes it for a moment when it finds the
+	 * ring full, {@link #drain()} and {@link #close()} keep it until all slots have been written.
+	 */
+	private final AtomicReference<Thread> mWriter = new AtomicReference<Thread>();
+
+	/**
+	 * Whether all slots have been written.
+	 */
+	private volatile boolean mDone;
+
+	/**
+	 * A fork of the {@link XmlNamespaceRegistry} of this XML document or {@code null} if this pipeline has not been written yet. It's never modified, so it
+	 * can be forked on any thread.
+	 */
+	private volatile XmlNamespaceRegistry mNamespaces;
+
+	/**
+	 * The {@link Writer} to write to.
+	 */
+	private Writer mOut;
+
+	/**
+	 * The thread that has written this pipeline. It writes the slots when it finds the ring full and nobody drains the pipeline.
+	 */
+	private volatile Thread mOwner;
+
+	/**
+	 * The first error that occurred while writing the slots. Only the writer modifies it, others read it once {@link #mDone} is set.
+	 */
+	private Exception mError;
+
+	/**
+	 * The {@link XmlNamespaceRegistry} of this XML document.
+	 */
+	private XmlNamespaceRegistry mNamespaceRegistry;
+
+
+	/**
+	 * Create a new pipeline.
+	 * 
+	 * @param slots
+	 *            The number of slots, i.e. the maximum number of serialized nodes that wait to be written.
+	 * @param bufferSize
+	 *            The initial size of the buffer of each slot in chars. Buffers grow as needed and are reused.
+	 */
+	public XmlPipeline(int slots, int bufferSize)
+	{
+		if (slots <= 0)
+		{
+			throw new IllegalArgumentException("slots must be greater than 0");
+		}
+		mSlots = new Slot[slots];
+		for (int i = 0; i < slots; ++i)
+		{
+			mSlots[i] = new Slot(bufferSize);
+		}
+	}
+
+
+	/**
+	 * Serialize a node into the next slot. This method can be called from any thread. It waits if all slots are waiting to be written.
+	 * 
+	 * @param node
+	 *            The node to add.
+	 * @return This XmlPipeline instance.
+	 * @throws InvalidStateException
+	 *             if this pipeline has not been written yet or {@link #finish()} has been called.
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 *             if the node is invalid, e.g. because it uses a namespace that is not bound.
+	 */
+	public XmlPipeline add(XmlAbstractNode node) throws InvalidStateException, IOException, InvalidValueException
+	{
+		XmlNamespaceRegistry namespaces = mNamespaces;
+		if (namespaces == null)
+		{
+			throw new InvalidStateException("can not add node - pipeline has not been written yet");
+		}
+
+		// claim a sequence number
+		long sequence;
+		do
+		{
+			sequence = mClaimed.get();
+			if ((sequence & FINISHED) != 0)
+			{
+				throw new InvalidStateException("can not add node - pipeline has been finished");
+			}
+		} while (!mClaimed.compareAndSet(sequence, sequence + 1));
+
+		// wait for the slot to be released by the writer
+		final Slot[] slots = mSlots;
+		final Thread current = Thread.currentThread();
+		final boolean isOwner = current == mOwner;
+		while (mWritten <= sequence - slots.length)
+		{
+			if (isOwner && mWriter.compareAndSet(null, current))
+			{
+				// nobody drains the pipeline, write the ready slots now
+				try
+				{
+					long written = mWritten;
+					if (writeReady() == written)
+					{
+						// no progress, wait for the next slot, check again after announcing it to avoid missing a wake-up
+						mWaitingWriter = current;
+						if (slots[(int) (written % slots.length)].published != written)
+						{
+							LockSupport.parkNanos(PARK_NANOS);
+						}
+						mWaitingWriter = null;
+					}
+				}
+				finally
+				{
+					mWriter.set(null);
+				}
+			}
+			else
+			{
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		}
+
+		Slot slot = slots[(int) (sequence % slots.length)];
+		slot.buffer.reset();
+		slot.error = null;
+		if (slot.namespaceRegistry == null)
+		{
+			slot.namespaceRegistry = namespaces.fork(getDepth());
+		}
+		try
+		{
+			node.setDepth(getDepth());
+			node.setNamespaceRegistry(slot.namespaceRegistry);
+			node.open(slot.buffer);
+			node.close();
+		}
+		catch (IOException e)
+		{
+			slot.error = e;
+			throw e;
+		}
+		catch (InvalidStateException e)
+		{
+			slot.error = e;
+			throw e;
+		}
+		catch (InvalidValueException e)
+		{
+			slot.error = e;
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			slot.error = e;
+			throw e;
+		}
+		finally
+		{
+			publish(slot, sequence);
+		}
+		return this;
+	}
+
+
+	/**
+	 * Indicate that no more nodes will be added. This method can be called from any thread.
+	 */
+	public void finish()
+	{
+		long claimed;
+		do
+		{
+			claimed = mClaimed.get();
+		} while ((claimed & FINISHED) == 0 && !mClaimed.compareAndSet(claimed, claimed | FINISHED));
+		wakeWriter();
+	}
+
+
+	/**
+	 * Write the slots until {@link #finish()} has been called and all claimed slots have been written. Call this from one dedicated I/O thread to write
+	 * the nodes while the producers are still serializing. The pipeline must have been written already. Closing the pipeline waits for this method to
+	 * return. If the pipeline has been closed in the meantime there is nothing left to do and this method returns immediately.
+	 * 
+	 * @throws InvalidStateException
+	 *             if this pipeline has not been written yet or a node failed with an {@link InvalidStateException}.
+	 * @throws IOException
+	 *             if writing failed, if a node failed with an {@link IOException} or if the thread has been interrupted.
+	 * @throws InvalidValueException
+	 *             if a node failed with an {@link InvalidValueException}.
+	 */
+	public void drain() throws IOException, InvalidStateException, InvalidValueException
+	{
+		if (mNamespaces == null)
+		{
+			throw new InvalidStateException("can not drain pipeline - it has not been written yet");
+		}
+
+		// take over the writes, the owner may write ready slots right now, but it won't keep them for longer than one park interval
+		final Thread current = Thread.currentThread();
+		while (!mWriter.compareAndSet(null, current))
+		{
+			if (mDone)
+			{
+				return;
+			}
+			LockSupport.parkNanos(PARK_NANOS);
+			if (Thread.interrupted())
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting to drain the pipeline");
+			}
+		}
+
+		try
+		{
+			writeAll();
+		}
+		catch (InterruptedIOException e)
+		{
+			// let the closing thread write the rest
+			mWriter.set(null);
+			LockSupport.unpark(mOwner);
+			throw e;
+		}
+		mDone = true;
+		LockSupport.unpark(mOwner);
+		throwError();
+	}
+
+
+	private void publish(Slot slot, long sequence)
+	{
+		slot.published = sequence;
+		wakeWriter();
+	}
+
+
+	private void wakeWriter()
+	{
+		Thread writer = mWaitingWriter;
+		if (writer != null)
+		{
+			LockSupport.unpark(writer);
+		}
+	}
+
+
+	/**
+	 * Write all published slots in sequence order and release them. Only the thread in {@link #mWriter} calls this.
+	 * 
+	 * @return The sequence number of the next slot to write.
+	 */
+	private long writeReady()
+	{
+		final Slot[] slots = mSlots;
+		long next = mWritten;
+		Slot slot;
+		while ((slot = slots[(int) (next % slots.length)]).published == next)
+		{
+			if (slot.error != null)
+			{
+				// keep releasing slots, so no producer waits forever, but don't write anything after a failed node
+				if (mError == null)
+				{
+					mError = slot.error;
+				}
+			}
+			else if (mError == null)
+			{
+				try
+				{
+					slot.buffer.writeTo(mOut);
+				}
+				catch (IOException e)
+				{
+					mError = e;
+				}
+			}
+			mWritten = ++next;
+		}
+		return next;
+	}
+
+
+	@Override
+	void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+	{
+		mNamespaceRegistry = namespaceRegistry;
+	}
+
+
+	@Override
+	void open(Writer out) throws InvalidStateException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("can not open pipeline - it's already open!");
+		}
+		mOut = out;
+		mOwner = Thread.currentThread();
+		state = STATE_START_TAG_CLOSED;
+		// the registry is not thread-safe, create a copy on this thread
+		mNamespaces = mNamespaceRegistry.fork(getDepth());
+	}
+
+
+	@Override
+	void close() throws IOException, InvalidStateException, InvalidValueException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("can not close pipeline - it's not open!");
+		}
+
+		final Thread current = Thread.currentThread();
+		while (!mDone)
+		{
+			if (mWriter.compareAndSet(null, current))
+			{
+				// nobody drains the pipeline, write the slots on this thread
+				writeAll();
+				mDone = true;
+				break;
+			}
+
+			// another thread drains the pipeline, it wakes us up when it's done
+			LockSupport.parkNanos(PARK_NANOS);
+			if (Thread.interrupted())
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for the pipeline to be drained");
+			}
+		}
+
+		state = STATE_CLOSED;
+		throwError();
+	}
+
+
+	/**
+	 * Write the slots until {@link #finish()} has been called and all claimed slots have been written. Only the thread in {@link #mWriter} calls this.
+	 */
+	private void writeAll() throws InterruptedIOException
+	{
+		final Slot[] slots = mSlots;
+		final Thread current = Thread.currentThread();
+		while (true)
+		{
+			long next = writeReady();
+			long claimed = mClaimed.get();
+			if ((claimed & FINISHED) != 0 && next == (claimed & ~FINISHED))
+			{
+				return;
+			}
+
+			// wait for the next slot, check again after announcing it to avoid missing a wake-up
+			mWaitingWriter = current;
+			claimed = mClaimed.get();
+			if (slots[(int) (next % slots.length)].published != next && ((claimed & FINISHED) == 0 || next != (claimed & ~FINISHED)))
+			{
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+			mWaitingWriter = null;
+			if (Thread.interrupted())
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for nodes");
+			}
+		}
+	}
+
+
+	/**
+	 * Throw the first error that occurred while writing the slots, if any.
+	 */
+	private void throwError() throws IOException, InvalidStateException, InvalidValueException
+	{
+		final Exception error = mError;
+		if (error instanceof IOException)
+		{
+			throw (IOException) error;
+		}
+		if (error instanceof InvalidStateException)
+		{
+			throw (InvalidStateException) error;
+		}
+		if (error instanceof InvalidValueException)
+		{
+			throw (InvalidValueException) error;
+		}
+		if (error != null)
+		{
+			throw (RuntimeException) error;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * An {@link XmlAttribute} with a numeric or boolean value.
+ * <p>
+ * The value is written straight to the output without converting it to a {@link String} first and without scanning it for characters that need to be
+ * encoded. The {@link #value} field of these attributes is always {@code null}.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlPrimitiveAttribute extends XmlAttribute
+{
+	/**
+	 * The type of the value, one of {@link XmlUtils#PRIMITIVE_LONG}, {@link XmlUtils#PRIMITIVE_DOUBLE} or {@link XmlUtils#PRIMITIVE_BOOLEAN}.
+	 */
+	private final int mType;
+
+	/**
+	 * The bits of the value as described in {@link XmlUtils#writePrimitive(Writer, int, long)}.
+	 */
+	private final long mBits;
+
+
+	/**
+	 * Constructor for an attribute without namespace and a long value.
+	 * 
+	 * @param name
+	 *            A @{link String} with the attribute's name.
+	 * @param value
+	 *            The attribute's value.
+	 */
+	public XmlPrimitiveAttribute(String name, long value)
+	{
+		this(null, name, value);
+	}
+
+
+	/**
+	 * Constructor for an attribute with namespace and a long value.
+	 * 
+	 * @param namespace
+	 *            A @{link String} containing the attribute's namespace.
+	 * @param name
+	 *            A @{link String} containing the attribute's name.
+	 * @param value
+	 *            The attribute's value.
+	 */
+	public XmlPrimitiveAttribute(String namespace, String name, long value)
+	{
+		super(namespace, name, null);
+		mType = XmlUtils.PRIMITIVE_LONG;
+		mBits = value;
+	}
+
+
+	/**
+	 * Constructor for an attribute without namespace and a double value.
+	 * 
+	 * @param name
+	 *            A @{link String} with the attribute's name.
+	 * @param value
+	 *            The attribute's value.
+	 */
+	public XmlPrimitiveAttribute(String name, double value)
+	{
+		this(null, name, value);
+	}
+
+
+	/**
+	 * Constructor for an attribute with namespace and a double value.
+	 * 
+	 * @param namespace
+	 *            A @{link String} containing the attribute's namespace.
+	 * @param name
+	 *            A @{link String} containing the attribute's name.
+	 * @param value
+	 *            The attribute's value.
+	 */
+	public XmlPrimitiveAttribute(String namespace, String name, double value)
+	{
+		super(namespace, name, null);
+		mType = XmlUtils.PRIMITIVE_DOUBLE;
+		mBits = Double.doubleToRawLongBits(value);
+	}
+
+
+	/**
+	 * Constructor for an attribute without namespace and a boolean value.
+	 * 
+	 * @param name
+	 *            A @{link String} with the attribute's name.
+	 * @param value
+	 *            The attribute's value.
+	 */
+	public XmlPrimitiveAttribute(String name, boolean value)
+	{
+		this(null, name, value);
+	}
+
+
+	/**
+	 * Constructor for an attribute with namespace and a boolean value.
+	 * 
+	 * @param namespace
+	 *            A @{link String} containing the attribute's namespace.
+	 * @param name
+	 *            A @{link String} containing the attribute's name.
+	 * @param value
+	 *            The attribute's value.
+	 */
+	public XmlPrimitiveAttribute(String namespace, String name, boolean value)
+	{
+		super(namespace, name, null);
+		mType = XmlUtils.PRIMITIVE_BOOLEAN;
+		mBits = value ? 1 : 0;
+	}
+
+
+	@Override
+	void writeValue(Writer out, int policy) throws IOException
+	{
+		XmlUtils.writePrimitive(out, mType, mBits);
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * A text node with a numeric or boolean value.
+ * <p>
+ * The value is written straight to the output without converting it to a {@link String} first and without scanning it for characters that need to be
+ * encoded.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlPrimitiveText extends XmlAbstractNode
+{
+	/**
+	 * The type of the value, one of {@link XmlUtils#PRIMITIVE_LONG}, {@link XmlUtils#PRIMITIVE_DOUBLE} or {@link XmlUtils#PRIMITIVE_BOOLEAN}.
+	 */
+	private final int mType;
+
+	/**
+	 * The bits of the value as described in {@link XmlUtils#writePrimitive(Writer, int, long)}.
+	 */
+	private final long mBits;
+
+
+	/**
+	 * Constructor for a text node with a long value.
+	 * 
+	 * @param value
+	 *            The value of the node.
+	 */
+	public XmlPrimitiveText(long value)
+	{
+		mType = XmlUtils.PRIMITIVE_LONG;
+		mBits = value;
+	}
+
+
+	/**
+	 * Constructor for a text node with a double value.
+	 * 
+	 * @param value
+	 *            The value of the node.
+	 */
+	public XmlPrimitiveText(double value)
+	{
+		mType = XmlUtils.PRIMITIVE_DOUBLE;
+		mBits = Double.doubleToRawLongBits(value);
+	}
+
+
+	/**
+	 * Constructor for a text node with a boolean value.
+	 * 
+	 * @param value
+	 *            The value of the node.
+	 */
+	public XmlPrimitiveText(boolean value)
+	{
+		mType = XmlUtils.PRIMITIVE_BOOLEAN;
+		mBits = value ? 1 : 0;
+	}
+
+
+	@Override
+	final void open(Writer out) throws InvalidStateException, IOException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("Can not open text node - it's already open!");
+		}
+		state = STATE_START_TAG_CLOSED;
+		XmlUtils.writePrimitive(out, mType, mBits);
+	}
+
+
+	@Override
+	final void close() throws InvalidStateException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("Can not close text node - it's not open!");
+		}
+		state = STATE_CLOSED;
+	}
+
+
+	@Override
+	final void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+	{
+		// nothing to do
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+
+
+/**
+ * A pull based source of encoded XML. Each call to {@link #next()} produces just enough child nodes to fill one buffer, so the consumer controls the pace
+ * and nothing is buffered ahead of demand. This is the building block for reactive outputs: a publisher serves each requested item by calling
+ * {@link #next()} once.
+ * <p>
+ * For example, a {@code java.util.concurrent.Flow.Subscription} can be implemented like this (omitting error handling and reentrancy):
+ * </p>
+ * 
+ * <pre>
+ * public void request(long n)
+ * {
+ * 	while (n-- &gt; 0 &amp;&amp; !done)
+ * 	{
+ * 		ByteBuffer buffer = source.next();
+ * 		if (buffer == null)
+ * 		{
+ * 			done = true;
+ * 			subscriber.onComplete();
+ * 		}
+ * 		else
+ * 		{
+ * 			subscriber.onNext(buffer);
+ * 		}
+ * 	}
+ * }
+ * </pre>
+ * 
+ * Instances are not thread-safe.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlPullSource
+{
+	/**
+	 * A channel that copies bytes into a {@link ByteBuffer}.
+	 */
+	private final static class BufferChannel implements WritableByteChannel
+	{
+		ByteBuffer target;
+
+
+		public int write(ByteBuffer src)
+		{
+			int len = Math.min(src.remaining(), target.remaining());
+			int limit = src.limit();
+			src.limit(src.position() + len);
+			target.put(src);
+			src.limit(limit);
+			return len;
+		}
+
+
+		public boolean isOpen()
+		{
+			return true;
+		}
+
+
+		public void close()
+		{
+		}
+	}
+
+	/**
+	 * The root element of the document.
+	 */
+	private final XmlElement mRoot;
+
+	/**
+	 * The children of the root element.
+	 */
+	private final Iterator<? extends XmlAbstractNode> mChildren;
+
+	/**
+	 * The size of the buffers returned by {@link #next()}.
+	 */
+	private final int mBufferSize;
+
+	/**
+	 * The output that receives the encoded XML.
+	 */
+	private final XmlNonBlockingOutput mOutput;
+
+	/**
+	 * The serializer.
+	 */
+	private final XmlSerializer mSerializer;
+
+	/**
+	 * The channel to drain {@link #mOutput}.
+	 */
+	private final BufferChannel mChannel = new BufferChannel();
+
+	/**
+	 * Indicates whether the document has been started.
+	 */
+	private boolean mStarted;
+
+	/**
+	 * Indicates whether the document has been finished.
+	 */
+	private boolean mFinished;
+
+
+	/**
+	 * Create a source for a document with the given root element and children.
+	 * 
+	 * @param root
+	 *            The root element. Use {@link #getSerializer()} to register namespaces or set options before the first call to {@link #next()}.
+	 * @param children
+	 *            An {@link Iterator} of the children of the root element. It's advanced only as far as needed to fill the requested buffers.
+	 * @param bufferSize
+	 *            The maximum size of the buffers returned by {@link #next()}.
+	 */
+	public XmlPullSource(XmlElement root, Iterator<? extends XmlAbstractNode> children, int bufferSize)
+	{
+		if (bufferSize <= 0)
+		{
+			throw new IllegalArgumentException("bufferSize must be greater than 0");
+		}
+		mRoot = root;
+		mChildren = children;
+		mBufferSize = bufferSize;
+		mOutput = new XmlNonBlockingOutput(bufferSize);
+		mSerializer = new XmlSerializer(mOutput);
+	}
+
+
+	/**
+	 * Returns the {@link XmlSerializer} of this source.
+	 * 
+	 * @return The {@link XmlSerializer}.
+	 */
+	public XmlSerializer getSerializer()
+	{
+		return mSerializer;
+	}
+
+
+	/**
+	 * Produce the next buffer of encoded XML.
+	 * 
+	 * @return A new {@link ByteBuffer} with at most the configured number of bytes, ready to be read, or {@code null} if the document is complete.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 * @throws InvalidValueException
+	 */
+	public ByteBuffer next() throws IOException, InvalidStateException, InvalidValueException
+	{
+		final XmlNonBlockingOutput output = mOutput;
+		if (!mStarted)
+		{
+			mStarted = true;
+			mSerializer.serialize(mRoot);
+		}
+
+		while (!mFinished && output.buffered() < mBufferSize)
+		{
+			if (mChildren.hasNext())
+			{
+				mRoot.add(mChildren.next());
+			}
+			else
+			{
+				mSerializer.close();
+				mFinished = true;
+			}
+			// hand the bytes of the node to the output, so they are counted
+			mSerializer.flush();
+		}
+
+		int size = Math.min(output.buffered(), mBufferSize);
+		if (size == 0)
+		{
+			return null;
+		}
+		ByteBuffer result = ByteBuffer.allocate(size);
+		mChannel.target = result;
+		output.drainTo(mChannel);
+		mChannel.target = null;
+		result.flip();
+		return result;
+	}
+}
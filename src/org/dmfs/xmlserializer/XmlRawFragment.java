@@ -0,0 +1,310 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+
+/**
+ * A node that contains pre-serialized XML which is written verbatim.
+ * <p>
+ * The content is neither validated nor encoded, so it must be well-formed XML content that doesn't use any namespace prefixes that are not defined within the
+ * content itself. Binary content is expected to be UTF-8 encoded.
+ * </p>
+ * <p>
+ * If the serializer writes to an {@link java.io.OutputStream} (see {@link XmlSerializer#XmlSerializer(java.io.OutputStream)}) binary content is copied
+ * directly to the stream, {@link FileChannel} regions are transferred using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ * Otherwise binary content is decoded in chunks.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlRawFragment extends XmlAbstractNode
+{
+	/**
+	 * The size of the chunks used to decode binary content.
+	 */
+	private final static int CHUNK_SIZE = 4096;
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The content if it's a {@link String}, otherwise {@code null}.
+	 */
+	private final String mString;
+
+	/**
+	 * The content if it's a char array, otherwise {@code null}.
+	 */
+	private final char[] mChars;
+
+	/**
+	 * The content if it's a {@link ByteBuffer}, otherwise {@code null}.
+	 */
+	private final ByteBuffer mBytes;
+
+	/**
+	 * The content if it's a {@link FileChannel}, otherwise {@code null}.
+	 */
+	private final FileChannel mChannel;
+
+	/**
+	 * The offset of the content in {@link #mChars} or {@link #mChannel}.
+	 */
+	private final long mOffset;
+
+	/**
+	 * The length of the content in {@link #mChars} or {@link #mChannel}.
+	 */
+	private final long mLength;
+
+
+	/**
+	 * Create a raw fragment from a {@link String}.
+	 * 
+	 * @param content
+	 *            The raw XML.
+	 */
+	public XmlRawFragment(String content)
+	{
+		this(content, null, 0, content.length(), null, null);
+	}
+
+
+	/**
+	 * Create a raw fragment from a char array.
+	 * 
+	 * @param content
+	 *            The raw XML.
+	 */
+	public XmlRawFragment(char[] content)
+	{
+		this(content, 0, content.length);
+	}
+
+
+	/**
+	 * Create a raw fragment from a part of a char array. The array is not copied, so don't modify it until the fragment has been written.
+	 * 
+	 * @param content
+	 *            The raw XML.
+	 * @param offset
+	 *            The offset of the first character.
+	 * @param length
+	 *            The number of characters.
+	 */
+	public XmlRawFragment(char[] content, int offset, int length)
+	{
+		this(null, content, offset, length, null, null);
+		if (offset < 0 || length < 0 || offset + length > content.length)
+		{
+			throw new IndexOutOfBoundsException("invalid offset or length");
+		}
+	}
+
+
+	/**
+	 * Create a raw fragment from the remaining UTF-8 bytes of a {@link ByteBuffer}. The position of the buffer is not changed, so the same buffer can be
+	 * written any number of times. Don't modify its content until the fragment has been written.
+	 * 
+	 * @param content
+	 *            The raw XML in UTF-8.
+	 */
+	public XmlRawFragment(ByteBuffer content)
+	{
+		this(null, null, 0, content.remaining(), content, null);
+	}
+
+
+	/**
+	 * Create a raw fragment from a region of a {@link FileChannel} that contains UTF-8 encoded XML. The position of the channel is not changed.
+	 * 
+	 * @param channel
+	 *            The {@link FileChannel}.
+	 * @param position
+	 *            The position of the first byte.
+	 * @param count
+	 *            The number of bytes.
+	 */
+	public XmlRawFragment(FileChannel channel, long position, long count)
+	{
+		this(null, null, position, count, null, channel);
+		if (position < 0 || count < 0)
+		{
+			throw new IllegalArgumentException("invalid position or count");
+		}
+	}
+
+
+	private XmlRawFragment(String string, char[] chars, long offset, long length, ByteBuffer bytes, FileChannel channel)
+	{
+		mString = string;
+		mChars = chars;
+		mOffset = offset;
+		mLength = length;
+		mBytes = bytes;
+		mChannel = channel;
+	}
+
+
+	@Override
+	void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+	{
+		// nothing to do
+	}
+
+
+	@Override
+	void open(Writer out) throws IOException, InvalidStateException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("Can not open raw fragment - it's already open!");
+		}
+		state = STATE_START_TAG_CLOSED;
+
+		if (mString != null)
+		{
+			out.write(mString);
+		}
+		else if (mChars != null)
+		{
+			out.write(mChars, (int) mOffset, (int) mLength);
+		}
+		else if (mBytes != null)
+		{
+			if (out instanceof XmlUtf8Writer)
+			{
+				((XmlUtf8Writer) out).writeRaw(mBytes.duplicate());
+			}
+			else
+			{
+				decode(out, mBytes.duplicate());
+			}
+		}
+		else if (out instanceof XmlUtf8Writer)
+		{
+			((XmlUtf8Writer) out).transferFrom(mChannel, mOffset, mLength);
+		}
+		else
+		{
+			decode(out, mChannel, mOffset, mLength);
+		}
+	}
+
+
+	@Override
+	void close() throws InvalidStateException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("Can not close raw fragment - it's not open!");
+		}
+		state = STATE_CLOSED;
+	}
+
+
+	/**
+	 * Decode the remaining bytes of a {@link ByteBuffer} and write them to a {@link Writer}.
+	 */
+	private static void decode(Writer out, ByteBuffer bytes) throws IOException
+	{
+		CharsetDecoder decoder = newDecoder();
+		CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+		CoderResult result;
+		do
+		{
+			result = decoder.decode(bytes, chars, true);
+			drain(out, chars);
+		} while (result.isOverflow());
+
+		while (decoder.flush(chars).isOverflow())
+		{
+			drain(out, chars);
+		}
+		drain(out, chars);
+	}
+
+
+	/**
+	 * Read a region of a {@link FileChannel}, decode it in chunks and write the result to a {@link Writer}.
+	 */
+	private static void decode(Writer out, FileChannel channel, long position, long count) throws IOException
+	{
+		CharsetDecoder decoder = newDecoder();
+		ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(CHUNK_SIZE, Math.max(count, 1)));
+		CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+
+		while (count > 0)
+		{
+			bytes.limit((int) Math.min(bytes.capacity(), bytes.position() + count));
+			int read = channel.read(bytes, position);
+			if (read < 0)
+			{
+				throw new IOException("unexpected end of channel");
+			}
+			position += read;
+			count -= read;
+
+			bytes.flip();
+			CoderResult result;
+			do
+			{
+				result = decoder.decode(bytes, chars, count == 0);
+				drain(out, chars);
+			} while (result.isOverflow());
+			// keep incomplete sequences for the next round
+			bytes.compact();
+		}
+
+		while (decoder.flush(chars).isOverflow())
+		{
+			drain(out, chars);
+		}
+		drain(out, chars);
+	}
+
+
+	/**
+	 * Write the content of a {@link CharBuffer} to a {@link Writer} and clear the buffer.
+	 */
+	private static void drain(Writer out, CharBuffer chars) throws IOException
+	{
+		chars.flip();
+		out.write(chars.array(), chars.arrayOffset(), chars.remaining());
+		chars.clear();
+	}
+
+
+	private static CharsetDecoder newDecoder()
+	{
+		return UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A segment of children of an {@link XmlChildCollector}. Nodes that are added to a segment are encoded right away into a private buffer. Segments are not
+ * thread-safe, each segment must be filled by one thread at a time (which is what parallel streams do with the containers of a collector).
+ * <p>
+ * Adding nodes never throws. If a node can't be encoded, the segment drops all further nodes and {@link XmlChildCollector#write(XmlSegment)} throws the
+ * error.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlSegment
+{
+	/**
+	 * The initial size of the buffer of a segment.
+	 */
+	private final static int BUFFER_SIZE = 1024;
+
+	/**
+	 * The {@link XmlChildCollector} this segment belongs to.
+	 */
+	private final XmlChildCollector mCollector;
+
+	/**
+	 * The buffers of this segment in encounter order. Appending a segment adds its buffers without copying them.
+	 */
+	private List<XmlCharBuffer> mParts = new ArrayList<XmlCharBuffer>(4);
+
+	/**
+	 * The forks of the {@link XmlNamespaceRegistry} the nodes of this segment have been encoded with.
+	 */
+	private List<XmlNamespaceRegistry> mForks = new ArrayList<XmlNamespaceRegistry>(4);
+
+	/**
+	 * The fork this segment encodes its nodes with or {@code null} if no node has been added yet.
+	 */
+	private XmlNamespaceRegistry mNamespaces;
+
+	/**
+	 * The first error that occurred in this segment or in a segment that has been appended.
+	 */
+	private Exception mError;
+
+
+	/**
+	 * Create a new segment. Use {@link XmlChildCollector#newSegment()} to get one.
+	 */
+	XmlSegment(XmlChildCollector collector)
+	{
+		mCollector = collector;
+	}
+
+
+	/**
+	 * Encode a node and append it to this segment. Nothing is added if this segment has failed before.
+	 * 
+	 * @param node
+	 *            The node to add.
+	 * @return This XmlSegment instance.
+	 */
+	public XmlSegment add(XmlAbstractNode node)
+	{
+		if (mError != null)
+		{
+			return this;
+		}
+
+		try
+		{
+			if (mNamespaces == null)
+			{
+				mNamespaces = mCollector.fork();
+				mForks.add(mNamespaces);
+			}
+			if (mParts.isEmpty())
+			{
+				mParts.add(new XmlCharBuffer(BUFFER_SIZE));
+			}
+			node.setDepth(mCollector.getDepth());
+			node.setNamespaceRegistry(mNamespaces);
+			node.open(mParts.get(mParts.size() - 1));
+			node.close();
+		}
+		catch (IOException e)
+		{
+			mError = e;
+		}
+		catch (InvalidStateException e)
+		{
+			mError = e;
+		}
+		catch (InvalidValueException e)
+		{
+			mError = e;
+		}
+		return this;
+	}
+
+
+	/**
+	 * Append the nodes of another segment of the same collector to this one. The other segment is empty afterwards.
+	 * 
+	 * @param segment
+	 *            The {@link XmlSegment} that follows this one in encounter order.
+	 * @return This XmlSegment instance.
+	 */
+	public XmlSegment append(XmlSegment segment)
+	{
+		if (segment.mCollector != mCollector)
+		{
+			throw new IllegalArgumentException("segment belongs to another collector");
+		}
+		if (mError == null)
+		{
+			mError = segment.mError;
+		}
+		mParts.addAll(segment.mParts);
+		mForks.addAll(segment.mForks);
+		segment.clear();
+		return this;
+	}
+
+
+	/**
+	 * Returns the {@link XmlChildCollector} this segment belongs to.
+	 */
+	XmlChildCollector collector()
+	{
+		return mCollector;
+	}
+
+
+	/**
+	 * Returns the first error of this segment or {@code null} if there was none.
+	 */
+	Exception error()
+	{
+		return mError;
+	}
+
+
+	/**
+	 * Returns the buffers of this segment in encounter order.
+	 */
+	List<XmlCharBuffer> parts()
+	{
+		return mParts;
+	}
+
+
+	/**
+	 * Returns the forks of the {@link XmlNamespaceRegistry} the nodes of this segment have been encoded with.
+	 */
+	List<XmlNamespaceRegistry> forks()
+	{
+		return mForks;
+	}
+
+
+	/**
+	 * Remove all nodes and errors from this segment.
+	 */
+	void clear()
+	{
+		mParts = new ArrayList<XmlCharBuffer>(4);
+		mForks = new ArrayList<XmlNamespaceRegistry>(4);
+		mNamespaces = null;
+		mError = null;
+	}
+}
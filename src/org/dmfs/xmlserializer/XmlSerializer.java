@@ -22,7 +22,11 @@
 package org.dmfs.xmlserializer;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -39,6 +43,26 @@ public final class XmlSerializer
 	 */
 	private final static String XML_PREFIX = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
 
+	/**
+	 * Write characters that are invalid in XML 1.0 as they are. This is the default.
+	 */
+	public final static int INVALID_CHARS_IGNORE = 0;
+
+	/**
+	 * Throw an {@link InvalidCharacterException} when a character that is invalid in XML 1.0 is written.
+	 */
+	public final static int INVALID_CHARS_REJECT = 1;
+
+	/**
+	 * Replace characters that are invalid in XML 1.0 by U+FFFD.
+	 */
+	public final static int INVALID_CHARS_REPLACE = 2;
+
+	/**
+	 * Drop characters that are invalid in XML 1.0.
+	 */
+	public final static int INVALID_CHARS_STRIP = 3;
+
 	/**
 	 * The XML root node.
 	 */
@@ -54,6 +78,11 @@ public final class XmlSerializer
 	 */
 	private final XmlNamespaceRegistry mNamespaceRegistry = new XmlNamespaceRegistry();
 
+	/**
+	 * The {@link XmlNodePool} of this serializer or {@code null} if pooling is disabled.
+	 */
+	private XmlNodePool mNodePool;
+
 
 	/**
 	 * Construct a new serializer that writes to {@code out}.
@@ -67,6 +96,39 @@ public final class XmlSerializer
 	}
 
 
+	/**
+	 * Construct a new serializer that writes UTF-8 encoded XML to {@code out}.
+	 * <p>
+	 * The output is buffered, it's flushed when {@link #close()} is called. Pre-serialized binary content (see {@link XmlRawFragment}) is copied to the stream
+	 * without decoding it.
+	 * </p>
+	 * 
+	 * @param out
+	 *            The {@link OutputStream} to write to.
+	 */
+	public XmlSerializer(OutputStream out)
+	{
+		mOut = new XmlUtf8Writer(out);
+	}
+
+
+	/**
+	 * Construct a new serializer that writes UTF-8 encoded XML to a {@link WritableByteChannel} in blocking mode.
+	 * <p>
+	 * The output is buffered in a fixed size buffer that is handed off to the channel whenever it's full and when {@link #close()} is called. No monitor is
+	 * held while writing to the channel, so blocking writes don't pin the calling thread to any lock (which matters for lightweight threads that are parked
+	 * on blocking I/O). Whether the channel itself uses monitors is up to the channel implementation.
+	 * </p>
+	 * 
+	 * @param out
+	 *            The {@link WritableByteChannel} to write to.
+	 */
+	public XmlSerializer(WritableByteChannel out)
+	{
+		mOut = new XmlUtf8Writer(out);
+	}
+
+
 	/**
 	 * Start the serializer.
 	 * 
@@ -101,7 +163,7 @@ public final class XmlSerializer
 
 
 	/**
-	 * Finish serialization, closing all open elements.
+	 * Finish serialization, closing all open elements and flushing the output.
 	 * 
 	 * @throws InvalidStateException
 	 * @throws IOException
@@ -111,6 +173,18 @@ public final class XmlSerializer
 	{
 		mRootNode.close();
 		mNamespaceRegistry.clear();
+		mOut.flush();
+	}
+
+
+	/**
+	 * Flush everything that has been written so far to the output. Open elements stay open, so the document can be continued.
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException
+	{
+		mOut.flush();
 	}
 
 
@@ -129,4 +203,134 @@ public final class XmlSerializer
 	{
 		mNamespaceRegistry.getNamespace(namespace);
 	}
+
+
+	/**
+	 * Set how characters that are not allowed in XML 1.0 are handled. These are control characters other than tab, line feed and carriage return, unpaired
+	 * surrogates, U+FFFE and U+FFFF.
+	 * <p>
+	 * The characters are checked in the same pass that replaces special characters by entities, so valid text costs nothing extra. The policy applies to text
+	 * nodes, CDATA sections and attribute values. Values of {@link XmlConstantAttribute}s, {@link XmlConstantElement}s and the static parts of templates are
+	 * encoded before they meet a serializer, so they are not checked.
+	 * </p>
+	 * 
+	 * @param policy
+	 *            One of {@link #INVALID_CHARS_IGNORE}, {@link #INVALID_CHARS_REJECT}, {@link #INVALID_CHARS_REPLACE} or {@link #INVALID_CHARS_STRIP}.
+	 */
+	public void setInvalidCharacterPolicy(int policy)
+	{
+		if (policy < INVALID_CHARS_IGNORE || policy > INVALID_CHARS_STRIP)
+		{
+			throw new IllegalArgumentException("invalid policy " + policy);
+		}
+		mNamespaceRegistry.setInvalidCharacterPolicy(policy);
+	}
+
+
+	/**
+	 * Escape large texts in parallel. Text values of {@link XmlText} nodes (including streamed text from {@link Reader}s) that are at least
+	 * {@code threshold} characters long are split into chunks that are escaped by {@code executor} and written in order. The output is identical to
+	 * sequential escaping.
+	 * <p>
+	 * Splitting the text, dispatching the chunks and copying the results costs some time, so this only pays off for really large texts on a machine with
+	 * several idle cores. Run {@code TextEscapingBenchmark} to find the crossover on your hardware, typically it's in the range of a few hundred thousand
+	 * characters. Chunks that {@code executor} doesn't start in time are escaped by the serializing thread.
+	 * </p>
+	 * 
+	 * @param executor
+	 *            The {@link Executor} that escapes the chunks or {@code null} to escape all texts sequentially, which is the default.
+	 * @param threshold
+	 *            The minimum number of characters of a text to be escaped in parallel.
+	 */
+	public void setParallelTextEscaping(Executor executor, int threshold)
+	{
+		if (threshold < 1)
+		{
+			throw new IllegalArgumentException("invalid threshold " + threshold);
+		}
+		mNamespaceRegistry.setTextEscaper(executor == null ? null : new XmlParallelEscaper(executor, threshold));
+	}
+
+
+	/**
+	 * Enable or disable the validation of tag and attribute names for the entire process. Validation is enabled by default.
+	 * <p>
+	 * Valid names are cached, so each distinct name is checked only once. Disable validation only if all names come from a trusted source, e.g. constants in
+	 * your code.
+	 * </p>
+	 * 
+	 * @param enabled
+	 *            {@code true} to validate names, {@code false} to write them as they are.
+	 */
+	public static void setNameValidationEnabled(boolean enabled)
+	{
+		XmlNames.setEnabled(enabled);
+	}
+
+
+	/**
+	 * Enable pooling of nodes created by {@link #element(String, String)}, {@link #element(String)} and {@link #text(String)}.
+	 * <p>
+	 * Pooled nodes are reset and returned to the pool of this serializer as soon as they have been closed. Use this when streaming large documents to avoid
+	 * allocating a new object for every node. Don't keep any references to pooled nodes once they have been written, since they will be handed out again.
+	 * </p>
+	 * 
+	 * @param maxPoolSize
+	 *            The maximum number of free nodes to keep per node type.
+	 */
+	public void enableNodePool(int maxPoolSize)
+	{
+		mNodePool = new XmlNodePool(maxPoolSize);
+	}
+
+
+	/**
+	 * Get a new {@link XmlElement} with namespace. If pooling has been enabled with {@link #enableNodePool(int)} a recycled instance is returned if one is
+	 * available.
+	 * 
+	 * @param namespace
+	 *            A {@link String} containing the namespace of the element.
+	 * @param tagname
+	 *            A {@link String} containing the name of the element's tag.
+	 * @return A new {@link XmlElement}.
+	 */
+	public XmlElement element(String namespace, String tagname)
+	{
+		if (mNodePool == null)
+		{
+			return new XmlElement(namespace, tagname);
+		}
+		return mNodePool.obtainElement(namespace, tagname);
+	}
+
+
+	/**
+	 * Get a new {@link XmlElement} without namespace. If pooling has been enabled with {@link #enableNodePool(int)} a recycled instance is returned if one is
+	 * available.
+	 * 
+	 * @param tagname
+	 *            A {@link String} containing the name of the element's tag.
+	 * @return A new {@link XmlElement}.
+	 */
+	public XmlElement element(String tagname)
+	{
+		return element(null, tagname);
+	}
+
+
+	/**
+	 * Get a new {@link XmlText} node. If pooling has been enabled with {@link #enableNodePool(int)} a recycled instance is returned if one is available.
+	 * 
+	 * @param text
+	 *            The text of the node (may be {@code null}).
+	 * @return A new {@link XmlText}.
+	 */
+	public XmlText text(String text)
+	{
+		if (mNodePool == null)
+		{
+			return new XmlText(text);
+		}
+		return mNodePool.obtainText(text);
+	}
 }
@@ -0,0 +1,290 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A precompiled XML snippet with holes for text and attribute values.
+ * <p>
+ * A template is built from an ordinary {@link XmlElement} tree that contains {@link XmlTextHole}s and {@link XmlAttributeHole}s. All static markup is encoded
+ * once, when the template is created. To write the template, get a new {@link XmlTemplateInstance}, set the values of the holes and add the instance to an
+ * {@link XmlElement} like any other node. Rendering an instance just copies the static chunks and encodes the hole values.
+ * </p>
+ * <p>
+ * Namespace prefixes are resolved by the document the instance is added to. Namespaces that are not defined in the document yet are defined by the template
+ * root element (or its parent, if the parent's start tag is still open).
+ * </p>
+ * <p>
+ * Templates are immutable and can be shared among threads. The tree a template has been built from can't be serialized anymore.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlTemplate
+{
+	/**
+	 * A chunk of static markup.
+	 */
+	final static int PART_STATIC = 0;
+
+	/**
+	 * The prefix of an element namespace followed by a colon (if the namespace has a prefix).
+	 */
+	final static int PART_ELEMENT_PREFIX = 1;
+
+	/**
+	 * A default namespace definition, in case an element namespace has no prefix.
+	 */
+	final static int PART_DEFAULT_NAMESPACE = 2;
+
+	/**
+	 * The prefix of an attribute namespace followed by a colon (if the namespace has a prefix).
+	 */
+	final static int PART_ATTRIBUTE_PREFIX = 3;
+
+	/**
+	 * The namespace definitions of the template root element.
+	 */
+	final static int PART_NAMESPACE_DECLARATIONS = 4;
+
+	/**
+	 * The value of a text hole.
+	 */
+	final static int PART_TEXT_HOLE = 5;
+
+	/**
+	 * The value of an attribute hole.
+	 */
+	final static int PART_ATTRIBUTE_HOLE = 6;
+
+	/**
+	 * The types of all parts of this template.
+	 */
+	private final int[] mPartTypes;
+
+	/**
+	 * The chunks of static markup, indexed like {@link #mPartTypes}.
+	 */
+	private final char[][] mChunks;
+
+	/**
+	 * The namespaces of prefix parts, indexed like {@link #mPartTypes}.
+	 */
+	private final String[] mPartNamespaces;
+
+	/**
+	 * The hole indices of hole parts, indexed like {@link #mPartTypes}.
+	 */
+	private final int[] mPartHoles;
+
+	/**
+	 * All namespaces used in this template.
+	 */
+	private final String[] mNamespaces;
+
+	/**
+	 * Maps holes to their value index.
+	 */
+	private final Map<Object, Integer> mHoles;
+
+
+	/**
+	 * Create a template from an {@link XmlElement} tree.
+	 * 
+	 * @param root
+	 *            The root element of the template. Neither the root nor any of its children must have been opened yet.
+	 * @throws InvalidStateException
+	 *             if the tree has been opened already.
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 *             if the tree contains nodes that are not supported in templates.
+	 */
+	public XmlTemplate(XmlElement root) throws InvalidStateException, IOException, InvalidValueException
+	{
+		XmlTemplateCompiler compiler = new XmlTemplateCompiler();
+		root.compile(compiler);
+
+		List<Integer> types = new ArrayList<Integer>();
+		List<Object> values = new ArrayList<Object>();
+		compiler.getParts(types, values);
+
+		int count = types.size();
+		mPartTypes = new int[count];
+		mChunks = new char[count][];
+		mPartNamespaces = new String[count];
+		mPartHoles = new int[count];
+		for (int i = 0; i < count; ++i)
+		{
+			int type = types.get(i);
+			mPartTypes[i] = type;
+			switch (type)
+			{
+				case PART_STATIC:
+					mChunks[i] = (char[]) values.get(i);
+					break;
+				case PART_ELEMENT_PREFIX:
+				case PART_DEFAULT_NAMESPACE:
+				case PART_ATTRIBUTE_PREFIX:
+					mPartNamespaces[i] = (String) values.get(i);
+					break;
+				case PART_TEXT_HOLE:
+				case PART_ATTRIBUTE_HOLE:
+					mPartHoles[i] = (Integer) values.get(i);
+					break;
+			}
+		}
+
+		mNamespaces = compiler.getNamespaces().toArray(new String[0]);
+		mHoles = compiler.getHoles();
+	}
+
+
+	/**
+	 * Create a template from an {@link IXmlElementSerializable}.
+	 * 
+	 * @param root
+	 *            The root of the template.
+	 * @throws InvalidStateException
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 *             if the tree contains nodes that are not supported in templates.
+	 */
+	public XmlTemplate(IXmlElementSerializable root) throws InvalidStateException, IOException, InvalidValueException
+	{
+		this(new XmlElementSerializableAdapter(root));
+	}
+
+
+	/**
+	 * Get a new instance of this template. All holes are empty until their values are set.
+	 * 
+	 * @return A new {@link XmlTemplateInstance}.
+	 */
+	public XmlTemplateInstance newInstance()
+	{
+		return new XmlTemplateInstance(this, mHoles.size());
+	}
+
+
+	/**
+	 * Get the value index of a hole.
+	 * 
+	 * @param hole
+	 *            The hole.
+	 * @return The index of the hole.
+	 * @throws IllegalArgumentException
+	 *             if the hole is not part of this template.
+	 */
+	int holeIndex(Object hole)
+	{
+		Integer index = mHoles.get(hole);
+		if (index == null)
+		{
+			throw new IllegalArgumentException("hole is not part of this template");
+		}
+		return index;
+	}
+
+
+	/**
+	 * Register all namespaces of this template.
+	 * 
+	 * @param namespaceRegistry
+	 *            The {@link XmlNamespaceRegistry} of the document.
+	 * @throws InvalidValueException
+	 */
+	void registerNamespaces(XmlNamespaceRegistry namespaceRegistry) throws InvalidValueException
+	{
+		for (String namespace : mNamespaces)
+		{
+			namespaceRegistry.getNamespace(namespace);
+		}
+	}
+
+
+	/**
+	 * Render the template.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param namespaceRegistry
+	 *            The {@link XmlNamespaceRegistry} of the document.
+	 * @param depth
+	 *            The depth of the template root element in the document.
+	 * @param values
+	 *            The values of the holes.
+	 * @throws IOException
+	 * @throws InvalidValueException
+	 */
+	void render(Writer out, XmlNamespaceRegistry namespaceRegistry, int depth, String[] values) throws IOException, InvalidValueException
+	{
+		final int[] partTypes = mPartTypes;
+		final int count = partTypes.length;
+		for (int i = 0; i < count; ++i)
+		{
+			switch (partTypes[i])
+			{
+				case PART_STATIC:
+				{
+					char[] chunk = mChunks[i];
+					out.write(chunk, 0, chunk.length);
+					break;
+				}
+				case PART_ELEMENT_PREFIX:
+				case PART_ATTRIBUTE_PREFIX:
+				{
+					XmlNamespace ns = namespaceRegistry.getNamespace(mPartNamespaces[i]);
+					if (ns.hasPrefix)
+					{
+						ns.writePrefix(out);
+						out.write(':');
+					}
+					break;
+				}
+				case PART_DEFAULT_NAMESPACE:
+				{
+					XmlNamespace ns = namespaceRegistry.getNamespace(mPartNamespaces[i]);
+					if (!ns.hasPrefix)
+					{
+						out.write(' ');
+						ns.write(out);
+					}
+					break;
+				}
+				case PART_NAMESPACE_DECLARATIONS:
+					XmlElement.writeNamespaces(out, namespaceRegistry.getNamespaces(depth));
+					break;
+				case PART_TEXT_HOLE:
+				case PART_ATTRIBUTE_HOLE:
+					XmlUtils.writeXmlEntityEncodedString(out, values[mPartHoles[i]], namespaceRegistry.getInvalidCharacterPolicy());
+					break;
+			}
+		}
+		namespaceRegistry.clear(depth);
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Compiles an {@link XmlElement} tree into the parts of an {@link XmlTemplate}.
+ * <p>
+ * Static markup is collected into chunks. Namespace prefixes, namespace declarations and holes are kept as separate parts, since they are resolved when the
+ * template is rendered.
+ * </p>
+ * 
+ * For internal use only.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class XmlTemplateCompiler
+{
+	/**
+	 * The static markup collected since the last dynamic part.
+	 */
+	private final StringWriter mStatic = new StringWriter(256);
+
+	/**
+	 * The types of the parts, see the PART_* constants in {@link XmlTemplate}.
+	 */
+	private final List<Integer> mPartTypes = new ArrayList<Integer>();
+
+	/**
+	 * The values of the parts, either a char[] with static markup, a namespace {@link String} or the {@link Integer} index of a hole.
+	 */
+	private final List<Object> mPartValues = new ArrayList<Object>();
+
+	/**
+	 * All namespaces used in the template.
+	 */
+	private final Set<String> mNamespaces = new LinkedHashSet<String>();
+
+	/**
+	 * Maps holes to their value index.
+	 */
+	private final Map<Object, Integer> mHoles = new IdentityHashMap<Object, Integer>();
+
+	/**
+	 * The current element depth, relative to the template root.
+	 */
+	private int mDepth = 0;
+
+
+	/**
+	 * Write the start tag of an element, up to and excluding the attributes.
+	 * 
+	 * @param namespace
+	 *            The namespace of the element or {@code null}.
+	 * @param tagname
+	 *            The tag name of the element.
+	 */
+	void startElement(String namespace, String tagname)
+	{
+		mStatic.write('<');
+		if (namespace != null && namespace.length() > 0)
+		{
+			mNamespaces.add(namespace);
+			addPart(XmlTemplate.PART_ELEMENT_PREFIX, namespace);
+			mStatic.write(tagname);
+			addPart(XmlTemplate.PART_DEFAULT_NAMESPACE, namespace);
+		}
+		else
+		{
+			mStatic.write(tagname);
+		}
+		++mDepth;
+	}
+
+
+	/**
+	 * Write an attribute of the current element.
+	 * 
+	 * @param attr
+	 *            The {@link XmlAttribute} to write, may be an {@link XmlAttributeHole}.
+	 * @throws IOException
+	 */
+	void attribute(XmlAttribute attr) throws IOException
+	{
+		mStatic.write(' ');
+		if (attr.namespace != null && attr.namespace.length() > 0)
+		{
+			mNamespaces.add(attr.namespace);
+			addPart(XmlTemplate.PART_ATTRIBUTE_PREFIX, attr.namespace);
+		}
+		mStatic.write(attr.name);
+		mStatic.write("=\"");
+		if (attr instanceof XmlAttributeHole)
+		{
+			addPart(XmlTemplate.PART_ATTRIBUTE_HOLE, holeIndex(attr));
+		}
+		else
+		{
+			attr.writeValue(mStatic, XmlSerializer.INVALID_CHARS_IGNORE);
+		}
+		mStatic.write('"');
+	}
+
+
+	/**
+	 * Close the start tag of the current element.
+	 * 
+	 * @param empty
+	 *            {@code true} if the element has no children, in which case the element is closed as well.
+	 */
+	void closeStartTag(boolean empty)
+	{
+		if (mDepth == 1)
+		{
+			// all namespaces of the template are defined in the root element, unless they are defined in a parent already
+			addPart(XmlTemplate.PART_NAMESPACE_DECLARATIONS, null);
+		}
+		if (empty)
+		{
+			mStatic.write("/>");
+			--mDepth;
+		}
+		else
+		{
+			mStatic.write('>');
+		}
+	}
+
+
+	/**
+	 * Write the end tag of the current element.
+	 * 
+	 * @param namespace
+	 *            The namespace of the element or {@code null}.
+	 * @param tagname
+	 *            The tag name of the element.
+	 */
+	void endElement(String namespace, String tagname)
+	{
+		mStatic.write("</");
+		if (namespace != null && namespace.length() > 0)
+		{
+			addPart(XmlTemplate.PART_ELEMENT_PREFIX, namespace);
+		}
+		mStatic.write(tagname);
+		mStatic.write('>');
+		--mDepth;
+	}
+
+
+	/**
+	 * Write a child node that is not an {@link XmlElement}.
+	 * 
+	 * @param node
+	 *            The {@link XmlAbstractNode} to write.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 * @throws InvalidValueException
+	 *             if the node type is not supported in templates.
+	 */
+	void node(XmlAbstractNode node) throws IOException, InvalidStateException, InvalidValueException
+	{
+		if (node instanceof XmlTextHole)
+		{
+			addPart(XmlTemplate.PART_TEXT_HOLE, holeIndex(node));
+		}
+		else if (node instanceof XmlText || node instanceof XmlPrimitiveText || node instanceof XmlDateTimeText
+			|| node instanceof XmlCData || node instanceof XmlComment)
+		{
+			// these nodes don't use any namespaces, so we can just write them
+			node.open(mStatic);
+			node.close();
+		}
+		else
+		{
+			throw new InvalidValueException("unsupported node in template: " + node.getClass().getName());
+		}
+	}
+
+
+	/**
+	 * Return the parts collected so far. Must be called after the root element has been closed.
+	 * 
+	 * @param types
+	 *            A {@link List} that receives the part types.
+	 * @param values
+	 *            A {@link List} that receives the part values.
+	 */
+	void getParts(List<Integer> types, List<Object> values)
+	{
+		flushStatic();
+		types.addAll(mPartTypes);
+		values.addAll(mPartValues);
+	}
+
+
+	/**
+	 * Returns the namespaces used in the template.
+	 * 
+	 * @return A {@link Set} of namespaces.
+	 */
+	Set<String> getNamespaces()
+	{
+		return mNamespaces;
+	}
+
+
+	/**
+	 * Returns the holes of the template.
+	 * 
+	 * @return A {@link Map} of holes to their value index.
+	 */
+	Map<Object, Integer> getHoles()
+	{
+		return mHoles;
+	}
+
+
+	/**
+	 * Get the index of a hole, assigning a new one if the hole has not been seen before.
+	 */
+	private Integer holeIndex(Object hole)
+	{
+		Integer index = mHoles.get(hole);
+		if (index == null)
+		{
+			index = mHoles.size();
+			mHoles.put(hole, index);
+		}
+		return index;
+	}
+
+
+	/**
+	 * Add a dynamic part, flushing any pending static markup first.
+	 */
+	private void addPart(int type, Object value)
+	{
+		flushStatic();
+		mPartTypes.add(type);
+		mPartValues.add(value);
+	}
+
+
+	/**
+	 * Convert the pending static markup into a part.
+	 */
+	private void flushStatic()
+	{
+		StringBuffer buffer = mStatic.getBuffer();
+		int len = buffer.length();
+		if (len > 0)
+		{
+			char[] chunk = new char[len];
+			buffer.getChars(0, len, chunk, 0);
+			mPartTypes.add(XmlTemplate.PART_STATIC);
+			mPartValues.add(chunk);
+			buffer.setLength(0);
+		}
+	}
+}
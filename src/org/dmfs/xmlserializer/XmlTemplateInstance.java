@@ -0,0 +1,143 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * An instance of an {@link XmlTemplate} with values for its holes.
+ * <p>
+ * Add it to an {@link XmlElement} like any other node. Like other nodes an instance can be written only once.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlTemplateInstance extends XmlAbstractNode
+{
+	/**
+	 * The {@link XmlTemplate} of this instance.
+	 */
+	private final XmlTemplate mTemplate;
+
+	/**
+	 * The values of the holes.
+	 */
+	private final String[] mValues;
+
+	/**
+	 * The {@link XmlNamespaceRegistry} of this XML document.
+	 */
+	private XmlNamespaceRegistry mNamespaceRegistry;
+
+
+	/**
+	 * Constructor for a template instance, use {@link XmlTemplate#newInstance()} to get one.
+	 * 
+	 * @param template
+	 *            The {@link XmlTemplate}.
+	 * @param holeCount
+	 *            The number of holes in the template.
+	 */
+	XmlTemplateInstance(XmlTemplate template, int holeCount)
+	{
+		mTemplate = template;
+		mValues = new String[holeCount];
+	}
+
+
+	/**
+	 * Set the value of a text hole.
+	 * 
+	 * @param hole
+	 *            The {@link XmlTextHole}.
+	 * @param value
+	 *            The text value (may be {@code null}).
+	 * @return This XmlTemplateInstance.
+	 * @throws InvalidStateException
+	 *             if this instance has been written already.
+	 */
+	public XmlTemplateInstance set(XmlTextHole hole, String value) throws InvalidStateException
+	{
+		return setValue(hole, value);
+	}
+
+
+	/**
+	 * Set the value of an attribute hole.
+	 * 
+	 * @param hole
+	 *            The {@link XmlAttributeHole}.
+	 * @param value
+	 *            The attribute value (may be {@code null}, in which case the value will be empty).
+	 * @return This XmlTemplateInstance.
+	 * @throws InvalidStateException
+	 *             if this instance has been written already.
+	 */
+	public XmlTemplateInstance set(XmlAttributeHole hole, String value) throws InvalidStateException
+	{
+		return setValue(hole, value);
+	}
+
+
+	private XmlTemplateInstance setValue(Object hole, String value) throws InvalidStateException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("can not set value - template has been written already");
+		}
+		mValues[mTemplate.holeIndex(hole)] = value;
+		return this;
+	}
+
+
+	@Override
+	void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry) throws InvalidValueException
+	{
+		mNamespaceRegistry = namespaceRegistry;
+		mTemplate.registerNamespaces(namespaceRegistry);
+	}
+
+
+	@Override
+	void open(Writer out) throws IOException, InvalidStateException, InvalidValueException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("can not open template - it's already open!");
+		}
+		mTemplate.render(out, mNamespaceRegistry, getDepth(), mValues);
+		state = STATE_START_TAG_CLOSED;
+	}
+
+
+	@Override
+	void close() throws InvalidStateException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("can not close template - it's not open!");
+		}
+		state = STATE_CLOSED;
+	}
+}
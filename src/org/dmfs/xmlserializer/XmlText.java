@@ -22,7 +22,9 @@
 package org.dmfs.xmlserializer;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.io.Writer;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -40,15 +42,46 @@ public class XmlText extends XmlAbstractNode
 	private String mText;
 
 	/**
-	 * A {@link List} of {@link String}s containing the cached text of this node.
+	 * The size of the chunks used to stream text from {@link Reader}s and {@link CharSequence}s.
 	 */
-	private List<String> mTextList;
+	private final static int CHUNK_SIZE = 2048;
+
+	/**
+	 * A {@link List} containing the cached text of this node. Elements are {@link String}s, {@link CharSequence}s, {@link CharBuffer}s or {@link Reader}s.
+	 */
+	private List<Object> mTextList;
+
+	/**
+	 * A buffer for chunks of streamed text or {@code null} if none has been needed yet.
+	 */
+	private char[] mChunk;
 
 	/**
 	 * The writer to write to.
 	 */
 	private Writer mOut;
 
+	/**
+	 * The {@link XmlNodePool} this node is returned to when it has been closed or {@code null} if this node is not pooled.
+	 */
+	private XmlNodePool mPool;
+
+	/**
+	 * The policy for characters that are invalid in XML 1.0, taken from the document this node belongs to.
+	 */
+	private int mPolicy = XmlSerializer.INVALID_CHARS_IGNORE;
+
+	/**
+	 * The {@link XmlParallelEscaper} for large texts, taken from the document this node belongs to, or {@code null} to escape sequentially.
+	 */
+	private XmlParallelEscaper mEscaper;
+
+	/**
+	 * A high surrogate at the end of the text written so far or {@code 0} if there is none. It's held back until the next character shows whether it's part
+	 * of a surrogate pair, which may be split across several writes.
+	 */
+	private char mHighSurrogate;
+
 
 	/**
 	 * Constructor for an XmlText node.
@@ -73,29 +106,501 @@ public class XmlText extends XmlAbstractNode
 	 */
 	public XmlText add(String text) throws IOException, InvalidStateException
 	{
-		switch (state)
+		if (text != null && text.length() > 0)
 		{
-			case STATE_NEW:
-				if (text != null && text.length() > 0)
+			addContent(text);
+		}
+		else if (state == STATE_CLOSED)
+		{
+			throw new InvalidStateException("Can not add text - node already closed!");
+		}
+		return this;
+	}
+
+
+	/**
+	 * Add text from a {@link CharSequence} to this node. If the node has not been opened yet, the sequence is kept until the node is written, so don't modify
+	 * it in the meantime. Sequences other than {@link String}s are written in chunks.
+	 * 
+	 * @param text
+	 *            The text to append.
+	 * @return This XmlText instance.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 */
+	public XmlText add(CharSequence text) throws IOException, InvalidStateException
+	{
+		if (text != null && text.length() > 0)
+		{
+			addContent(text);
+		}
+		else if (state == STATE_CLOSED)
+		{
+			throw new InvalidStateException("Can not add text - node already closed!");
+		}
+		return this;
+	}
+
+
+	/**
+	 * Add a part of a char array to this node. If the node has not been opened yet, the array is kept until the node is written, so don't modify it in the
+	 * meantime.
+	 * 
+	 * @param text
+	 *            The text to append.
+	 * @param offset
+	 *            The offset of the first character.
+	 * @param length
+	 *            The number of characters.
+	 * @return This XmlText instance.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 */
+	public XmlText add(char[] text, int offset, int length) throws IOException, InvalidStateException
+	{
+		if (offset < 0 || length < 0 || offset + length > text.length)
+		{
+			throw new IndexOutOfBoundsException("invalid offset or length");
+		}
+
+		if (length > 0)
+		{
+			if (state == STATE_START_TAG_OPEN || state == STATE_START_TAG_CLOSED)
+			{
+				// write right away, no need to wrap the array
+				writeChars(mOut, text, offset, length);
+			}
+			else
+			{
+				addContent(CharBuffer.wrap(text, offset, length));
+			}
+		}
+		else if (state == STATE_CLOSED)
+		{
+			throw new InvalidStateException("Can not add text - node already closed!");
+		}
+		return this;
+	}
+
+
+	/**
+	 * Add the content of a {@link Reader} to this node. The content is streamed in chunks of constant size, so it's never held in memory as a whole.
+	 * <p>
+	 * If the node has been opened, the reader is read to the end immediately. Otherwise it's read when the node is written. The reader is not closed.
+	 * </p>
+	 * 
+	 * @param reader
+	 *            The {@link Reader} to read the text from.
+	 * @return This XmlText instance.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 */
+	public XmlText add(Reader reader) throws IOException, InvalidStateException
+	{
+		if (reader == null)
+		{
+			throw new NullPointerException("reader must not be null");
+		}
+		addContent(reader);
+		return this;
+	}
+
+
+	/**
+	 * Add text that is provided by an {@link IXmlValueSupplier}. If the node has not been opened yet, the supplier is called when the node is written.
+	 * Otherwise it's called immediately. In both cases the value is written right away and not kept by this node.
+	 * 
+	 * @param supplier
+	 *            The {@link IXmlValueSupplier} that provides the text.
+	 * @return This XmlText instance.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 */
+	public XmlText add(IXmlValueSupplier supplier) throws IOException, InvalidStateException
+	{
+		if (supplier == null)
+		{
+			throw new NullPointerException("supplier must not be null");
+		}
+		addContent(supplier);
+		return this;
+	}
+
+
+	/**
+	 * Returns a {@link Writer} that appends to this node. Everything written to it is entity encoded on the fly. If this node has been opened, the text goes
+	 * straight to the output, without any intermediate copies. Otherwise it's copied and kept until this node is written.
+	 * <p>
+	 * This is meant to be used in {@link IXmlTextSerializable#populateXmlText(XmlText)} by objects that render themselves incrementally. Closing or flushing
+	 * the writer has no effect.
+	 * </p>
+	 * <p>
+	 * Surrogate pairs may be split across writes. A high surrogate at the end of a write is held back until the next character arrives or this node is
+	 * closed.
+	 * </p>
+	 * 
+	 * @return A {@link Writer} that appends to this node.
+	 */
+	public Writer writer()
+	{
+		return new Writer()
+		{
+			@Override
+			public void write(int c) throws IOException
+			{
+				if (state == STATE_START_TAG_OPEN || state == STATE_START_TAG_CLOSED)
+				{
+					writeChar(mOut, (char) c);
+				}
+				else
+				{
+					append(String.valueOf((char) c));
+				}
+			}
+
+
+			@Override
+			public void write(char[] cbuf, int off, int len) throws IOException
+			{
+				if (state == STATE_START_TAG_OPEN || state == STATE_START_TAG_CLOSED)
+				{
+					writeChars(mOut, cbuf, off, len);
+				}
+				else
+				{
+					// the caller may reuse the array, so we have to copy it
+					append(new String(cbuf, off, len));
+				}
+			}
+
+
+			@Override
+			public void write(String str, int off, int len) throws IOException
+			{
+				if (state == STATE_START_TAG_OPEN || state == STATE_START_TAG_CLOSED)
 				{
-					if (mTextList == null)
+					writeString(mOut, str, off, len);
+				}
+				else
+				{
+					append(off == 0 && len == str.length() ? str : str.substring(off, off + len));
+				}
+			}
+
+
+			@Override
+			public Writer append(CharSequence csq) throws IOException
+			{
+				if (csq == null)
+				{
+					csq = "null";
+				}
+				try
+				{
+					if (state == STATE_START_TAG_OPEN || state == STATE_START_TAG_CLOSED || csq instanceof String)
 					{
-						mTextList = new ArrayList<String>();
+						XmlText.this.add(csq);
 					}
-					mTextList.add(text);
+					else
+					{
+						// the sequence might be modified, so we have to copy it
+						XmlText.this.add(csq.toString());
+					}
+				}
+				catch (InvalidStateException e)
+				{
+					throw new IOException("Can not write text - node already closed!");
+				}
+				return this;
+			}
+
+
+			@Override
+			public Writer append(CharSequence csq, int start, int end) throws IOException
+			{
+				if (csq == null)
+				{
+					csq = "null";
 				}
+				if (state == STATE_START_TAG_OPEN || state == STATE_START_TAG_CLOSED)
+				{
+					if (csq instanceof String)
+					{
+						writeString(mOut, (String) csq, start, end - start);
+					}
+					else
+					{
+						writeSequence(mOut, csq, start, end - start);
+					}
+					return this;
+				}
+				return append(csq.subSequence(start, end));
+			}
+
+
+			@Override
+			public void flush()
+			{
+				// nothing to do
+			}
+
+
+			@Override
+			public void close()
+			{
+				// nothing to do
+			}
+		};
+	}
+
+
+	/**
+	 * Cache or write text content, depending on the current state.
+	 * 
+	 * @param content
+	 *            A {@link String}, {@link CharSequence}, {@link CharBuffer}, {@link Reader}, {@link IXmlValueSupplier} or {@link IXmlTextSerializable}.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 */
+	final void addContent(Object content) throws IOException, InvalidStateException
+	{
+		switch (state)
+		{
+			case STATE_NEW:
+				if (mTextList == null)
+				{
+					mTextList = new ArrayList<Object>();
+				}
+				mTextList.add(content);
 				break;
 			case STATE_START_TAG_OPEN:
 			case STATE_START_TAG_CLOSED:
-				if (text != null && text.length() > 0)
-				{
-					XmlUtils.writeXmlEntityEncodedString(mOut, text);
-				}
+				writeContent(mOut, content);
 				break;
 			case STATE_CLOSED:
 				throw new InvalidStateException("Can not add text - node already closed!");
 		}
-		return this;
+	}
+
+
+	/**
+	 * Write text content, replacing special characters by their XML entities.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param content
+	 *            A {@link String}, {@link CharSequence}, {@link CharBuffer}, {@link Reader}, {@link IXmlValueSupplier} or {@link IXmlTextSerializable}.
+	 * @throws IOException
+	 * @throws InvalidStateException
+	 */
+	private void writeContent(Writer out, Object content) throws IOException, InvalidStateException
+	{
+		if (content instanceof String)
+		{
+			String text = (String) content;
+			writeString(out, text, 0, text.length());
+		}
+		else if (content instanceof CharBuffer && ((CharBuffer) content).hasArray())
+		{
+			CharBuffer buffer = (CharBuffer) content;
+			writeChars(out, buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		}
+		else if (content instanceof Reader)
+		{
+			writeReader(out, (Reader) content);
+		}
+		else if (content instanceof IXmlTextSerializable)
+		{
+			// the node is open, so the serializable writes straight to the output
+			((IXmlTextSerializable) content).populateXmlText(this);
+		}
+		else if (content instanceof IXmlValueSupplier)
+		{
+			CharSequence value = ((IXmlValueSupplier) content).getXmlValue();
+			if (value != null)
+			{
+				writeContent(out, value);
+			}
+		}
+		else
+		{
+			CharSequence text = (CharSequence) content;
+			writeSequence(out, text, 0, text.length());
+		}
+	}
+
+
+	/**
+	 * Write a part of a {@link String}, replacing special characters by their XML entities. Large strings are escaped in parallel if the document permits.
+	 */
+	private void writeString(Writer out, String text, int offset, int length) throws IOException
+	{
+		int start = offset;
+		int end = offset + length;
+		if (length == 0)
+		{
+			return;
+		}
+		if (mHighSurrogate != 0 && pairSurrogate(out, text.charAt(start)))
+		{
+			++start;
+		}
+		if (start < end && Character.isHighSurrogate(text.charAt(end - 1)))
+		{
+			mHighSurrogate = text.charAt(--end);
+		}
+
+		if (mEscaper != null)
+		{
+			mEscaper.writeString(out, text, start, end - start, mPolicy);
+		}
+		else
+		{
+			XmlUtils.writeXmlEntityEncodedString(out, text, start, end - start, mPolicy);
+		}
+	}
+
+
+	/**
+	 * Write a part of a {@link CharSequence}, replacing special characters by their XML entities. Large sequences are escaped in parallel if the document
+	 * permits.
+	 */
+	private void writeSequence(Writer out, CharSequence text, int offset, int length) throws IOException
+	{
+		int start = offset;
+		int end = offset + length;
+		if (length == 0)
+		{
+			return;
+		}
+		if (mHighSurrogate != 0 && pairSurrogate(out, text.charAt(start)))
+		{
+			++start;
+		}
+		if (start < end && Character.isHighSurrogate(text.charAt(end - 1)))
+		{
+			mHighSurrogate = text.charAt(--end);
+		}
+
+		if (mEscaper != null)
+		{
+			mEscaper.writeSequence(out, text, start, end - start, chunk(), mPolicy);
+		}
+		else
+		{
+			XmlUtils.writeXmlEntityEncodedSequence(out, text, start, end - start, chunk(), mPolicy);
+		}
+	}
+
+
+	/**
+	 * Write a part of a char array, replacing special characters by their XML entities. Large ranges are escaped in parallel if the document permits.
+	 */
+	private void writeChars(Writer out, char[] text, int offset, int length) throws IOException
+	{
+		int end = offset + length;
+		if (length == 0)
+		{
+			return;
+		}
+		if (mHighSurrogate != 0 && pairSurrogate(out, text[offset]))
+		{
+			++offset;
+		}
+		if (offset < end && Character.isHighSurrogate(text[end - 1]))
+		{
+			mHighSurrogate = text[--end];
+		}
+
+		if (mEscaper != null)
+		{
+			mEscaper.writeChars(out, text, offset, end - offset, mPolicy);
+		}
+		else
+		{
+			XmlUtils.writeXmlEntityEncodedChars(out, text, offset, end - offset, mPolicy);
+		}
+	}
+
+
+	/**
+	 * Write the content of a {@link Reader}, replacing special characters by their XML entities. Long content is escaped in parallel if the document permits.
+	 */
+	private void writeReader(Writer out, Reader in) throws IOException
+	{
+		// the first characters decide about a held back high surrogate
+		int c;
+		while (mHighSurrogate != 0 && (c = in.read()) >= 0)
+		{
+			writeChar(out, (char) c);
+		}
+
+		if (mEscaper != null)
+		{
+			mHighSurrogate = mEscaper.writeReader(out, in, chunk(), mPolicy);
+		}
+		else
+		{
+			mHighSurrogate = XmlUtils.writeXmlEntityEncodedReaderOpenEnded(out, in, chunk(), mPolicy);
+		}
+	}
+
+
+	/**
+	 * Write a single character, replacing it by its XML entity if necessary. Surrogates are checked like in any other text.
+	 */
+	private void writeChar(Writer out, char c) throws IOException
+	{
+		if (mHighSurrogate != 0 && pairSurrogate(out, c))
+		{
+			return;
+		}
+		if (Character.isHighSurrogate(c))
+		{
+			mHighSurrogate = c;
+		}
+		else if (Character.isLowSurrogate(c))
+		{
+			// a low surrogate that doesn't follow a high surrogate
+			XmlUtils.writeInvalid(out, c, mPolicy);
+		}
+		else
+		{
+			XmlUtils.writeXmlEntityEncodedChar(out, c, mPolicy);
+		}
+	}
+
+
+	/**
+	 * Write the held back high surrogate, either together with the given character if that's a low surrogate, or as an unpaired surrogate.
+	 * 
+	 * @return {@code true} if {@code next} completes the pair and has been written, {@code false} if it still has to be written.
+	 */
+	private boolean pairSurrogate(Writer out, char next) throws IOException
+	{
+		char high = mHighSurrogate;
+		mHighSurrogate = 0;
+		if (Character.isLowSurrogate(next))
+		{
+			out.write(high);
+			out.write(next);
+			return true;
+		}
+		XmlUtils.writeInvalid(out, high, mPolicy);
+		return false;
+	}
+
+
+	/**
+	 * Returns the chunk buffer of this node, allocating it if necessary.
+	 */
+	private char[] chunk()
+	{
+		if (mChunk == null)
+		{
+			mChunk = new char[CHUNK_SIZE];
+		}
+		return mChunk;
 	}
 
 
@@ -112,18 +617,25 @@ public class XmlText extends XmlAbstractNode
 		// write initial text, if any
 		if (mText != null)
 		{
-			XmlUtils.writeXmlEntityEncodedString(out, mText);
+			writeString(out, mText, 0, mText.length());
 		}
 
 		// write cached text if any
 		if (mTextList != null)
 		{
-			for (String text : mTextList)
+			for (Object text : mTextList)
 			{
-				XmlUtils.writeXmlEntityEncodedString(out, text);
+				writeContent(out, text);
+			}
+			// free mTextList, pooled nodes keep it for the next use
+			if (mPool == null)
+			{
+				mTextList = null;
+			}
+			else
+			{
+				mTextList.clear();
 			}
-			// free mTextList
-			mTextList = null;
 		}
 	}
 
@@ -136,14 +648,60 @@ public class XmlText extends XmlAbstractNode
 			throw new InvalidStateException("Can not close text note - it's not open!");
 		}
 
+		if (mHighSurrogate != 0)
+		{
+			// the text ends with an unpaired high surrogate
+			char high = mHighSurrogate;
+			mHighSurrogate = 0;
+			XmlUtils.writeInvalid(mOut, high, mPolicy);
+		}
+
 		state = STATE_CLOSED;
+
+		if (mPool != null)
+		{
+			mPool.recycle(this);
+		}
+	}
+
+
+	/**
+	 * Set the {@link XmlNodePool} this node is returned to when it has been closed.
+	 * 
+	 * @param pool
+	 *            The {@link XmlNodePool}.
+	 */
+	final void setPool(XmlNodePool pool)
+	{
+		mPool = pool;
+	}
+
+
+	/**
+	 * Reset a closed text node, so it can be used again.
+	 * 
+	 * @param text
+	 *            The new text of this node (may be {@code null}).
+	 */
+	final void reset(String text)
+	{
+		mText = text;
+		mOut = null;
+		mHighSurrogate = 0;
+		if (mTextList != null)
+		{
+			mTextList.clear();
+		}
+		state = STATE_NEW;
+		setDepth(0);
 	}
 
 
 	@Override
 	final void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
 	{
-		// nothing to do
+		mPolicy = namespaceRegistry.getInvalidCharacterPolicy();
+		mEscaper = namespaceRegistry.getTextEscaper();
 	}
 
 }
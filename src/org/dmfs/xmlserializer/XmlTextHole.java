@@ -0,0 +1,58 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.io.Writer;
+
+
+/**
+ * A placeholder for a text value in an {@link XmlTemplate}.
+ * <p>
+ * Add it to the {@link XmlElement} tree of a template like any other text node and set its value in each {@link XmlTemplateInstance}. Text holes can't be
+ * written outside of a template.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlTextHole extends XmlAbstractNode
+{
+
+	@Override
+	void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+	{
+		// nothing to do
+	}
+
+
+	@Override
+	void open(Writer out) throws InvalidStateException
+	{
+		throw new InvalidStateException("text holes can only be used in templates");
+	}
+
+
+	@Override
+	void close() throws InvalidStateException
+	{
+		throw new InvalidStateException("text holes can only be used in templates");
+	}
+}
@@ -32,7 +32,8 @@ final class XmlTextSerializableAdapter extends XmlText
 {
 
 	/**
-	 * Constructor that gets the node text from an {@link IXmlTextSerializable}.
+	 * Constructor that gets the node text from an {@link IXmlTextSerializable}. The serializable populates the node when it's opened, so it can write its text
+	 * straight to the output using {@link #writer()}.
 	 * 
 	 * @param serializable
 	 *            An {@link IXmlTextSerializable} instance.
@@ -42,7 +43,7 @@ final class XmlTextSerializableAdapter extends XmlText
 	XmlTextSerializableAdapter(IXmlTextSerializable serializable) throws IOException, InvalidStateException
 	{
 		super(null);
-		serializable.populateXmlText(this);
+		addContent(serializable);
 	}
 
 }
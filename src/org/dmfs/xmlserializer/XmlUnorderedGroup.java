@@ -0,0 +1,305 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A group of sibling nodes that are written in the order they become ready rather than in the order they have been created. Add the group to an
+ * {@link XmlElement} and call {@link #add(XmlAbstractNode)} from any number of threads. Use this if the order of the children doesn't matter, so a slow child
+ * doesn't hold back the ones that are ready.
+ * <p>
+ * Once the group has been written, each node is serialized on the thread that adds it, into a private buffer. The buffer is handed off through a lock-free
+ * queue. Whichever thread gets hold of the output writes all queued buffers, threads that don't get hold of it return immediately, so adding a node never
+ * waits for another thread. Nodes that are added before the group has been written are queued and written as soon as the group is written.
+ * </p>
+ * <p>
+ * Closing the group (which happens when the parent is closed or another node is added to the parent) waits for nodes that are being added at that time and
+ * writes all remaining buffers. Nodes can't be added afterwards. Make sure all producers are done before you close the parent.
+ * </p>
+ * <p>
+ * While the group is open, producers write to the output of the serializer under a lock that only the group knows about. Don't use the serializer on the
+ * thread that owns it until the group has been closed, in particular don't call {@link XmlSerializer#flush()} and don't write to any other node. Adding a
+ * sibling to the parent or closing the parent is safe, since that closes the group first.
+ * </p>
+ * <p>
+ * Nodes are serialized on other threads, so they can only use namespaces that are bound by an ancestor when the group is written. Register these
+ * namespaces in advance (e.g. with {@link XmlSerializer#registerNamespace(String)}), otherwise adding the node fails with an {@link InvalidValueException}.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class XmlUnorderedGroup extends XmlAbstractNode
+{
+	/**
+	 * The hand-off queue. It contains nodes that have been added before this group has been written and buffers of serialized nodes.
+	 */
+	private final Queue<Object> mQueue = new ConcurrentLinkedQueue<Object>();
+
+	/**
+	 * The lock that guards the output.
+	 */
+	private final ReentrantLock mOutputLock = new ReentrantLock();
+
+	/**
+	 * Signaled when the last node that has been added after closing has been handed off.
+	 */
+	private final Condition mIdle = mOutputLock.newCondition();
+
+	/**
+	 * The number of {@link #add(XmlAbstractNode)} calls in progress.
+	 */
+	private final AtomicInteger mAdding = new AtomicInteger();
+
+	/**
+	 * The {@link Writer} to write to or {@code null} if this group has not been written yet.
+	 */
+	private volatile Writer mOut;
+
+	/**
+	 * A fork of the {@link XmlNamespaceRegistry} of this XML document. The nodes are serialized with forks of this fork. It's never modified, so it can be
+	 * forked on any thread.
+	 */
+	private volatile XmlNamespaceRegistry mNamespaces;
+
+	/**
+	 * Indicates that this group has been closed and doesn't accept any more nodes.
+	 */
+	private volatile boolean mClosed = false;
+
+	/**
+	 * The first error that occurred while writing the output, if any.
+	 */
+	private volatile IOException mError;
+
+	/**
+	 * The {@link XmlNamespaceRegistry} of this XML document.
+	 */
+	private XmlNamespaceRegistry mNamespaceRegistry;
+
+
+	/**
+	 * Add a node to this group. This method can be called from any thread. If this group has been written already, the node is serialized on the calling
+	 * thread and written as soon as no other thread is writing.
+	 * 
+	 * @param node
+	 *            The node to add.
+	 * @return This XmlUnorderedGroup instance.
+	 * @throws InvalidStateException
+	 *             if this group has been closed already.
+	 * @throws IOException
+	 *             if the node can't be serialized or the output has failed.
+	 * @throws InvalidValueException
+	 *             if the node is invalid, e.g. because it uses a namespace that is not bound.
+	 */
+	public XmlUnorderedGroup add(XmlAbstractNode node) throws InvalidStateException, IOException, InvalidValueException
+	{
+		mAdding.incrementAndGet();
+		try
+		{
+			if (mClosed)
+			{
+				throw new InvalidStateException("can not add node - group has been closed");
+			}
+			if (mError != null)
+			{
+				throw mError;
+			}
+
+			XmlNamespaceRegistry namespaces = mNamespaces;
+			if (namespaces == null)
+			{
+				// not written yet, serialize it once we know the namespaces
+				mQueue.add(node);
+			}
+			else
+			{
+				XmlCharBuffer buffer = new XmlCharBuffer(256);
+				node.setDepth(getDepth());
+				node.setNamespaceRegistry(namespaces.fork(getDepth()));
+				node.open(buffer);
+				node.close();
+				mQueue.add(buffer);
+			}
+
+			// the group may have been written in the meantime
+			if (mOut != null)
+			{
+				tryDrain();
+			}
+		}
+		finally
+		{
+			if (mAdding.decrementAndGet() == 0 && mClosed)
+			{
+				mOutputLock.lock();
+				try
+				{
+					mIdle.signalAll();
+				}
+				finally
+				{
+					mOutputLock.unlock();
+				}
+			}
+		}
+		return this;
+	}
+
+
+	/**
+	 * Write the queue unless another thread is writing it already. The other thread checks the queue again after releasing the lock, so nothing is left behind.
+	 */
+	private void tryDrain()
+	{
+		while (!mQueue.isEmpty() && mOutputLock.tryLock())
+		{
+			try
+			{
+				drain();
+			}
+			finally
+			{
+				mOutputLock.unlock();
+			}
+		}
+	}
+
+
+	/**
+	 * Write all queued nodes and buffers. The caller must hold the output lock.
+	 */
+	private void drain()
+	{
+		Writer out = mOut;
+		Object item;
+		while (mError == null && (item = mQueue.poll()) != null)
+		{
+			try
+			{
+				if (item instanceof XmlCharBuffer)
+				{
+					((XmlCharBuffer) item).writeTo(out);
+				}
+				else
+				{
+					XmlAbstractNode node = (XmlAbstractNode) item;
+					node.setDepth(getDepth());
+					node.setNamespaceRegistry(mNamespaces.fork(getDepth()));
+					node.open(out);
+					node.close();
+				}
+			}
+			catch (IOException e)
+			{
+				mError = e;
+			}
+			catch (Exception e)
+			{
+				IOException error = new IOException("can not write node");
+				error.initCause(e);
+				mError = error;
+			}
+		}
+	}
+
+
+	@Override
+	void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+	{
+		mNamespaceRegistry = namespaceRegistry;
+	}
+
+
+	@Override
+	void open(Writer out) throws IOException, InvalidStateException, InvalidValueException
+	{
+		if (state != STATE_NEW)
+		{
+			throw new InvalidStateException("can not open group - it's already open!");
+		}
+
+		// the registry is not thread-safe, create a copy on this thread
+		mNamespaces = mNamespaceRegistry.fork(getDepth());
+		mOut = out;
+		state = STATE_START_TAG_CLOSED;
+
+		mOutputLock.lock();
+		try
+		{
+			drain();
+		}
+		finally
+		{
+			mOutputLock.unlock();
+		}
+		if (mError != null)
+		{
+			throw mError;
+		}
+	}
+
+
+	@Override
+	void close() throws IOException, InvalidStateException
+	{
+		if (state != STATE_START_TAG_CLOSED)
+		{
+			throw new InvalidStateException("can not close group - it's not open!");
+		}
+
+		mClosed = true;
+		mOutputLock.lock();
+		try
+		{
+			// wait for nodes that are being added right now
+			while (mAdding.get() > 0)
+			{
+				mIdle.await();
+			}
+			drain();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for nodes");
+		}
+		finally
+		{
+			mOutputLock.unlock();
+		}
+		state = STATE_CLOSED;
+		if (mError != null)
+		{
+			throw mError;
+		}
+	}
+}
@@ -0,0 +1,487 @@
+/*
+ * dmfs - http://dmfs.org/
+ *
+ * Copyright (C) 2012 Marten Gajda <marten@dmfs.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package org.dmfs.xmlserializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * A buffered {@link Writer} that encodes characters to UTF-8 and writes them to an {@link OutputStream} or a {@link WritableByteChannel}.
+ * <p>
+ * In contrast to {@link java.io.OutputStreamWriter} this writer also accepts raw bytes, which are written to the stream as they are (after flushing any
+ * buffered characters). This allows to copy pre-serialized content without decoding and encoding it again. Unpaired surrogates are replaced by a question
+ * mark.
+ * </p>
+ * <p>
+ * This writer doesn't hold any monitor while it writes to the sink. When writing to a {@link WritableByteChannel}, bytes are handed off straight from the
+ * fixed size buffer, without the synchronized wrappers of {@link Channels}, so threads that block on the channel don't hold any monitors either.
+ * </p>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ * 
+ * For internal use only.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class XmlUtf8Writer extends Writer
+{
+	/**
+	 * The size of the output buffer.
+	 */
+	private final static int BUFFER_SIZE = 8192;
+
+	/**
+	 * The {@link OutputStream} to write to or {@code null} if this writer writes to a channel.
+	 */
+	private final OutputStream mOut;
+
+	/**
+	 * The {@link WritableByteChannel} to write to or {@code null} if this writer writes to a stream.
+	 */
+	private final WritableByteChannel mChannel;
+
+	/**
+	 * The output buffer.
+	 */
+	private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * A {@link ByteBuffer} that wraps {@link #mBuffer} or {@code null} if this writer writes to a stream.
+	 */
+	private final ByteBuffer mByteBuffer;
+
+	/**
+	 * The number of bytes in {@link #mBuffer}.
+	 */
+	private int mPos;
+
+	/**
+	 * A high surrogate that waits for its low surrogate or {@code 0} if there is none.
+	 */
+	private char mHighSurrogate;
+
+
+	/**
+	 * Create a writer that writes UTF-8 to the given {@link OutputStream}.
+	 * 
+	 * @param out
+	 *            The {@link OutputStream} to write to.
+	 */
+	XmlUtf8Writer(OutputStream out)
+	{
+		mOut = out;
+		mChannel = null;
+		mByteBuffer = null;
+	}
+
+
+	/**
+	 * Create a writer that writes UTF-8 to the given {@link WritableByteChannel}. The channel must be in blocking mode.
+	 * 
+	 * @param channel
+	 *            The {@link WritableByteChannel} to write to.
+	 */
+	XmlUtf8Writer(WritableByteChannel channel)
+	{
+		mOut = null;
+		mChannel = channel;
+		mByteBuffer = ByteBuffer.wrap(mBuffer);
+	}
+
+
+	@Override
+	public void write(int c) throws IOException
+	{
+		if (mPos > BUFFER_SIZE - 4)
+		{
+			flushBuffer();
+		}
+		encode((char) c);
+	}
+
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException
+	{
+		final byte[] buffer = mBuffer;
+		final int end = off + len;
+		int pos = mPos;
+		for (int i = off; i < end; ++i)
+		{
+			char c = cbuf[i];
+			if (pos > BUFFER_SIZE - 4)
+			{
+				mPos = pos;
+				flushBuffer();
+				pos = 0;
+			}
+			if (c < 0x80 && mHighSurrogate == 0)
+			{
+				// fast path for ASCII
+				buffer[pos++] = (byte) c;
+			}
+			else
+			{
+				mPos = pos;
+				encode(c);
+				pos = mPos;
+			}
+		}
+		mPos = pos;
+	}
+
+
+	@Override
+	public void write(String str) throws IOException
+	{
+		write(str, 0, str.length());
+	}
+
+
+	@Override
+	public void write(String str, int off, int len) throws IOException
+	{
+		final byte[] buffer = mBuffer;
+		final int end = off + len;
+		int pos = mPos;
+		for (int i = off; i < end; ++i)
+		{
+			char c = str.charAt(i);
+			if (pos > BUFFER_SIZE - 4)
+			{
+				mPos = pos;
+				flushBuffer();
+				pos = 0;
+			}
+			if (c < 0x80 && mHighSurrogate == 0)
+			{
+				// fast path for ASCII
+				buffer[pos++] = (byte) c;
+			}
+			else
+			{
+				mPos = pos;
+				encode(c);
+				pos = mPos;
+			}
+		}
+		mPos = pos;
+	}
+
+
+	/**
+	 * Write raw bytes. The bytes must be valid UTF-8.
+	 * 
+	 * @param bytes
+	 *            The bytes to write.
+	 * @param off
+	 *            The offset of the first byte to write.
+	 * @param len
+	 *            The number of bytes to write.
+	 * @throws IOException
+	 */
+	void writeRaw(byte[] bytes, int off, int len) throws IOException
+	{
+		finishSurrogate();
+		if (len <= BUFFER_SIZE - mPos)
+		{
+			System.arraycopy(bytes, off, mBuffer, mPos, len);
+			mPos += len;
+		}
+		else
+		{
+			flushBuffer();
+			writeBytes(bytes, off, len);
+		}
+	}
+
+
+	/**
+	 * Write the decimal representation of a long directly into the buffer.
+	 * 
+	 * @param value
+	 *            The value to write.
+	 * @throws IOException
+	 */
+	void writeLong(long value) throws IOException
+	{
+		if (value == Long.MIN_VALUE)
+		{
+			write(XmlUtils.LONG_MIN_VALUE);
+			return;
+		}
+
+		finishSurrogate();
+		// a long has at most 19 digits and a sign
+		if (mPos > BUFFER_SIZE - 20)
+		{
+			flushBuffer();
+		}
+
+		final byte[] buffer = mBuffer;
+		if (value < 0)
+		{
+			buffer[mPos++] = '-';
+			value = -value;
+		}
+
+		int end = mPos + XmlUtils.digitCount(value);
+		int pos = end;
+		do
+		{
+			long next = value / 10;
+			buffer[--pos] = (byte) ('0' + (int) (value - next * 10));
+			value = next;
+		} while (value != 0);
+		mPos = end;
+	}
+
+
+	/**
+	 * Write the remaining raw bytes of a {@link ByteBuffer}. The bytes must be valid UTF-8. The position of {@code bytes} is advanced to its limit.
+	 * 
+	 * @param bytes
+	 *            The {@link ByteBuffer} to write.
+	 * @throws IOException
+	 */
+	void writeRaw(ByteBuffer bytes) throws IOException
+	{
+		if (bytes.hasArray())
+		{
+			int len = bytes.remaining();
+			writeRaw(bytes.array(), bytes.arrayOffset() + bytes.position(), len);
+			bytes.position(bytes.position() + len);
+			return;
+		}
+
+		finishSurrogate();
+		while (bytes.hasRemaining())
+		{
+			if (mPos == BUFFER_SIZE)
+			{
+				flushBuffer();
+			}
+			int len = Math.min(bytes.remaining(), BUFFER_SIZE - mPos);
+			bytes.get(mBuffer, mPos, len);
+			mPos += len;
+		}
+	}
+
+
+	/**
+	 * Transfer a region of a {@link FileChannel} to the output. The bytes must be valid UTF-8.
+	 * <p>
+	 * Channels are served by {@link FileChannel#transferTo(long, long, WritableByteChannel)}. Streams are fed through the output buffer rather than through
+	 * {@link Channels#newChannel(OutputStream)}, which holds a monitor while it writes to the stream.
+	 * </p>
+	 * 
+	 * @param channel
+	 *            The {@link FileChannel} to read from.
+	 * @param position
+	 *            The position of the first byte to transfer.
+	 * @param count
+	 *            The number of bytes to transfer.
+	 * @throws IOException
+	 */
+	void transferFrom(FileChannel channel, long position, long count) throws IOException
+	{
+		finishSurrogate();
+		flushBuffer();
+		if (mChannel != null)
+		{
+			while (count > 0)
+			{
+				long transferred = channel.transferTo(position, count, mChannel);
+				if (transferred <= 0)
+				{
+					throw new IOException("unexpected end of channel");
+				}
+				position += transferred;
+				count -= transferred;
+			}
+		}
+		else
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(mBuffer);
+			while (count > 0)
+			{
+				buffer.clear();
+				buffer.limit((int) Math.min(BUFFER_SIZE, count));
+				int read = channel.read(buffer, position);
+				if (read <= 0)
+				{
+					throw new IOException("unexpected end of channel");
+				}
+				mOut.write(mBuffer, 0, read);
+				position += read;
+				count -= read;
+			}
+		}
+	}
+
+
+	@Override
+	public void flush() throws IOException
+	{
+		flushBuffer();
+		if (mOut != null)
+		{
+			mOut.flush();
+		}
+	}
+
+
+	@Override
+	public void close() throws IOException
+	{
+		finishSurrogate();
+		flushBuffer();
+		if (mOut != null)
+		{
+			mOut.close();
+		}
+		else
+		{
+			mChannel.close();
+		}
+	}
+
+
+	/**
+	 * Encode a single character. The caller must ensure there is room for at least 4 bytes in the buffer.
+	 */
+	private void encode(char c)
+	{
+		final byte[] buffer = mBuffer;
+		if (mHighSurrogate != 0)
+		{
+			char high = mHighSurrogate;
+			mHighSurrogate = 0;
+			if (Character.isLowSurrogate(c))
+			{
+				int codePoint = Character.toCodePoint(high, c);
+				buffer[mPos++] = (byte) (0xf0 | (codePoint >> 18));
+				buffer[mPos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				buffer[mPos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				buffer[mPos++] = (byte) (0x80 | (codePoint & 0x3f));
+				return;
+			}
+			// unpaired high surrogate, the replacement and the current character take at most 4 bytes
+			buffer[mPos++] = '?';
+		}
+
+		if (c < 0x80)
+		{
+			buffer[mPos++] = (byte) c;
+		}
+		else if (c < 0x800)
+		{
+			buffer[mPos++] = (byte) (0xc0 | (c >> 6));
+			buffer[mPos++] = (byte) (0x80 | (c & 0x3f));
+		}
+		else if (Character.isHighSurrogate(c))
+		{
+			mHighSurrogate = c;
+		}
+		else if (Character.isLowSurrogate(c))
+		{
+			// unpaired low surrogate
+			buffer[mPos++] = '?';
+		}
+		else
+		{
+			buffer[mPos++] = (byte) (0xe0 | (c >> 12));
+			buffer[mPos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+			buffer[mPos++] = (byte) (0x80 | (c & 0x3f));
+		}
+	}
+
+
+	/**
+	 * Write out an unpaired high surrogate, if any.
+	 */
+	private void finishSurrogate() throws IOException
+	{
+		if (mHighSurrogate != 0)
+		{
+			mHighSurrogate = 0;
+			if (mPos == BUFFER_SIZE)
+			{
+				flushBuffer();
+			}
+			mBuffer[mPos++] = '?';
+		}
+	}
+
+
+	/**
+	 * Write the buffer to the {@link OutputStream}.
+	 */
+	private void flushBuffer() throws IOException
+	{
+		if (mPos > 0)
+		{
+			writeBytes(mBuffer, 0, mPos);
+			mPos = 0;
+		}
+	}
+
+
+	/**
+	 * Write bytes to the sink.
+	 */
+	private void writeBytes(byte[] bytes, int off, int len) throws IOException
+	{
+		if (mOut != null)
+		{
+			mOut.write(bytes, off, len);
+			return;
+		}
+
+		ByteBuffer buffer;
+		if (bytes == mBuffer)
+		{
+			buffer = mByteBuffer;
+			buffer.limit(off + len);
+			buffer.position(off);
+		}
+		else
+		{
+			buffer = ByteBuffer.wrap(bytes, off, len);
+		}
+
+		while (buffer.hasRemaining())
+		{
+			if (mChannel.write(buffer) == 0)
+			{
+				throw new IOException("channel did not accept any bytes, is it in non-blocking mode?");
+			}
+		}
+	}
+}
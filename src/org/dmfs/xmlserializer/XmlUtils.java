@@ -22,6 +22,7 @@
 package org.dmfs.xmlserializer;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.io.Writer;
 
 
@@ -50,6 +51,48 @@ final class XmlUtils
 	 */
 	private final static String XML_SPECIAL_CHARS = "\"&'<>";
 
+	/**
+	 * The character that replaces invalid characters with {@link XmlSerializer#INVALID_CHARS_REPLACE}.
+	 */
+	private final static char REPLACEMENT_CHARACTER = '\ufffd';
+
+	/**
+	 * The types of primitive values supported by {@link #writePrimitive(Writer, int, long)}.
+	 */
+	final static int PRIMITIVE_LONG = 0;
+	final static int PRIMITIVE_DOUBLE = 1;
+	final static int PRIMITIVE_BOOLEAN = 2;
+
+	/**
+	 * The powers of ten that fit into a long.
+	 */
+	private final static long[] POWERS_OF_TEN = new long[19];
+
+	static
+	{
+		long power = 1;
+		for (int i = 0; i < POWERS_OF_TEN.length; ++i)
+		{
+			POWERS_OF_TEN[i] = power;
+			power *= 10;
+		}
+	}
+
+	/**
+	 * The decimal representation of {@link Long#MIN_VALUE}, which can't be negated.
+	 */
+	final static String LONG_MIN_VALUE = "-9223372036854775808";
+
+	/**
+	 * The bits of a negative zero double.
+	 */
+	private final static long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0d);
+
+	/**
+	 * Doubles below this value (and integral) are written by {@link Double#toString(double)} in the form "123.0".
+	 */
+	private final static double PLAIN_DOUBLE_LIMIT = 1e7;
+
 
 	/**
 	 * Private constructor. No instantiation allowed.
@@ -70,45 +113,615 @@ final class XmlUtils
 	 * @throws IOException
 	 */
 	public static void writeXmlEntityEncodedString(Writer out, String s) throws IOException
+	{
+		writeXmlEntityEncodedString(out, s, XmlSerializer.INVALID_CHARS_IGNORE);
+	}
+
+
+	/**
+	 * Writes {@link String} {@code s} to the {@link Writer} {@code out} replacing special XML tokens by their respective XML entities and handling characters
+	 * that are invalid in XML 1.0 according to {@code policy}.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param s
+	 *            The raw {@link String}.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * 
+	 * @throws IOException
+	 * @throws InvalidCharacterException
+	 *             if {@code s} contains an invalid character and the policy is {@link XmlSerializer#INVALID_CHARS_REJECT}.
+	 */
+	public static void writeXmlEntityEncodedString(Writer out, String s, int policy) throws IOException
 	{
 		if (s == null || s.length() == 0)
 		{
 			return;
 		}
 
-		int pos;
-		int start = 0;
+		writeXmlEntityEncodedString(out, s, 0, s.length(), policy);
+	}
+
 
-		// scan for special characters
-		while ((pos = minIndexOfOneOf(s, start, XML_SPECIAL_CHARS)) >= 0)
+	/**
+	 * Writes a part of a {@link String} to the {@link Writer} {@code out} replacing special XML tokens by their respective XML entities and handling
+	 * characters that are invalid in XML 1.0 according to {@code policy}. A high surrogate at the end of the range is considered unpaired.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param s
+	 *            The raw {@link String}.
+	 * @param offset
+	 *            The offset of the first character to write.
+	 * @param length
+	 *            The number of characters to write.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * 
+	 * @throws IOException
+	 * @throws InvalidCharacterException
+	 *             if the range contains an invalid character and the policy is {@link XmlSerializer#INVALID_CHARS_REJECT}.
+	 */
+	static void writeXmlEntityEncodedString(Writer out, String s, int offset, int length, int policy) throws IOException
+	{
+		int start = offset;
+		final int end = offset + length;
+		final boolean check = policy != XmlSerializer.INVALID_CHARS_IGNORE;
+
+		for (int pos = offset; pos < end; ++pos)
+		{
+			char c = s.charAt(pos);
+			// all special characters are in the range '"' to '>', all invalid characters are below ' ' or above '\ud7ff'
+			if (c <= '>')
+			{
+				if (c >= '"' ? XML_SPECIAL_CHARS.indexOf(c) >= 0 : check && isInvalidControl(c))
+				{
+					// write everything up to the special character
+					if (pos > start)
+					{
+						out.write(s, start, pos - start);
+					}
+					writeEntityOrInvalid(out, c, policy);
+					start = pos + 1;
+				}
+			}
+			else if (c >= '\ud800' && check)
+			{
+				if (pos + 1 < end && Character.isHighSurrogate(c) && Character.isLowSurrogate(s.charAt(pos + 1)))
+				{
+					// valid surrogate pair
+					++pos;
+				}
+				else if (c <= '\udfff' || c >= '\ufffe')
+				{
+					if (pos > start)
+					{
+						out.write(s, start, pos - start);
+					}
+					writeInvalid(out, c, policy);
+					start = pos + 1;
+				}
+			}
+		}
+		// write everything that's left
+		if (end > start)
 		{
-			// write everything up to the special character
-			out.write(s.substring(start, pos));
+			out.write(s, start, end - start);
+		}
+	}
+
+
+	/**
+	 * Writes a part of a char array to the {@link Writer} {@code out} replacing special XML tokens by their respective XML entities.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param chars
+	 *            The raw characters.
+	 * @param offset
+	 *            The offset of the first character to write.
+	 * @param length
+	 *            The number of characters to write.
+	 * 
+	 * @throws IOException
+	 */
+	public static void writeXmlEntityEncodedChars(Writer out, char[] chars, int offset, int length) throws IOException
+	{
+		writeXmlEntityEncodedChars(out, chars, offset, length, XmlSerializer.INVALID_CHARS_IGNORE);
+	}
+
 
-			// write the XML entity
-			switch (s.charAt(pos))
+	/**
+	 * Writes a part of a char array to the {@link Writer} {@code out} replacing special XML tokens by their respective XML entities and handling characters
+	 * that are invalid in XML 1.0 according to {@code policy}. A high surrogate at the end of the range is considered unpaired.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param chars
+	 *            The raw characters.
+	 * @param offset
+	 *            The offset of the first character to write.
+	 * @param length
+	 *            The number of characters to write.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * 
+	 * @throws IOException
+	 * @throws InvalidCharacterException
+	 *             if the characters contain an invalid character and the policy is {@link XmlSerializer#INVALID_CHARS_REJECT}.
+	 */
+	public static void writeXmlEntityEncodedChars(Writer out, char[] chars, int offset, int length, int policy) throws IOException
+	{
+		int start = offset;
+		final int end = offset + length;
+		final boolean check = policy != XmlSerializer.INVALID_CHARS_IGNORE;
+
+		for (int pos = offset; pos < end; ++pos)
+		{
+			char c = chars[pos];
+			// all special characters are in the range '"' to '>', all invalid characters are below ' ' or above '\ud7ff'
+			if (c <= '>')
+			{
+				if (c >= '"' ? XML_SPECIAL_CHARS.indexOf(c) >= 0 : check && isInvalidControl(c))
+				{
+					// write everything up to the special character
+					if (pos > start)
+					{
+						out.write(chars, start, pos - start);
+					}
+					writeEntityOrInvalid(out, c, policy);
+					start = pos + 1;
+				}
+			}
+			else if (c >= '\ud800' && check)
 			{
-				case '"':
-					out.write(XML_ENTITY_QUOT);
-					break;
-				case '&':
-					out.write(XML_ENTITY_AMP);
-					break;
-				case '\'':
-					out.write(XML_ENTITY_APOS);
-					break;
-				case '<':
-					out.write(XML_ENTITY_LT);
-					break;
-				case '>':
-					out.write(XML_ENTITY_GT);
-					break;
+				if (pos + 1 < end && Character.isHighSurrogate(c) && Character.isLowSurrogate(chars[pos + 1]))
+				{
+					// valid surrogate pair
+					++pos;
+				}
+				else if (c <= '\udfff' || c >= '\ufffe')
+				{
+					if (pos > start)
+					{
+						out.write(chars, start, pos - start);
+					}
+					writeInvalid(out, c, policy);
+					start = pos + 1;
+				}
 			}
-			// skip the special character
-			start = pos + 1;
 		}
 		// write everything that's left
-		out.write(s.substring(start));
+		if (end > start)
+		{
+			out.write(chars, start, end - start);
+		}
+	}
+
+
+	/**
+	 * Writes a single character to the {@link Writer} {@code out}, replacing it by its XML entity if necessary.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param c
+	 *            The raw character.
+	 * 
+	 * @throws IOException
+	 */
+	public static void writeXmlEntityEncodedChar(Writer out, char c) throws IOException
+	{
+		writeXmlEntityEncodedChar(out, c, XmlSerializer.INVALID_CHARS_IGNORE);
+	}
+
+
+	/**
+	 * Writes a single character to the {@link Writer} {@code out}, replacing it by its XML entity if necessary and handling characters that are invalid in XML
+	 * 1.0 according to {@code policy}. Surrogates are not checked, since a single character can't tell whether it's part of a pair.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param c
+	 *            The raw character.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * 
+	 * @throws IOException
+	 * @throws InvalidCharacterException
+	 *             if {@code c} is invalid and the policy is {@link XmlSerializer#INVALID_CHARS_REJECT}.
+	 */
+	public static void writeXmlEntityEncodedChar(Writer out, char c, int policy) throws IOException
+	{
+		if (c <= '>' && (c >= '"' ? XML_SPECIAL_CHARS.indexOf(c) >= 0 : policy != XmlSerializer.INVALID_CHARS_IGNORE && isInvalidControl(c))
+			|| c >= '\ufffe' && policy != XmlSerializer.INVALID_CHARS_IGNORE)
+		{
+			writeEntityOrInvalid(out, c, policy);
+		}
+		else
+		{
+			out.write(c);
+		}
+	}
+
+
+	/**
+	 * Writes a {@link CharSequence} to the {@link Writer} {@code out} replacing special XML tokens by their respective XML entities. Sequences other than
+	 * {@link String}s are copied to {@code buffer} in chunks.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param s
+	 *            The raw {@link CharSequence}.
+	 * @param buffer
+	 *            A buffer for chunks.
+	 * 
+	 * @throws IOException
+	 */
+	public static void writeXmlEntityEncodedSequence(Writer out, CharSequence s, char[] buffer) throws IOException
+	{
+		writeXmlEntityEncodedSequence(out, s, buffer, XmlSerializer.INVALID_CHARS_IGNORE);
+	}
+
+
+	/**
+	 * Writes a {@link CharSequence} to the {@link Writer} {@code out} replacing special XML tokens by their respective XML entities and handling characters
+	 * that are invalid in XML 1.0 according to {@code policy}. Sequences other than {@link String}s are copied to {@code buffer} in chunks. Surrogate pairs
+	 * are never split across chunks.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param s
+	 *            The raw {@link CharSequence}.
+	 * @param buffer
+	 *            A buffer for chunks, at least two characters long.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * 
+	 * @throws IOException
+	 * @throws InvalidCharacterException
+	 *             if {@code s} contains an invalid character and the policy is {@link XmlSerializer#INVALID_CHARS_REJECT}.
+	 */
+	public static void writeXmlEntityEncodedSequence(Writer out, CharSequence s, char[] buffer, int policy) throws IOException
+	{
+		writeXmlEntityEncodedSequence(out, s, 0, s.length(), buffer, policy);
+	}
+
+
+	/**
+	 * Writes a part of a {@link CharSequence} to the {@link Writer} {@code out} replacing special XML tokens by their respective XML entities and handling
+	 * characters that are invalid in XML 1.0 according to {@code policy}. Sequences other than {@link String}s are copied to {@code buffer} in chunks.
+	 * Surrogate pairs are never split across chunks, a high surrogate at the end of the range is considered unpaired.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param s
+	 *            The raw {@link CharSequence}.
+	 * @param offset
+	 *            The offset of the first character to write.
+	 * @param length
+	 *            The number of characters to write.
+	 * @param buffer
+	 *            A buffer for chunks, at least two characters long.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * 
+	 * @throws IOException
+	 * @throws InvalidCharacterException
+	 *             if the range contains an invalid character and the policy is {@link XmlSerializer#INVALID_CHARS_REJECT}.
+	 */
+	static void writeXmlEntityEncodedSequence(Writer out, CharSequence s, int offset, int length, char[] buffer, int policy) throws IOException
+	{
+		if (s instanceof String)
+		{
+			writeXmlEntityEncodedString(out, (String) s, offset, length, policy);
+			return;
+		}
+
+		final int end = offset + length;
+		int pos = offset;
+		while (pos < end)
+		{
+			int count = Math.min(buffer.length, end - pos);
+			for (int i = 0; i < count; ++i)
+			{
+				buffer[i] = s.charAt(pos + i);
+			}
+			if (pos + count < end && Character.isHighSurrogate(buffer[count - 1]))
+			{
+				// don't split a surrogate pair, the high surrogate goes into the next chunk
+				--count;
+			}
+			writeXmlEntityEncodedChars(out, buffer, 0, count, policy);
+			pos += count;
+		}
+	}
+
+
+	/**
+	 * Reads a {@link Reader} to the end in chunks and writes the content to the {@link Writer} {@code out} replacing special XML tokens by their respective
+	 * XML entities. The {@link Reader} is not closed.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param in
+	 *            The {@link Reader} to read from.
+	 * @param buffer
+	 *            A buffer for chunks.
+	 * 
+	 * @throws IOException
+	 */
+	public static void writeXmlEntityEncodedReader(Writer out, Reader in, char[] buffer) throws IOException
+	{
+		writeXmlEntityEncodedReader(out, in, buffer, XmlSerializer.INVALID_CHARS_IGNORE);
+	}
+
+
+	/**
+	 * Reads a {@link Reader} to the end in chunks and writes the content to the {@link Writer} {@code out} replacing special XML tokens by their respective
+	 * XML entities and handling characters that are invalid in XML 1.0 according to {@code policy}. Surrogate pairs are never split across chunks. The
+	 * {@link Reader} is not closed.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param in
+	 *            The {@link Reader} to read from.
+	 * @param buffer
+	 *            A buffer for chunks, at least two characters long.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * 
+	 * @throws IOException
+	 * @throws InvalidCharacterException
+	 *             if the content contains an invalid character and the policy is {@link XmlSerializer#INVALID_CHARS_REJECT}.
+	 */
+	public static void writeXmlEntityEncodedReader(Writer out, Reader in, char[] buffer, int policy) throws IOException
+	{
+		char high = writeXmlEntityEncodedReaderOpenEnded(out, in, buffer, policy);
+		if (high != 0)
+		{
+			buffer[0] = high;
+			writeXmlEntityEncodedChars(out, buffer, 0, 1, policy);
+		}
+	}
+
+
+	/**
+	 * Like {@link #writeXmlEntityEncodedReader(Writer, Reader, char[], int)}, but a high surrogate at the very end of the content is not written. It's returned
+	 * instead, so the caller can pair it with whatever follows.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param in
+	 *            The {@link Reader} to read from.
+	 * @param buffer
+	 *            A buffer for chunks, at least two characters long.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * @return The high surrogate at the end of the content or {@code 0} if the content doesn't end with a high surrogate.
+	 * 
+	 * @throws IOException
+	 * @throws InvalidCharacterException
+	 *             if the content contains an invalid character and the policy is {@link XmlSerializer#INVALID_CHARS_REJECT}.
+	 */
+	static char writeXmlEntityEncodedReaderOpenEnded(Writer out, Reader in, char[] buffer, int policy) throws IOException
+	{
+		int carry = 0;
+		int count;
+		while ((count = carry == 0 ? in.read(buffer) : in.read(buffer, carry, buffer.length - carry)) >= 0)
+		{
+			count += carry;
+			carry = 0;
+			if (count > 0 && Character.isHighSurrogate(buffer[count - 1]))
+			{
+				// keep the high surrogate for the next chunk, it might be followed by a low surrogate
+				carry = 1;
+			}
+			writeXmlEntityEncodedChars(out, buffer, 0, count - carry, policy);
+			if (carry > 0)
+			{
+				buffer[0] = buffer[count - 1];
+			}
+		}
+		return carry > 0 ? buffer[0] : 0;
+	}
+
+
+	/**
+	 * Returns whether the given character below ' ' is invalid in XML 1.0.
+	 */
+	private static boolean isInvalidControl(char c)
+	{
+		return c != '\t' && c != '\n' && c != '\r';
+	}
+
+
+	/**
+	 * Write the XML entity of a special character or handle an invalid character.
+	 */
+	private static void writeEntityOrInvalid(Writer out, char c, int policy) throws IOException
+	{
+		if (c < ' ' || c >= '\ud800')
+		{
+			writeInvalid(out, c, policy);
+		}
+		else
+		{
+			writeEntity(out, c);
+		}
+	}
+
+
+	/**
+	 * Handle a character that is invalid in XML 1.0 according to the given policy.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param c
+	 *            The invalid character.
+	 * @param policy
+	 *            One of the {@code INVALID_CHARS_*} policies of {@link XmlSerializer}.
+	 * @throws IOException
+	 * @throws InvalidCharacterException
+	 *             if the policy is {@link XmlSerializer#INVALID_CHARS_REJECT}.
+	 */
+	static void writeInvalid(Writer out, char c, int policy) throws IOException
+	{
+		switch (policy)
+		{
+			case XmlSerializer.INVALID_CHARS_REJECT:
+				throw new InvalidCharacterException(c);
+			case XmlSerializer.INVALID_CHARS_REPLACE:
+				out.write(REPLACEMENT_CHARACTER);
+				break;
+			case XmlSerializer.INVALID_CHARS_STRIP:
+				// drop it
+				break;
+			default:
+				out.write(c);
+		}
+	}
+
+
+	/**
+	 * Write the XML entity of a special character.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param c
+	 *            One of the characters in {@link #XML_SPECIAL_CHARS}.
+	 * @throws IOException
+	 */
+	private static void writeEntity(Writer out, char c) throws IOException
+	{
+		switch (c)
+		{
+			case '"':
+				out.write(XML_ENTITY_QUOT);
+				break;
+			case '&':
+				out.write(XML_ENTITY_AMP);
+				break;
+			case '\'':
+				out.write(XML_ENTITY_APOS);
+				break;
+			case '<':
+				out.write(XML_ENTITY_LT);
+				break;
+			case '>':
+				out.write(XML_ENTITY_GT);
+				break;
+		}
+	}
+
+
+	/**
+	 * Writes the decimal representation of a long to the {@link Writer} {@code out}. The digits are written directly, without creating a {@link String} and
+	 * without entity encoding (which they never need).
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param value
+	 *            The value to write.
+	 * @throws IOException
+	 */
+	public static void writeLong(Writer out, long value) throws IOException
+	{
+		if (out instanceof XmlUtf8Writer)
+		{
+			// write the digits right into the byte buffer
+			((XmlUtf8Writer) out).writeLong(value);
+			return;
+		}
+
+		if (value < 0)
+		{
+			if (value == Long.MIN_VALUE)
+			{
+				out.write(LONG_MIN_VALUE);
+				return;
+			}
+			out.write('-');
+			value = -value;
+		}
+
+		for (int i = digitCount(value) - 1; i >= 0; --i)
+		{
+			long power = POWERS_OF_TEN[i];
+			int digit = (int) (value / power);
+			out.write('0' + digit);
+			value -= digit * power;
+		}
+	}
+
+
+	/**
+	 * Writes a double to the {@link Writer} {@code out} in the format of {@link Double#toString(double)}, without entity encoding (which it never needs).
+	 * Integral values below 10<sup>7</sup> are written without creating a {@link String}.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param value
+	 *            The value to write.
+	 * @throws IOException
+	 */
+	public static void writeDouble(Writer out, double value) throws IOException
+	{
+		if (value == (long) value && Math.abs(value) < PLAIN_DOUBLE_LIMIT && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO_BITS)
+		{
+			writeLong(out, (long) value);
+			out.write(".0");
+		}
+		else
+		{
+			out.write(Double.toString(value));
+		}
+	}
+
+
+	/**
+	 * Writes a primitive value of the given type to the {@link Writer} {@code out}.
+	 * 
+	 * @param out
+	 *            The {@link Writer} to write to.
+	 * @param type
+	 *            The type of the value, one of {@link #PRIMITIVE_LONG}, {@link #PRIMITIVE_DOUBLE} or {@link #PRIMITIVE_BOOLEAN}.
+	 * @param bits
+	 *            The value itself for longs, the raw bits for doubles and {@code 0} or {@code 1} for booleans.
+	 * @throws IOException
+	 */
+	static void writePrimitive(Writer out, int type, long bits) throws IOException
+	{
+		switch (type)
+		{
+			case PRIMITIVE_LONG:
+				writeLong(out, bits);
+				break;
+			case PRIMITIVE_DOUBLE:
+				writeDouble(out, Double.longBitsToDouble(bits));
+				break;
+			case PRIMITIVE_BOOLEAN:
+				out.write(bits != 0 ? "true" : "false");
+				break;
+		}
+	}
+
+
+	/**
+	 * Returns the number of decimal digits of a non-negative long.
+	 * 
+	 * @param value
+	 *            A value {@code >= 0}.
+	 * @return The number of digits, at least 1.
+	 */
+	static int digitCount(long value)
+	{
+		int count = 1;
+		while (count < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[count])
+		{
+			++count;
+		}
+		return count;
 	}
 
 
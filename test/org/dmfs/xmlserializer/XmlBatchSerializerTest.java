@@ -0,0 +1,196 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlBatchSerializerTest
+{
+	private ExecutorService mExecutor;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mExecutor = Executors.newFixedThreadPool(4);
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mExecutor.shutdownNow();
+	}
+
+
+	private static XmlElement document(int i) throws InvalidStateException, IOException, InvalidValueException
+	{
+		XmlElement root = new XmlElement("urn:sync", "request");
+		root.addAttribute("id", i);
+		for (int j = 0; j < i % 7; ++j)
+		{
+			root.add(new XmlElement("urn:sync", "item").addText("item " + j + " of <" + i + ">"));
+		}
+		return root;
+	}
+
+
+	private static String serialize(XmlElement root) throws IOException, InvalidStateException, InvalidValueException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlSerializer serializer = new XmlSerializer(out);
+		serializer.serialize(root);
+		serializer.close();
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+
+	private static void assertResults(int count, byte[][] results) throws Exception
+	{
+		assertEquals(count, results.length);
+		for (int i = 0; i < count; ++i)
+		{
+			assertEquals(serialize(document(i)), new String(results[i], "UTF-8"));
+		}
+	}
+
+
+	@Test
+	public void testSerialize() throws Exception
+	{
+		List<XmlElement> roots = new ArrayList<XmlElement>();
+		for (int i = 0; i < 1000; ++i)
+		{
+			roots.add(document(i));
+		}
+		assertResults(1000, new XmlBatchSerializer(mExecutor, 4).serialize(roots));
+	}
+
+
+	@Test
+	public void testStateIsReused() throws Exception
+	{
+		XmlBatchSerializer batch = new XmlBatchSerializer(mExecutor, 4);
+		for (int round = 0; round < 3; ++round)
+		{
+			List<XmlElement> roots = new ArrayList<XmlElement>();
+			for (int i = 0; i < 100; ++i)
+			{
+				roots.add(document(i));
+			}
+			assertResults(100, batch.serialize(roots));
+		}
+	}
+
+
+	@Test
+	public void testSerializables() throws Exception
+	{
+		List<IXmlElementSerializable> roots = new ArrayList<IXmlElementSerializable>();
+		for (int i = 0; i < 50; ++i)
+		{
+			final int index = i;
+			roots.add(new IXmlElementSerializable()
+			{
+				@Override
+				public String getXmlNamespace()
+				{
+					return null;
+				}
+
+
+				@Override
+				public String getXmlTagName()
+				{
+					return "doc";
+				}
+
+
+				@Override
+				public void populateXmlElement(XmlElement adapter) throws InvalidStateException, IOException, InvalidValueException
+				{
+					adapter.addText(index);
+				}
+			});
+		}
+		byte[][] results = new XmlBatchSerializer(mExecutor, 4).serializeSerializables(roots);
+		for (int i = 0; i < 50; ++i)
+		{
+			assertEquals("<?xml version=\"1.0\" encoding=\"utf-8\" ?><doc>" + i + "</doc>", new String(results[i], "UTF-8"));
+		}
+	}
+
+
+	@Test
+	public void testRejectingExecutor() throws Exception
+	{
+		Executor rejecting = new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+				throw new RejectedExecutionException();
+			}
+		};
+		List<XmlElement> roots = new ArrayList<XmlElement>();
+		for (int i = 0; i < 20; ++i)
+		{
+			roots.add(document(i));
+		}
+		assertResults(20, new XmlBatchSerializer(rejecting, 2).serialize(roots));
+	}
+
+
+	@Test
+	public void testEmpty() throws Exception
+	{
+		assertEquals(0, new XmlBatchSerializer(mExecutor, 4).serialize(Collections.<XmlElement> emptyList()).length);
+	}
+
+
+	@Test
+	public void testFailureDoesNotSpoilState() throws Exception
+	{
+		// a single thread, so the failed document and the next ones share the state
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		try
+		{
+			XmlBatchSerializer batch = new XmlBatchSerializer(single, 1);
+			List<XmlElement> roots = new ArrayList<XmlElement>();
+			roots.add(new XmlElement("root").add(new XmlElement("in valid")));
+			try
+			{
+				batch.serialize(roots);
+				throw new AssertionError("invalid name not detected");
+			}
+			catch (InvalidValueException e)
+			{
+				// expected
+			}
+
+			roots.clear();
+			for (int i = 0; i < 10; ++i)
+			{
+				roots.add(document(i));
+			}
+			assertResults(10, batch.serialize(roots));
+		}
+		finally
+		{
+			single.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+
+public class XmlBinaryTextTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+
+	private String serialize(XmlBinaryText node) throws IOException, InvalidStateException, InvalidValueException
+	{
+		StringWriter sw = new StringWriter();
+		XmlSerializer s = new XmlSerializer(sw);
+		s.serialize(new XmlElement("root").add(node));
+		s.close();
+		String xml = sw.toString();
+		assertTrue(xml.startsWith(XML + "<root>"));
+		return xml.substring(XML.length() + 6, xml.length() - 7);
+	}
+
+
+	private static byte[] data(int length)
+	{
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; ++i)
+		{
+			data[i] = (byte) (i * 31 + 7);
+		}
+		return data;
+	}
+
+
+	/**
+	 * A simple reference implementation.
+	 */
+	private static String base64(byte[] data)
+	{
+		String digits = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < data.length; i += 3)
+		{
+			int b0 = data[i] & 0xff;
+			int b1 = i + 1 < data.length ? data[i + 1] & 0xff : 0;
+			int b2 = i + 2 < data.length ? data[i + 2] & 0xff : 0;
+			sb.append(digits.charAt(b0 >> 2));
+			sb.append(digits.charAt((b0 & 3) << 4 | b1 >> 4));
+			sb.append(i + 1 < data.length ? digits.charAt((b1 & 15) << 2 | b2 >> 6) : '=');
+			sb.append(i + 2 < data.length ? digits.charAt(b2 & 63) : '=');
+		}
+		return sb.toString();
+	}
+
+
+	@Test
+	public void testBase64Vectors() throws IOException, InvalidStateException, InvalidValueException
+	{
+		String[] input = { "", "f", "fo", "foo", "foob", "fooba", "foobar" };
+		String[] output = { "", "Zg==", "Zm8=", "Zm9v", "Zm9vYg==", "Zm9vYmE=", "Zm9vYmFy" };
+		for (int i = 0; i < input.length; ++i)
+		{
+			byte[] bytes = input[i].getBytes("UTF-8");
+			assertEquals(output[i], serialize(new XmlBinaryText(new ByteArrayInputStream(bytes), XmlBinaryText.ENCODING_BASE64)));
+			assertEquals(output[i], serialize(new XmlBinaryText(ByteBuffer.wrap(bytes), XmlBinaryText.ENCODING_BASE64)));
+		}
+	}
+
+
+	@Test
+	public void testHex() throws IOException, InvalidStateException, InvalidValueException
+	{
+		assertEquals("00FF7F10", serialize(new XmlBinaryText(ByteBuffer.wrap(new byte[] { 0, (byte) 0xff, 0x7f, 0x10 }), XmlBinaryText.ENCODING_HEX)));
+		assertEquals("00FF\n7F10", serialize(new XmlBinaryText(ByteBuffer.wrap(new byte[] { 0, (byte) 0xff, 0x7f, 0x10 }), XmlBinaryText.ENCODING_HEX)
+			.setLineLength(4)));
+	}
+
+
+	@Test
+	public void testLargeStream() throws IOException, InvalidStateException, InvalidValueException
+	{
+		byte[] data = data(100001);
+
+		// a stream that returns small, odd sized chunks
+		InputStream in = new FilterInputStream(new ByteArrayInputStream(data))
+		{
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException
+			{
+				return super.read(b, off, Math.min(len, 1000));
+			}
+		};
+		assertEquals(base64(data), serialize(new XmlBinaryText(in, XmlBinaryText.ENCODING_BASE64)));
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data).flip();
+		assertEquals(base64(data), serialize(new XmlBinaryText(direct, XmlBinaryText.ENCODING_BASE64)));
+		assertEquals(data.length, direct.remaining());
+	}
+
+
+	@Test
+	public void testLineWrapping() throws IOException, InvalidStateException, InvalidValueException
+	{
+		byte[] data = data(10000);
+		String encoded = base64(data);
+		String wrapped = serialize(new XmlBinaryText(ByteBuffer.wrap(data), XmlBinaryText.ENCODING_BASE64).setLineLength(76));
+		String[] lines = wrapped.split("\n");
+		for (int i = 0; i < lines.length - 1; ++i)
+		{
+			assertEquals(76, lines[i].length());
+		}
+		assertEquals(encoded, wrapped.replace("\n", ""));
+	}
+
+
+	@Test
+	public void testMappedFile() throws IOException, InvalidStateException, InvalidValueException
+	{
+		byte[] data = data(20000);
+		File file = File.createTempFile("binary", ".bin");
+		try
+		{
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write(data);
+			fos.close();
+
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try
+			{
+				byte[] part = new byte[10000];
+				System.arraycopy(data, 5000, part, 0, part.length);
+				assertEquals(base64(part), serialize(new XmlBinaryText(raf.getChannel(), 5000, 10000, XmlBinaryText.ENCODING_BASE64)));
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLineLength() throws InvalidStateException
+	{
+		new XmlBinaryText(ByteBuffer.allocate(1), XmlBinaryText.ENCODING_BASE64).setLineLength(75);
+	}
+}
@@ -0,0 +1,118 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+
+public class XmlCDataTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private XmlSerializer s;
+	private StringWriter sw;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sw = new StringWriter();
+		s = new XmlSerializer(sw);
+	}
+
+
+	/**
+	 * Parse the result and return the text content of the root element.
+	 */
+	private String parsedText() throws ParserConfigurationException, SAXException, IOException
+	{
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(sw.toString())));
+		return doc.getDocumentElement().getTextContent();
+	}
+
+
+	@Test
+	public void testCData() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlCData cdata = new XmlCData("<b>&</b>").add("x");
+		XmlElement root = new XmlElement("root");
+		s.serialize(root.add(cdata));
+		cdata.add(new StringBuilder("<i>"));
+		s.close();
+		assertEquals(XML + "<root><![CDATA[<b>&</b>x<i>]]></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testEmpty() throws IOException, InvalidStateException, InvalidValueException
+	{
+		s.serialize(new XmlElement("root").add(new XmlCData(null)).add(new XmlCData(null, XmlCData.MODE_AUTO)));
+		s.close();
+		assertEquals(XML + "<root><![CDATA[]]></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testSplit() throws IOException, InvalidStateException, InvalidValueException, ParserConfigurationException, SAXException
+	{
+		XmlCData cdata = new XmlCData("a]]>b");
+		XmlElement root = new XmlElement("root");
+		s.serialize(root.add(cdata));
+		// split across calls
+		cdata.add("]").add("]").add(">c]]").add("]>");
+		s.close();
+		assertEquals(XML + "<root><![CDATA[a]]]]><![CDATA[>b]]]]><![CDATA[>c]]]]]><![CDATA[>]]></root>", sw.toString());
+		assertEquals("a]]>b]]>c]]]>", parsedText());
+	}
+
+
+	@Test
+	public void testAuto() throws IOException, InvalidStateException, InvalidValueException, ParserConfigurationException, SAXException
+	{
+		XmlCData cdata = new XmlCData("a<b", XmlCData.MODE_AUTO);
+		XmlElement root = new XmlElement("root");
+		s.serialize(root.add(cdata));
+		cdata.add("<p>&amp;</p>");
+		cdata.add("plain");
+		s.close();
+		assertEquals(XML + "<root>a&lt;b<![CDATA[<p>&amp;</p>]]>plain</root>", sw.toString());
+		assertEquals("a<b<p>&amp;</p>plain", parsedText());
+	}
+
+
+	@Test
+	public void testLargeReader() throws IOException, InvalidStateException, InvalidValueException, ParserConfigurationException, SAXException
+	{
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 5000; ++i)
+		{
+			content.append("<td>").append(i).append("]]></td>");
+		}
+		char[] chars = content.toString().toCharArray();
+		s.serialize(new XmlElement("root").add(new XmlCData(null, XmlCData.MODE_AUTO).add(new StringReader(content.toString()))
+			.add(chars, 0, chars.length)));
+		s.close();
+		assertEquals(content.toString() + content.toString(), parsedText());
+	}
+
+
+	@Test(expected = InvalidStateException.class)
+	public void testAddToClosed() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlCData cdata = new XmlCData("a");
+		s.serialize(new XmlElement("root").add(cdata));
+		s.close();
+		cdata.add("b");
+	}
+}
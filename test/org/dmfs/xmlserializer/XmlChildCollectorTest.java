@@ -0,0 +1,205 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlChildCollectorTest
+{
+	private ExecutorService mExecutor;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mExecutor = Executors.newFixedThreadPool(4);
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mExecutor.shutdownNow();
+	}
+
+
+	private static XmlElement item(int i) throws Exception
+	{
+		return new XmlElement("DAV:", "href").addText("/item-" + i + "?a&b");
+	}
+
+
+	/**
+	 * Fills a segment per range on the executor, just like a parallel stream does, and merges the segments pairwise in encounter order.
+	 */
+	private XmlSegment collect(final XmlChildCollector collector, int count, int segments) throws Exception
+	{
+		List<Future<XmlSegment>> futures = new ArrayList<Future<XmlSegment>>();
+		for (int s = 0; s < segments; ++s)
+		{
+			final int start = count * s / segments;
+			final int end = count * (s + 1) / segments;
+			futures.add(mExecutor.submit(new Callable<XmlSegment>()
+			{
+				@Override
+				public XmlSegment call() throws Exception
+				{
+					XmlSegment segment = collector.newSegment();
+					for (int i = start; i < end; ++i)
+					{
+						segment.add(item(i));
+					}
+					return segment;
+				}
+			}));
+		}
+
+		List<XmlSegment> results = new ArrayList<XmlSegment>();
+		for (Future<XmlSegment> future : futures)
+		{
+			results.add(future.get());
+		}
+		while (results.size() > 1)
+		{
+			List<XmlSegment> merged = new ArrayList<XmlSegment>();
+			for (int i = 0; i < results.size(); i += 2)
+			{
+				merged.add(i + 1 < results.size() ? results.get(i).append(results.get(i + 1)) : results.get(i));
+			}
+			results = merged;
+		}
+		return results.get(0);
+	}
+
+
+	@Test
+	public void testCollect() throws Exception
+	{
+		StringWriter expected = new StringWriter();
+		XmlSerializer serializer = new XmlSerializer(expected);
+		XmlElement root = new XmlElement("DAV:", "multistatus");
+		serializer.serialize(root);
+		for (int i = 0; i < 1000; ++i)
+		{
+			root.add(item(i));
+		}
+		root.add(new XmlElement("DAV:", "sync-token").addText("1"));
+		serializer.close();
+
+		StringWriter actual = new StringWriter();
+		serializer = new XmlSerializer(actual);
+		root = new XmlElement("DAV:", "multistatus");
+		serializer.serialize(root);
+		XmlChildCollector children = new XmlChildCollector();
+		root.add(children);
+		children.write(collect(children, 1000, 7));
+		root.add(new XmlElement("DAV:", "sync-token").addText("1"));
+		serializer.close();
+
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+
+	@Test
+	public void testCollectTwice() throws Exception
+	{
+		StringWriter out = new StringWriter();
+		XmlSerializer serializer = new XmlSerializer(out);
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+		XmlChildCollector children = new XmlChildCollector();
+		root.add(children);
+		XmlSegment segment = children.newSegment().add(new XmlElement("a")).add(new XmlText("b"));
+		children.write(segment);
+		// the segment has been emptied
+		children.write(segment);
+		children.write(children.newSegment().append(children.newSegment()).add(new XmlElement("c")));
+		serializer.close();
+
+		assertEquals("<?xml version=\"1.0\" encoding=\"utf-8\" ?><root><a/>b<c/></root>", out.toString());
+	}
+
+
+	@Test
+	public void testUnboundNamespace() throws Exception
+	{
+		XmlSerializer serializer = new XmlSerializer(new StringWriter());
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+		XmlChildCollector children = new XmlChildCollector();
+		root.add(children);
+		XmlSegment segment = children.newSegment().add(new XmlElement("a")).append(children.newSegment().add(new XmlElement("urn:unbound", "b")));
+		try
+		{
+			children.write(segment);
+			fail("unbound namespace not detected");
+		}
+		catch (InvalidValueException e)
+		{
+			// expected
+		}
+	}
+
+
+	@Test
+	public void testNotWritten() throws Exception
+	{
+		XmlChildCollector children = new XmlChildCollector();
+		XmlSegment segment = children.newSegment().add(new XmlElement("a"));
+
+		XmlSerializer serializer = new XmlSerializer(new StringWriter());
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+		root.add(children);
+		try
+		{
+			children.write(segment);
+			fail("node added before the collector has been written");
+		}
+		catch (InvalidStateException e)
+		{
+			// expected
+		}
+	}
+
+
+	@Test
+	public void testClosed() throws Exception
+	{
+		XmlSerializer serializer = new XmlSerializer(new StringWriter());
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+		XmlChildCollector children = new XmlChildCollector();
+		root.add(children);
+		// closes the collector
+		root.add(new XmlElement("next"));
+		try
+		{
+			children.write(children.newSegment().add(new XmlElement("a")));
+			fail("segment written to a closed collector");
+		}
+		catch (InvalidStateException e)
+		{
+			// expected
+		}
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testForeignSegment() throws Exception
+	{
+		new XmlChildCollector().newSegment().append(new XmlChildCollector().newSegment());
+	}
+}
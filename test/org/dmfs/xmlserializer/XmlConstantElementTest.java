@@ -0,0 +1,129 @@
+package org.dmfs.xmlserializer;
+
+import static org.dmfs.xmlserializer.XmlTestUtils.assertXmlEquals;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+
+public class XmlConstantElementTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private final static XmlConstantElement GETETAG = new XmlConstantElement("DAV:", "getetag");
+
+	private final static XmlConstantElement STATUS = new XmlConstantElement("DAV:", "status", "HTTP/1.1 200 <OK>");
+
+	private final static XmlConstantElement COMP = new XmlConstantElement("cal", "comp", null, new XmlConstantAttribute("name", "VEVENT"),
+		new XmlAttribute("x", "type", "a&b"));
+
+	private final static XmlAttribute LANG = new XmlConstantAttribute("lang", "\"en\"");
+
+	private XmlSerializer s;
+	private StringWriter sw;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sw = new StringWriter();
+		s = new XmlSerializer(sw);
+	}
+
+
+	@Test
+	public void testAddToOpenElement() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlElement root = new XmlElement("DAV:", "prop");
+		s.serialize(root);
+		root.add(GETETAG);
+		root.add(new XmlElement("DAV:", "displayname"));
+		root.add(STATUS);
+		root.add(STATUS);
+		s.close();
+		assertEquals(XML + "<A:prop xmlns:A=\"DAV:\"><A:getetag/><A:displayname/><A:status>HTTP/1.1 200 &lt;OK&gt;</A:status>"
+			+ "<A:status>HTTP/1.1 200 &lt;OK&gt;</A:status></A:prop>", sw.toString());
+	}
+
+
+	@Test
+	public void testAddToNewElement() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlElement root = new XmlElement("DAV:", "prop");
+		root.add(GETETAG).add(STATUS).add(LANG);
+		s.serialize(root);
+		s.close();
+		assertEquals(XML + "<A:prop lang=\"&quot;en&quot;\" xmlns:A=\"DAV:\"><A:getetag/><A:status>HTTP/1.1 200 &lt;OK&gt;</A:status></A:prop>", sw.toString());
+	}
+
+
+	@Test
+	public void testNamespaces() throws IOException, InvalidStateException, InvalidValueException, ParserConfigurationException, SAXException
+	{
+		XmlElement root = new XmlElement("DAV:", "prop");
+		s.serialize(root);
+		XmlElement child = new XmlElement("DAV:", "supported");
+		root.add(child);
+		// namespaces are defined in the parent if its start tag is still open
+		child.add(COMP);
+		// otherwise they are defined in the constant element
+		root.add(COMP);
+		s.close();
+		assertXmlEquals(XML + "<A:prop xmlns:A=\"DAV:\"><A:supported xmlns:B=\"cal\" xmlns:C=\"x\"><B:comp name=\"VEVENT\" C:type=\"a&amp;b\"/></A:supported>"
+			+ "<D:comp name=\"VEVENT\" E:type=\"a&amp;b\" xmlns:D=\"cal\" xmlns:E=\"x\"/></A:prop>", sw.toString());
+	}
+
+
+	@Test
+	public void testSharedBetweenSerializers() throws IOException, InvalidStateException, InvalidValueException
+	{
+		StringWriter sw2 = new StringWriter();
+		XmlSerializer s2 = new XmlSerializer(sw2);
+		s2.registerNamespace("other");
+
+		XmlElement root1 = new XmlElement("DAV:", "prop");
+		XmlElement root2 = new XmlElement("DAV:", "prop");
+		s.serialize(root1);
+		s2.serialize(root2);
+		root1.add(GETETAG);
+		root2.add(GETETAG);
+		s.close();
+		s2.close();
+
+		assertEquals(XML + "<A:prop xmlns:A=\"DAV:\"><A:getetag/></A:prop>", sw.toString());
+		// the same instance uses a different prefix in the second document
+		assertTrue(sw2.toString().startsWith(XML + "<B:prop "));
+		assertTrue(sw2.toString().endsWith("><B:getetag/></B:prop>"));
+		assertTrue(sw2.toString().contains(" xmlns:B=\"DAV:\""));
+	}
+
+
+	@Test
+	public void testConstantAttribute() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(new XmlConstantAttribute("ns", "id", "<1>"));
+		s.close();
+		assertEquals(XML + "<root A:id=\"&lt;1&gt;\" xmlns:A=\"ns\"/>", sw.toString());
+	}
+
+
+	@Test(expected = InvalidStateException.class)
+	public void testAddToClosedElement() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlElement root = new XmlElement("root");
+		XmlElement child = new XmlElement("child");
+		s.serialize(root);
+		root.add(child);
+		root.add(GETETAG);
+		child.add(GETETAG);
+	}
+}
@@ -0,0 +1,93 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+
+public class XmlDateTimeFormatTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+
+	private static SimpleDateFormat reference(String pattern)
+	{
+		SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format;
+	}
+
+
+	@Test
+	public void testFormats()
+	{
+		SimpleDateFormat rfc1123 = reference("EEE, dd MMM yyyy HH:mm:ss 'GMT'");
+		SimpleDateFormat iso8601 = reference("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		SimpleDateFormat iso8601Millis = reference("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		SimpleDateFormat dateTime = reference("yyyyMMdd'T'HHmmss'Z'");
+
+		long[] timestamps = { 0, 1, 999, 1000, 784111777000L, 951782400000L, 951868799999L, 4102444800000L, 253402300799999L, -1, -86400001, -2208988800000L };
+		for (long millis : timestamps)
+		{
+			Date date = new Date(millis);
+			assertEquals(rfc1123.format(date), XmlDateTimeFormat.RFC_1123.format(millis));
+			assertEquals(iso8601.format(date), XmlDateTimeFormat.ISO_8601.format(millis));
+			assertEquals(iso8601Millis.format(date), XmlDateTimeFormat.ISO_8601_MILLIS.format(millis));
+			assertEquals(dateTime.format(date), XmlDateTimeFormat.UTC_DATE_TIME.format(millis));
+		}
+	}
+
+
+	@Test
+	public void testYears()
+	{
+		assertEquals("0005-03-04T05:06:07Z", XmlDateTimeFormat.ISO_8601.format(-62003991233000L));
+		assertEquals("0999-03-04T05:06:07Z", XmlDateTimeFormat.ISO_8601.format(-30636384833000L));
+		assertEquals("10000-01-01T00:00:00Z", XmlDateTimeFormat.ISO_8601.format(253402300800000L));
+		assertEquals("100000101T000000Z", XmlDateTimeFormat.UTC_DATE_TIME.format(253402300800000L));
+	}
+
+
+	@Test
+	public void testAllDays()
+	{
+		SimpleDateFormat rfc1123 = reference("EEE, dd MMM yyyy HH:mm:ss 'GMT'");
+		// every day between 1896 and 2104 at varying times of the day
+		for (long millis = -2335219200000L; millis < 4260211200000L; millis += 86400000L + 37001)
+		{
+			assertEquals(rfc1123.format(new Date(millis)), XmlDateTimeFormat.RFC_1123.format(millis));
+		}
+	}
+
+
+	@Test
+	public void testCachedSecond()
+	{
+		assertEquals("2014-02-03T04:05:06.007Z", XmlDateTimeFormat.ISO_8601_MILLIS.format(1391400306007L));
+		assertEquals("2014-02-03T04:05:06.999Z", XmlDateTimeFormat.ISO_8601_MILLIS.format(1391400306999L));
+		assertEquals("2014-02-03T04:05:07.000Z", XmlDateTimeFormat.ISO_8601_MILLIS.format(1391400307000L));
+		assertEquals("2014-02-03T04:05:06.500Z", XmlDateTimeFormat.ISO_8601_MILLIS.format(1391400306500L));
+	}
+
+
+	@Test
+	public void testNodes() throws IOException, InvalidStateException, InvalidValueException
+	{
+		StringWriter sw = new StringWriter();
+		XmlSerializer s = new XmlSerializer(sw);
+		XmlElement root = new XmlElement("prop").add(new XmlDateTimeAttribute("dtstamp", XmlDateTimeFormat.UTC_DATE_TIME, 784111777000L));
+		s.serialize(root);
+		root.add(new XmlElement("getlastmodified").add(new XmlDateTimeText(XmlDateTimeFormat.RFC_1123, 784111777000L)));
+		root.add(new XmlElement("creationdate").add(new XmlDateTimeText(XmlDateTimeFormat.ISO_8601, new Date(784111777000L))));
+		s.close();
+		assertEquals(XML + "<prop dtstamp=\"19941106T084937Z\"><getlastmodified>Sun, 06 Nov 1994 08:49:37 GMT</getlastmodified>"
+			+ "<creationdate>1994-11-06T08:49:37Z</creationdate></prop>", sw.toString());
+	}
+}
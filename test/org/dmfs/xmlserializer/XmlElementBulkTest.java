@@ -0,0 +1,133 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+
+public class XmlElementBulkTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private XmlSerializer s;
+	private StringWriter sw;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sw = new StringWriter();
+		s = new XmlSerializer(sw);
+	}
+
+
+	private static List<XmlAbstractNode> children(String ns) throws InvalidStateException, IOException, InvalidValueException
+	{
+		List<XmlAbstractNode> result = new ArrayList<XmlAbstractNode>();
+		result.add(new XmlElement(ns, "a").addText("1"));
+		result.add(new XmlText("&"));
+		result.add(new XmlElement(ns, "b"));
+		return result;
+	}
+
+
+	@Test
+	public void testAddAllNew() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlElement root = new XmlElement("root").add(new XmlElement("first")).addAll(children(null));
+		s.serialize(root);
+		s.close();
+		assertEquals(XML + "<root><first/><a>1</a>&amp;<b/></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testAddAllOpen() throws IOException, InvalidStateException, InvalidValueException, ParserConfigurationException, SAXException
+	{
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.addAll(children("urn:test"));
+		root.addAll(children(null));
+		root.addAll(new ArrayList<XmlAbstractNode>());
+		root.add(new XmlElement("last"));
+		s.close();
+		XmlTestUtils.assertXmlEquals(XML + "<root xmlns:A=\"urn:test\"><A:a>1</A:a>&amp;<A:b/><a>1</a>&amp;<b/><last/></root>",
+			sw.toString());
+	}
+
+
+	@Test
+	public void testAddAllSerializables() throws IOException, InvalidStateException, InvalidValueException
+	{
+		IXmlElementSerializable item = new IXmlElementSerializable()
+		{
+			@Override
+			public String getXmlNamespace()
+			{
+				return null;
+			}
+
+
+			@Override
+			public String getXmlTagName()
+			{
+				return "item";
+			}
+
+
+			@Override
+			public void populateXmlElement(XmlElement adapter) throws InvalidStateException, IOException, InvalidValueException
+			{
+				adapter.addText("x");
+			}
+		};
+		s.serialize(new XmlElement("root").addAll(Arrays.asList(item, item)));
+		s.close();
+		assertEquals(XML + "<root><item>x</item><item>x</item></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testAddAttributes() throws IOException, InvalidStateException, InvalidValueException
+	{
+		Map<String, String> attributes = new LinkedHashMap<String, String>();
+		attributes.put("a", "1");
+		attributes.put("b", "<2>");
+
+		XmlElement root = new XmlElement("root").addAttribute("a", "0").addAttributes(attributes);
+		s.serialize(root);
+		XmlElement child = new XmlElement("child");
+		root.add(child);
+		child.addAttributes(attributes);
+		child.addAttributes(attributes);
+		s.close();
+		String result = sw.toString();
+		assertTrue(result, result.startsWith(XML + "<root "));
+		assertTrue(result, result.contains(" a=\"1\""));
+		assertTrue(result, result.contains(" b=\"&lt;2&gt;\""));
+		assertFalse(result, result.contains("a=\"0\""));
+		assertTrue(result, result.endsWith("><child a=\"1\" b=\"&lt;2&gt;\"/></root>"));
+	}
+
+
+	@Test(expected = InvalidStateException.class)
+	public void testAddAttributesClosedStartTag() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(new XmlText("x"));
+		root.addAttributes(new LinkedHashMap<String, String>());
+	}
+}
@@ -0,0 +1,183 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlElementParallelTest
+{
+	private ExecutorService mExecutor;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mExecutor = Executors.newFixedThreadPool(4);
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mExecutor.shutdownNow();
+	}
+
+
+	private static List<XmlAbstractNode> children(int count) throws InvalidStateException, IOException, InvalidValueException
+	{
+		List<XmlAbstractNode> result = new ArrayList<XmlAbstractNode>();
+		for (int i = 0; i < count; ++i)
+		{
+			XmlElement response = new XmlElement("DAV:", "response");
+			response.add(new XmlElement("DAV:", "href").addText("/item/" + i + "?a&b"));
+			XmlElement prop = new XmlElement("DAV:", "prop");
+			prop.add(new XmlElement("urn:ns" + (i % 3), "value").addAttribute("n", i).addText("<" + i + ">"));
+			response.add(new XmlElement("DAV:", "propstat").add(prop));
+			result.add(response);
+			if (i % 5 == 0)
+			{
+				result.add(new XmlText("text " + i));
+			}
+		}
+		return result;
+	}
+
+
+	private static String serialize(Executor executor, boolean closeStartTag) throws IOException, InvalidStateException, InvalidValueException
+	{
+		StringWriter sw = new StringWriter();
+		XmlSerializer s = new XmlSerializer(sw);
+		XmlElement root = new XmlElement("DAV:", "multistatus");
+		s.serialize(root);
+		if (closeStartTag)
+		{
+			s.registerNamespace("urn:ns0");
+			s.registerNamespace("urn:ns1");
+			s.registerNamespace("urn:ns2");
+			root.add(new XmlElement("DAV:", "first"));
+		}
+		if (executor == null)
+		{
+			root.addAll(children(100));
+			root.addAll(children(10));
+		}
+		else
+		{
+			root.addAll(children(100), executor);
+			root.addAll(children(10), executor);
+		}
+		root.add(new XmlElement("DAV:", "last"));
+		s.close();
+		return sw.toString();
+	}
+
+
+	@Test
+	public void testIdenticalToSequential() throws IOException, InvalidStateException, InvalidValueException
+	{
+		assertEquals(serialize(null, false), serialize(mExecutor, false));
+	}
+
+
+	@Test
+	public void testIdenticalToSequentialWithClosedStartTag() throws IOException, InvalidStateException, InvalidValueException
+	{
+		assertEquals(serialize(null, true), serialize(mExecutor, true));
+	}
+
+
+	@Test
+	public void testNewElement() throws IOException, InvalidStateException, InvalidValueException
+	{
+		StringWriter sequential = new StringWriter();
+		XmlSerializer s = new XmlSerializer(sequential);
+		s.serialize(new XmlElement("root").addAll(children(20)));
+		s.close();
+
+		StringWriter parallel = new StringWriter();
+		s = new XmlSerializer(parallel);
+		s.serialize(new XmlElement("root").addAll(children(20), mExecutor));
+		s.close();
+
+		assertEquals(sequential.toString(), parallel.toString());
+	}
+
+
+	@Test
+	public void testRejectingExecutor() throws IOException, InvalidStateException, InvalidValueException
+	{
+		Executor rejecting = new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+				throw new RejectedExecutionException();
+			}
+		};
+		assertEquals(serialize(null, false), serialize(rejecting, false));
+	}
+
+
+	@Test
+	public void testPooledNodes() throws IOException, InvalidStateException, InvalidValueException
+	{
+		StringWriter sw = new StringWriter();
+		XmlSerializer s = new XmlSerializer(sw);
+		s.enableNodePool(16);
+		XmlElement root = s.element("root");
+		s.serialize(root);
+		List<XmlAbstractNode> nodes = new ArrayList<XmlAbstractNode>();
+		for (int i = 0; i < 50; ++i)
+		{
+			nodes.add(s.element("item").add(s.text(String.valueOf(i))));
+		}
+		root.addAll(nodes, mExecutor);
+		s.close();
+
+		StringBuilder expected = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\" ?><root>");
+		for (int i = 0; i < 50; ++i)
+		{
+			expected.append("<item>").append(i).append("</item>");
+		}
+		expected.append("</root>");
+		assertEquals(expected.toString(), sw.toString());
+	}
+
+
+	@Test(expected = InvalidValueException.class)
+	public void testUnboundNamespace() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlSerializer s = new XmlSerializer(new StringWriter());
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(new XmlText("x"));
+		List<XmlAbstractNode> nodes = new ArrayList<XmlAbstractNode>();
+		nodes.add(new XmlElement("urn:unbound", "a"));
+		root.addAll(nodes, mExecutor);
+	}
+
+
+	@Test(expected = InvalidStateException.class)
+	public void testClosed() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlSerializer s = new XmlSerializer(new StringWriter());
+		XmlElement root = new XmlElement("root");
+		XmlElement child = new XmlElement("child");
+		root.add(child);
+		s.serialize(root);
+		s.close();
+		root.addAll(children(1), mExecutor);
+	}
+}
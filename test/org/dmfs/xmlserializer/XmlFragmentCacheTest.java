@@ -0,0 +1,128 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlFragmentCacheTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private XmlFragmentCache cache;
+
+	private int populated;
+
+	private final IXmlElementSerializable reportSet = new IXmlElementSerializable()
+	{
+
+		public String getXmlNamespace()
+		{
+			return "DAV:";
+		}
+
+
+		public String getXmlTagName()
+		{
+			return "supported-report-set";
+		}
+
+
+		public void populateXmlElement(XmlElement adapter) throws IOException, InvalidStateException, InvalidValueException
+		{
+			++populated;
+			adapter.add(new XmlElement("DAV:", "report").add(new XmlElement("cal", "calendar-multiget")));
+			adapter.add(new XmlElement("DAV:", "report").add(new XmlElement("DAV:", "sync-collection")));
+		}
+	};
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		cache = new XmlFragmentCache(1000);
+		populated = 0;
+	}
+
+
+	private String serialize(boolean registerCal) throws IOException, InvalidStateException, InvalidValueException
+	{
+		StringWriter sw = new StringWriter();
+		XmlSerializer s = new XmlSerializer(sw);
+		s.registerNamespace("DAV:");
+		if (registerCal)
+		{
+			s.registerNamespace("cal");
+		}
+		XmlElement root = new XmlElement("DAV:", "prop");
+		s.serialize(root);
+		root.add(new XmlElement("DAV:", "displayname"));
+		root.add(cache.fragment("reports", reportSet));
+		s.close();
+		return sw.toString();
+	}
+
+
+	@Test
+	public void testHit() throws IOException, InvalidStateException, InvalidValueException
+	{
+		String expected = XML + "<A:prop xmlns:A=\"DAV:\"><A:displayname/><A:supported-report-set xmlns:B=\"cal\"><A:report><B:calendar-multiget/></A:report>"
+			+ "<A:report><A:sync-collection/></A:report></A:supported-report-set></A:prop>";
+
+		assertEquals(expected, serialize(false));
+		assertEquals(1, populated);
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		assertEquals(expected, serialize(false));
+		assertEquals(expected, serialize(false));
+		assertEquals(1, populated);
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+
+	@Test
+	public void testBindings() throws IOException, InvalidStateException, InvalidValueException
+	{
+		serialize(false);
+		// different prefix bindings result in a new variant
+		String xml = serialize(true);
+		assertTrue(xml.endsWith("><A:displayname/><A:supported-report-set><A:report><B:calendar-multiget/></A:report>"
+			+ "<A:report><A:sync-collection/></A:report></A:supported-report-set></A:prop>"));
+		assertEquals(2, populated);
+		assertEquals(2, cache.getMisses());
+
+		serialize(true);
+		serialize(false);
+		assertEquals(2, populated);
+		assertEquals(2, cache.getHits());
+	}
+
+
+	@Test
+	public void testEviction() throws IOException, InvalidStateException, InvalidValueException
+	{
+		cache = new XmlFragmentCache(200);
+		serialize(false);
+		int size = cache.getSize();
+		assertTrue(size > 0);
+
+		StringWriter sw = new StringWriter();
+		XmlSerializer s = new XmlSerializer(sw);
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(cache.fragment("other", reportSet));
+		s.close();
+
+		// the first entry must have been evicted
+		assertTrue(cache.getSize() <= 200);
+		serialize(false);
+		assertEquals(3, populated);
+		assertEquals(0, cache.getHits());
+	}
+}
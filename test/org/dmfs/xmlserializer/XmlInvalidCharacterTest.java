@@ -0,0 +1,197 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlInvalidCharacterTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	/**
+	 * Valid text with a tab, line breaks, a surrogate pair and special characters.
+	 */
+	private final static String VALID = "a\tb\r\n\ud83d\ude00<&>\ufffd\ue000";
+
+	/**
+	 * Text with a control character, an unpaired high and low surrogate and U+FFFF.
+	 */
+	private final static String INVALID = "a\u0001b\ud83dc\ude00d\uffff";
+
+	private XmlSerializer s;
+	private StringWriter sw;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sw = new StringWriter();
+		s = new XmlSerializer(sw);
+	}
+
+
+	private String serialize(int policy, String text) throws IOException, InvalidStateException, InvalidValueException
+	{
+		s.setInvalidCharacterPolicy(policy);
+		XmlElement root = new XmlElement("root").addAttribute("attr", text);
+		s.serialize(root);
+		root.add(new XmlText(text));
+		root.add(new XmlText(null).add(new StringBuilder(text)).add(new StringReader(text)));
+		root.add(new XmlCData(text));
+		s.close();
+		return sw.toString();
+	}
+
+
+	@Test
+	public void testIgnore() throws IOException, InvalidStateException, InvalidValueException
+	{
+		assertEquals(XML + "<root attr=\"a\u0001b\ud83dc\ude00d\uffff\">a\u0001b\ud83dc\ude00d\uffffa\u0001b\ud83dc\ude00d\uffffa\u0001b\ud83dc\ude00d\uffff"
+			+ "<![CDATA[a\u0001b\ud83dc\ude00d\uffff]]></root>", serialize(XmlSerializer.INVALID_CHARS_IGNORE, INVALID));
+	}
+
+
+	@Test
+	public void testValid() throws IOException, InvalidStateException, InvalidValueException
+	{
+		String encoded = "a\tb\r\n\ud83d\ude00&lt;&amp;&gt;\ufffd\ue000";
+		assertEquals(XML + "<root attr=\"" + encoded + "\">" + encoded + encoded + encoded + "<![CDATA[" + VALID + "]]></root>",
+			serialize(XmlSerializer.INVALID_CHARS_REJECT, VALID));
+	}
+
+
+	@Test
+	public void testReplace() throws IOException, InvalidStateException, InvalidValueException
+	{
+		String replaced = "a\ufffdb\ufffdc\ufffdd\ufffd";
+		assertEquals(XML + "<root attr=\"" + replaced + "\">" + replaced + replaced + replaced + "<![CDATA[" + replaced + "]]></root>",
+			serialize(XmlSerializer.INVALID_CHARS_REPLACE, INVALID));
+	}
+
+
+	@Test
+	public void testStrip() throws IOException, InvalidStateException, InvalidValueException
+	{
+		assertEquals(XML + "<root attr=\"abcd\">abcdabcdabcd<![CDATA[abcd]]></root>", serialize(XmlSerializer.INVALID_CHARS_STRIP, INVALID));
+	}
+
+
+	@Test
+	public void testReject() throws IOException, InvalidStateException, InvalidValueException
+	{
+		s.setInvalidCharacterPolicy(XmlSerializer.INVALID_CHARS_REJECT);
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		try
+		{
+			root.add(new XmlText("a\u0000"));
+			fail("invalid character not rejected");
+		}
+		catch (InvalidCharacterException e)
+		{
+			assertEquals(0, e.character);
+		}
+	}
+
+
+	@Test
+	public void testSurrogatePairAcrossChunks() throws IOException, InvalidStateException, InvalidValueException
+	{
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 3000; ++i)
+		{
+			text.append("\ud83d\ude00x");
+		}
+		String expected = text.toString();
+		s.setInvalidCharacterPolicy(XmlSerializer.INVALID_CHARS_REJECT);
+		s.serialize(new XmlElement("root").add(new XmlText(null).add(new StringReader(expected)).add(text)).add(
+			new XmlCData(null, XmlCData.MODE_CDATA).add(new StringReader(expected)).add(text)));
+		s.close();
+		assertEquals(XML + "<root>" + expected + expected + "<![CDATA[" + expected + expected + "]]></root>", sw.toString());
+	}
+
+
+	/**
+	 * Writes a surrogate pair split across several writes in every possible way, followed by an unpaired high surrogate at the end of the text.
+	 */
+	private String serializeSplit(int policy) throws IOException, InvalidStateException, InvalidValueException
+	{
+		s.setInvalidCharacterPolicy(policy);
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+
+		XmlText text = new XmlText(null);
+		root.add(text);
+		char[] emoji = "\ud83d\ude00".toCharArray();
+		Writer writer = text.writer();
+		writer.write(emoji, 0, 1);
+		writer.write(emoji, 1, 1);
+		writer.write(emoji[0]);
+		writer.write(emoji[1]);
+		text.add("a\ud83d");
+		text.add("\ude00b");
+		text.add(emoji, 0, 1);
+		text.add(new StringBuilder("\ude00"));
+		text.add(new StringReader("\ud83d"));
+		text.add(new StringReader("\ude00\ud83d"));
+		text.add("<");
+		writer.write('\ude00');
+		writer.write('\ud83d');
+
+		// cached until the node is written
+		root.add(new XmlText("\ud83d").add("\ude00").add(new StringReader("\ud83d")).add(emoji, 1, 1));
+		s.close();
+		return sw.toString();
+	}
+
+
+	@Test
+	public void testSurrogatePairAcrossWrites() throws IOException, InvalidStateException, InvalidValueException
+	{
+		assertEquals(XML + "<root>\ud83d\ude00\ud83d\ude00a\ud83d\ude00b\ud83d\ude00\ud83d\ude00\ufffd&lt;\ufffd\ufffd\ud83d\ude00\ud83d\ude00</root>",
+			serializeSplit(XmlSerializer.INVALID_CHARS_REPLACE));
+	}
+
+
+	@Test
+	public void testSurrogatePairAcrossWritesStrip() throws IOException, InvalidStateException, InvalidValueException
+	{
+		assertEquals(XML + "<root>\ud83d\ude00\ud83d\ude00a\ud83d\ude00b\ud83d\ude00\ud83d\ude00&lt;\ud83d\ude00\ud83d\ude00</root>",
+			serializeSplit(XmlSerializer.INVALID_CHARS_STRIP));
+	}
+
+
+	@Test
+	public void testSurrogatePairAcrossWritesReject() throws IOException, InvalidStateException, InvalidValueException
+	{
+		s.setInvalidCharacterPolicy(XmlSerializer.INVALID_CHARS_REJECT);
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		XmlText text = new XmlText(null);
+		root.add(text);
+		Writer writer = text.writer();
+		writer.write("\ud83d\ude00".toCharArray(), 0, 1);
+		writer.write("\ud83d\ude00".toCharArray(), 1, 1);
+		writer.write('\ud83d');
+		writer.write('\ude00');
+		try
+		{
+			// unpaired at the end of the text
+			writer.write('\ud83d');
+			s.close();
+			fail("unpaired surrogate not detected");
+		}
+		catch (InvalidCharacterException e)
+		{
+			// expected
+		}
+		assertEquals(XML + "<root>\ud83d\ude00\ud83d\ude00", sw.toString());
+	}
+}
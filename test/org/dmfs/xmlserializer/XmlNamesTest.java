@@ -0,0 +1,73 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+public class XmlNamesTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+
+	@After
+	public void tearDown()
+	{
+		XmlSerializer.setNameValidationEnabled(true);
+	}
+
+
+	@Test
+	public void testIsValidName()
+	{
+		String[] valid = { "a", "A", "_a", "a-b.c", "a1", "D:href", "\u00e4\u00f6\u00fc", "x\u00b7", "\u03c0",
+			"\ud800\udc00x", "x\u0300" };
+		for (String name : valid)
+		{
+			assertTrue(name, XmlNames.isValidName(name));
+		}
+
+		String[] invalid = { "", "1a", "-a", ".a", "a b", "a<b", "a&", "a\"", "\u00b7x", "a\u00d7", "\u0300x", "a\ud800" };
+		for (String name : invalid)
+		{
+			assertFalse(name, XmlNames.isValidName(name));
+		}
+	}
+
+
+	@Test(expected = InvalidValueException.class)
+	public void testInvalidTag() throws IOException, InvalidStateException, InvalidValueException
+	{
+		new XmlSerializer(new StringWriter()).serialize(new XmlElement("a b"));
+	}
+
+
+	@Test(expected = InvalidValueException.class)
+	public void testInvalidAttribute() throws IOException, InvalidStateException, InvalidValueException
+	{
+		new XmlSerializer(new StringWriter()).serialize(new XmlElement("root").addAttribute("a=\"", "x"));
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidConstantElement()
+	{
+		new XmlConstantElement(null, "1st");
+	}
+
+
+	@Test
+	public void testDisabled() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlSerializer.setNameValidationEnabled(false);
+		StringWriter sw = new StringWriter();
+		XmlSerializer s = new XmlSerializer(sw);
+		s.serialize(new XmlElement("1st").addAttribute("2nd", "x"));
+		s.close();
+		assertEquals(XML + "<1st 2nd=\"x\"/>", sw.toString());
+	}
+}
@@ -0,0 +1,105 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlNodePoolTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private XmlSerializer s;
+	private StringWriter sw;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sw = new StringWriter();
+		s = new XmlSerializer(sw);
+		s.enableNodePool(16);
+	}
+
+
+	@Test
+	public void testPooledOutput() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlElement root = s.element("ns", "root");
+		s.serialize(root);
+		for (int i = 0; i < 3; ++i)
+		{
+			root.add(s.element("ns2", "row").addAttribute("id", String.valueOf(i)).add(s.element("ns", "value").add(s.text("text" + i))));
+		}
+		s.close();
+		assertEquals(XML + "<A:root xmlns:A=\"ns\" xmlns:B=\"ns2\"><B:row id=\"0\"><A:value>text0</A:value></B:row><B:row id=\"1\"><A:value>text1</A:value></B:row>"
+			+ "<B:row id=\"2\"><A:value>text2</A:value></B:row></A:root>", sw.toString());
+	}
+
+
+	@Test
+	public void testReuse() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlElement root = s.element("root");
+		s.serialize(root);
+
+		XmlElement first = s.element("ns", "first").addAttribute("a", "b");
+		XmlText firstText = s.text("text");
+		first.add(firstText);
+		root.add(first);
+
+		// adding the next child closes the previous one and returns it to the pool
+		root.add(s.element("ns", "second"));
+		XmlElement third = s.element("third");
+		XmlText thirdText = s.text("more text");
+		assertSame(first, third);
+		assertSame(firstText, thirdText);
+
+		// the recycled element must not carry over any state
+		root.add(third.add(thirdText));
+		s.close();
+		assertEquals(XML + "<root xmlns:A=\"ns\"><A:first a=\"b\">text</A:first><A:second/><third>more text</third></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testRecycledElementDropsChildren() throws Exception
+	{
+		XmlElement root = s.element("root");
+		s.serialize(root);
+
+		XmlElement first = s.element("first");
+		first.add(s.text("text"));
+		root.add(first);
+
+		// adding the next child closes the previous one and returns it to the pool
+		root.add(s.element("second"));
+
+		// a pooled element must not keep its former children reachable
+		Field children = XmlElement.class.getDeclaredField("mChildren");
+		children.setAccessible(true);
+		List<?> list = (List<?>) children.get(first);
+		assertTrue(list == null || list.isEmpty());
+		s.close();
+	}
+
+
+	@Test
+	public void testNoPool() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlSerializer s = new XmlSerializer(new StringWriter());
+		XmlElement root = s.element("root");
+		s.serialize(root);
+		XmlElement first = s.element("first");
+		root.add(first);
+		root.add(s.element("second"));
+		assertNotSame(first, s.element("third"));
+		s.close();
+	}
+}
@@ -0,0 +1,167 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+import org.junit.Test;
+
+
+public class XmlNonBlockingOutputTest
+{
+	/**
+	 * A channel that accepts a limited number of bytes until {@link #reset()} is called, like a socket with a full send buffer.
+	 */
+	private static class ThrottledChannel implements WritableByteChannel
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final int capacity;
+		int available;
+
+
+		ThrottledChannel(int capacity)
+		{
+			this.capacity = capacity;
+			available = capacity;
+		}
+
+
+		void reset()
+		{
+			available = capacity;
+		}
+
+
+		@Override
+		public int write(ByteBuffer src)
+		{
+			int len = Math.min(available, src.remaining());
+			for (int i = 0; i < len; ++i)
+			{
+				out.write(src.get());
+			}
+			available -= len;
+			return len;
+		}
+
+
+		@Override
+		public boolean isOpen()
+		{
+			return true;
+		}
+
+
+		@Override
+		public void close()
+		{
+		}
+	}
+
+
+	private static String expected(int count) throws IOException, InvalidStateException, InvalidValueException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlSerializer serializer = new XmlSerializer(out);
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+		for (int i = 0; i < count; ++i)
+		{
+			root.add(new XmlElement("item").addText("item " + i + " \u00e4&"));
+		}
+		serializer.close();
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+
+	@Test
+	public void testResumable() throws IOException, InvalidStateException, InvalidValueException
+	{
+		final int count = 5000;
+		XmlNonBlockingOutput output = new XmlNonBlockingOutput(4096);
+		ThrottledChannel channel = new ThrottledChannel(3000);
+		XmlSerializer serializer = new XmlSerializer(output);
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+
+		int next = 0;
+		int rounds = 0;
+		int maxBuffered = 0;
+		while (next < count)
+		{
+			// produce until the output would block
+			while (!output.wouldBlock() && next < count)
+			{
+				root.add(new XmlElement("item").addText("item " + next + " \u00e4&"));
+				++next;
+			}
+			serializer.flush();
+			maxBuffered = Math.max(maxBuffered, output.buffered());
+			// the channel becomes writable again
+			output.drainTo(channel);
+			channel.reset();
+			++rounds;
+		}
+		serializer.close();
+		while (!output.drainTo(channel))
+		{
+			channel.reset();
+		}
+
+		assertEquals(0, output.buffered());
+		assertTrue(rounds > 10);
+		// the serializer buffers up to 8 KB, the limit is 4 KB
+		assertTrue(String.valueOf(maxBuffered), maxBuffered < 8192 + 4096 + 100);
+		assertEquals(expected(count), new String(channel.out.toByteArray(), "UTF-8"));
+	}
+
+
+	@Test
+	public void testDrainPartially() throws IOException
+	{
+		XmlNonBlockingOutput output = new XmlNonBlockingOutput(10);
+		byte[] data = new byte[20000];
+		for (int i = 0; i < data.length; ++i)
+		{
+			data[i] = (byte) i;
+		}
+		output.write(ByteBuffer.wrap(data));
+		assertTrue(output.wouldBlock());
+		assertEquals(data.length, output.buffered());
+
+		ThrottledChannel channel = new ThrottledChannel(7000);
+		assertFalse(output.drainTo(channel));
+		assertEquals(data.length - 7000, output.buffered());
+		channel.reset();
+		assertFalse(output.drainTo(channel));
+		channel.reset();
+		assertTrue(output.drainTo(channel));
+		assertFalse(output.wouldBlock());
+		assertEquals(0, output.buffered());
+
+		// chunks are reused
+		output.write(ByteBuffer.wrap(data, 0, 5));
+		channel.reset();
+		assertTrue(output.drainTo(channel));
+
+		byte[] expected = new byte[data.length + 5];
+		System.arraycopy(data, 0, expected, 0, data.length);
+		System.arraycopy(data, 0, expected, data.length, 5);
+		assertEquals(new String(expected, "ISO-8859-1"), new String(channel.out.toByteArray(), "ISO-8859-1"));
+	}
+
+
+	@Test(expected = ClosedChannelException.class)
+	public void testClosed() throws IOException
+	{
+		XmlNonBlockingOutput output = new XmlNonBlockingOutput(10);
+		output.close();
+		output.write(ByteBuffer.wrap(new byte[1]));
+	}
+}
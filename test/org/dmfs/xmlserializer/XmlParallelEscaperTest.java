@@ -0,0 +1,224 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlParallelEscaperTest
+{
+	private final static int CHUNK = XmlParallelEscaper.CHUNK_SIZE;
+
+	private ExecutorService mExecutor;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mExecutor = Executors.newFixedThreadPool(4);
+	}
+
+
+	@After
+	public void tearDown() throws Exception
+	{
+		mExecutor.shutdownNow();
+	}
+
+
+	/**
+	 * Returns a text of the given length with special characters, surrogate pairs and invalid characters at random positions. Surrogate pairs are placed
+	 * across every chunk boundary and unpaired surrogates right before and after the boundaries.
+	 */
+	private static String text(int length, long seed)
+	{
+		Random random = new Random(seed);
+		char[] chars = new char[length];
+		for (int i = 0; i < length; ++i)
+		{
+			int r = random.nextInt(100);
+			chars[i] = r < 5 ? "<>&\"'".charAt(r) : r < 7 ? '\u0001' : r < 9 ? '\ufffe' : (char) ('a' + random.nextInt(26));
+		}
+		for (int boundary = CHUNK; boundary + 2 < length; boundary += CHUNK)
+		{
+			// a pair across the boundary
+			chars[boundary - 1] = '\ud83d';
+			chars[boundary] = '\ude00';
+		}
+		for (int boundary = 2 * CHUNK; boundary + 2 < length; boundary += 2 * CHUNK)
+		{
+			// an unpaired high surrogate at the end of a chunk and an unpaired low surrogate at the start of the next one
+			chars[boundary - 1] = '\ud83d';
+			chars[boundary] = 'x';
+			chars[boundary + 1] = '\ude00';
+		}
+		return new String(chars);
+	}
+
+
+	private static String sequential(String text, int policy) throws Exception
+	{
+		StringWriter out = new StringWriter();
+		XmlUtils.writeXmlEntityEncodedString(out, text, policy);
+		return out.toString();
+	}
+
+
+	@Test
+	public void testString() throws Exception
+	{
+		XmlParallelEscaper escaper = new XmlParallelEscaper(mExecutor, 1000);
+		for (int policy = XmlSerializer.INVALID_CHARS_IGNORE; policy <= XmlSerializer.INVALID_CHARS_STRIP; ++policy)
+		{
+			if (policy == XmlSerializer.INVALID_CHARS_REJECT)
+			{
+				continue;
+			}
+			for (int length : new int[] { 10, CHUNK - 1, CHUNK, CHUNK + 1, 5 * CHUNK + 17, 40 * CHUNK })
+			{
+				String text = text(length, length);
+				StringWriter out = new StringWriter();
+				escaper.writeString(out, text, 0, text.length(), policy);
+				assertEquals("length " + length + ", policy " + policy, sequential(text, policy), out.toString());
+			}
+		}
+	}
+
+
+	@Test
+	public void testChars() throws Exception
+	{
+		XmlParallelEscaper escaper = new XmlParallelEscaper(mExecutor, 1000);
+		String text = text(7 * CHUNK + 3, 1);
+		char[] chars = ("--" + text + "--").toCharArray();
+		StringWriter out = new StringWriter();
+		escaper.writeChars(out, chars, 2, text.length(), XmlSerializer.INVALID_CHARS_REPLACE);
+		assertEquals(sequential(text, XmlSerializer.INVALID_CHARS_REPLACE), out.toString());
+	}
+
+
+	@Test
+	public void testSequence() throws Exception
+	{
+		XmlParallelEscaper escaper = new XmlParallelEscaper(mExecutor, 1000);
+		String text = text(6 * CHUNK + 5, 2);
+		StringWriter out = new StringWriter();
+		escaper.writeSequence(out, new StringBuilder(text), 0, text.length(), new char[16], XmlSerializer.INVALID_CHARS_REPLACE);
+		assertEquals(sequential(text, XmlSerializer.INVALID_CHARS_REPLACE), out.toString());
+	}
+
+
+	@Test
+	public void testReader() throws Exception
+	{
+		String text = text(30 * CHUNK + 11, 3);
+		for (int threshold : new int[] { 1, 100, CHUNK, 3 * CHUNK + 1, 100 * CHUNK })
+		{
+			XmlParallelEscaper escaper = new XmlParallelEscaper(mExecutor, threshold);
+			StringWriter out = new StringWriter();
+			assertEquals(0, escaper.writeReader(out, new ShortReads(text.toCharArray()), new char[100], XmlSerializer.INVALID_CHARS_REPLACE));
+			assertEquals("threshold " + threshold, sequential(text, XmlSerializer.INVALID_CHARS_REPLACE), out.toString());
+		}
+	}
+
+
+	@Test
+	public void testRejectingExecutor() throws Exception
+	{
+		XmlParallelEscaper escaper = new XmlParallelEscaper(new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+				throw new RejectedExecutionException();
+			}
+		}, 10);
+		String text = text(20 * CHUNK, 4);
+		StringWriter out = new StringWriter();
+		escaper.writeString(out, text, 0, text.length(), XmlSerializer.INVALID_CHARS_IGNORE);
+		assertEquals(sequential(text, XmlSerializer.INVALID_CHARS_IGNORE), out.toString());
+	}
+
+
+	@Test
+	public void testReject() throws Exception
+	{
+		XmlParallelEscaper escaper = new XmlParallelEscaper(mExecutor, 10);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 20 * CHUNK; ++i)
+		{
+			text.append(i == 11 * CHUNK + 3 ? '\u0000' : 'a');
+		}
+		try
+		{
+			escaper.writeString(new StringWriter(), text.toString(), 0, text.length(), XmlSerializer.INVALID_CHARS_REJECT);
+			fail("invalid character not detected");
+		}
+		catch (InvalidCharacterException e)
+		{
+			// expected
+		}
+	}
+
+
+	@Test
+	public void testSerializer() throws Exception
+	{
+		String text = text(10 * CHUNK, 5);
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		XmlSerializer serializer = new XmlSerializer(expected);
+		serializer.setInvalidCharacterPolicy(XmlSerializer.INVALID_CHARS_STRIP);
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+		root.add(new XmlElement("a").addText(text));
+		root.add(new XmlElement("b").add(new XmlText(null).add(new CharArrayReader(text.toCharArray()))));
+		root.add(new XmlElement("c").addText("small & short"));
+		serializer.close();
+
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		serializer = new XmlSerializer(actual);
+		serializer.setInvalidCharacterPolicy(XmlSerializer.INVALID_CHARS_STRIP);
+		serializer.setParallelTextEscaping(mExecutor, 2 * CHUNK);
+		root = new XmlElement("root");
+		serializer.serialize(root);
+		root.add(new XmlElement("a").addText(text));
+		root.add(new XmlElement("b").add(new XmlText(null).add(new CharArrayReader(text.toCharArray()))));
+		root.add(new XmlElement("c").addText("small & short"));
+		serializer.close();
+
+		assertEquals(new String(expected.toByteArray(), "UTF-8"), new String(actual.toByteArray(), "UTF-8"));
+	}
+
+	/**
+	 * A {@link Reader} that never returns more than 777 characters at once, so chunks are filled by several reads.
+	 */
+	private final static class ShortReads extends CharArrayReader
+	{
+		public ShortReads(char[] buf)
+		{
+			super(buf);
+		}
+
+
+		@Override
+		public int read(char[] b, int off, int len) throws IOException
+		{
+			return super.read(b, off, Math.min(len, 777));
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlPendingNodeTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private XmlSerializer s;
+	private StringWriter sw;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sw = new StringWriter();
+		s = new XmlSerializer(sw);
+	}
+
+
+	private static XmlElement item(String text) throws InvalidStateException, IOException, InvalidValueException
+	{
+		return new XmlElement("item").addText(text);
+	}
+
+
+	@Test
+	public void testCompletedBeforeAdd() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlPendingNode pending = new XmlPendingNode();
+		pending.complete(item("a&b"));
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(pending);
+		root.add(item("c"));
+		s.close();
+		assertEquals(XML + "<root><item>a&amp;b</item><item>c</item></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testCompletedBeforeOpen() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlPendingNode pending = new XmlPendingNode();
+		XmlElement root = new XmlElement("root").add(item("a")).add(pending);
+		pending.complete(item("b"));
+		s.serialize(root);
+		s.close();
+		assertEquals(XML + "<root><item>a</item><item>b</item></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testOutOfOrderCompletion() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlPendingNode first = new XmlPendingNode();
+		XmlPendingNode second = new XmlPendingNode();
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(item("0"));
+		root.add(first);
+		XmlElement open = new XmlElement("open");
+		root.add(open);
+		open.addText("x");
+		root.add(second);
+		root.add(item("3"));
+
+		String head = XML + "<root><item>0</item>";
+		assertEquals(head, sw.toString());
+
+		// completing the second one doesn't write anything, the first one is still pending
+		second.complete(item("2"));
+		assertEquals(head, sw.toString());
+
+		// completing the first one writes everything up to the end of the buffered output
+		first.complete(item("1"));
+		assertEquals(head + "<item>1</item><open>x</open><item>2</item><item>3", sw.toString());
+
+		root.add(item("4"));
+		s.close();
+		assertEquals(head + "<item>1</item><open>x</open><item>2</item><item>3</item><item>4</item></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testHeadIsWrittenImmediately() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlPendingNode first = new XmlPendingNode();
+		XmlPendingNode second = new XmlPendingNode();
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(first);
+		root.add(second);
+
+		first.complete(item("1"));
+		assertEquals(XML + "<root><item>1</item>", sw.toString());
+		second.complete(item("2"));
+		s.close();
+		assertEquals(XML + "<root><item>1</item><item>2</item></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testCloseWaitsForOtherThreads() throws Exception
+	{
+		final int count = 50;
+		final XmlPendingNode[] pending = new XmlPendingNode[count];
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		StringBuilder expected = new StringBuilder(XML + "<root>");
+		for (int i = 0; i < count; ++i)
+		{
+			pending[i] = new XmlPendingNode();
+			root.add(pending[i]);
+			expected.append("<item>").append(i).append("</item>");
+		}
+		expected.append("</root>");
+
+		// complete the tail in reverse order on another thread, then the head once this thread waits in close()
+		final Thread owner = Thread.currentThread();
+		final CountDownLatch tailDone = new CountDownLatch(1);
+		final CountDownLatch checked = new CountDownLatch(1);
+		final boolean[] closing = new boolean[1];
+		Thread producer = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				for (int i = count - 1; i > 0; --i)
+				{
+					complete(pending[i], i);
+				}
+				tailDone.countDown();
+
+				try
+				{
+					checked.await();
+				}
+				catch (InterruptedException e)
+				{
+					// complete the head anyway
+				}
+				long deadline = System.currentTimeMillis() + 10000;
+				while (owner.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline)
+				{
+					Thread.yield();
+				}
+				closing[0] = owner.getState() == Thread.State.WAITING;
+				complete(pending[0], 0);
+			}
+		};
+		producer.start();
+		tailDone.await();
+
+		// all later siblings are buffered until the head has been completed
+		assertEquals(XML + "<root>", sw.toString());
+		checked.countDown();
+
+		s.close();
+		producer.join();
+		assertTrue(closing[0]);
+		assertEquals(expected.toString(), sw.toString());
+	}
+
+
+	private static void complete(XmlPendingNode pending, int i)
+	{
+		try
+		{
+			pending.complete(item(String.valueOf(i)));
+		}
+		catch (Exception e)
+		{
+			pending.fail(e);
+		}
+	}
+
+
+	@Test(expected = IOException.class)
+	public void testFail() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlPendingNode pending = new XmlPendingNode();
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(pending);
+		pending.fail(new IOException("storage unavailable"));
+		s.close();
+	}
+
+
+	@Test(expected = InvalidValueException.class)
+	public void testUnboundNamespace() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlPendingNode pending = new XmlPendingNode();
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(pending);
+		pending.complete(new XmlElement("urn:unbound", "a"));
+		s.close();
+	}
+
+
+	@Test
+	public void testRegisteredNamespace() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlPendingNode pending = new XmlPendingNode();
+		XmlElement root = new XmlElement("root");
+		s.registerNamespace("urn:bound");
+		s.serialize(root);
+		root.add(pending);
+		pending.complete(new XmlElement("urn:bound", "a"));
+		s.close();
+		assertEquals(XML + "<root xmlns:A=\"urn:bound\"><A:a/></root>", sw.toString());
+	}
+
+
+	@Test(expected = IllegalStateException.class)
+	public void testCompleteTwice() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlPendingNode pending = new XmlPendingNode();
+		pending.complete(item("a"));
+		pending.complete(item("b"));
+	}
+}
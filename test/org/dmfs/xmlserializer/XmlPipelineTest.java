@@ -0,0 +1,449 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlPipelineTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private XmlSerializer s;
+	private StringWriter sw;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sw = new StringWriter();
+		s = new XmlSerializer(sw);
+	}
+
+
+	@Test
+	public void testSingleProducer() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlPipeline pipeline = new XmlPipeline(2, 16);
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(pipeline);
+		pipeline.add(new XmlElement("a").addText("1&2"));
+		pipeline.add(new XmlText("<"));
+		pipeline.finish();
+		root.add(new XmlElement("last"));
+		s.close();
+		assertEquals(XML + "<root><a>1&amp;2</a>&lt;<last/></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testManyProducersSmallRing() throws Exception
+	{
+		final int threads = 4;
+		final int perThread = 500;
+		final XmlPipeline pipeline = new XmlPipeline(4, 32);
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(pipeline);
+
+		final CountDownLatch done = new CountDownLatch(threads);
+		final Exception[] error = new Exception[1];
+		for (int t = 0; t < threads; ++t)
+		{
+			final int thread = t;
+			new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int i = 0; i < perThread; ++i)
+						{
+							pipeline.add(new XmlElement("item").addAttribute("t", thread).addText(i));
+						}
+					}
+					catch (Exception e)
+					{
+						error[0] = e;
+					}
+					finally
+					{
+						done.countDown();
+						if (done.getCount() == 0)
+						{
+							pipeline.finish();
+						}
+					}
+				}
+			}.start();
+		}
+
+		// this thread writes the slots
+		s.close();
+		assertEquals(null, error[0]);
+
+		String result = sw.toString();
+		assertTrue(result, result.startsWith(XML + "<root><item"));
+		assertTrue(result, result.endsWith("</item></root>"));
+
+		// every thread's items must appear exactly once and in order
+		Map<String, Integer> next = new HashMap<String, Integer>();
+		Matcher matcher = Pattern.compile("<item t=\"(\\d+)\">(\\d+)</item>").matcher(result);
+		int count = 0;
+		while (matcher.find())
+		{
+			Integer expected = next.get(matcher.group(1));
+			assertEquals(expected == null ? 0 : expected.intValue(), Integer.parseInt(matcher.group(2)));
+			next.put(matcher.group(1), Integer.parseInt(matcher.group(2)) + 1);
+			++count;
+		}
+		assertEquals(threads * perThread, count);
+	}
+
+
+	@Test
+	public void testDrain() throws Exception
+	{
+		final int threads = 4;
+		final int perThread = 500;
+		final XmlPipeline pipeline = new XmlPipeline(4, 32);
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(pipeline);
+
+		final Exception[] error = new Exception[2];
+		Thread drainer = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					pipeline.drain();
+				}
+				catch (Exception e)
+				{
+					error[1] = e;
+				}
+			}
+		};
+		drainer.start();
+
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; ++t)
+		{
+			final int thread = t;
+			new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int i = 0; i < perThread; ++i)
+						{
+							pipeline.add(new XmlElement("item").addAttribute("t", thread).addText(i));
+						}
+					}
+					catch (Exception e)
+					{
+						error[0] = e;
+					}
+					finally
+					{
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		// the producers get through the small ring without anybody closing the pipeline
+		done.await();
+		pipeline.finish();
+		drainer.join();
+		assertEquals(null, error[0]);
+		assertEquals(null, error[1]);
+
+		// closing waits for the drainer, which is done already
+		root.add(new XmlElement("last"));
+		s.close();
+
+		String result = sw.toString();
+		assertTrue(result, result.startsWith(XML + "<root><item"));
+		assertTrue(result, result.endsWith("</item><last/></root>"));
+		Map<String, Integer> next = new HashMap<String, Integer>();
+		Matcher matcher = Pattern.compile("<item t=\"(\\d+)\">(\\d+)</item>").matcher(result);
+		int count = 0;
+		while (matcher.find())
+		{
+			Integer expected = next.get(matcher.group(1));
+			assertEquals(expected == null ? 0 : expected.intValue(), Integer.parseInt(matcher.group(2)));
+			next.put(matcher.group(1), Integer.parseInt(matcher.group(2)) + 1);
+			++count;
+		}
+		assertEquals(threads * perThread, count);
+	}
+
+
+	@Test
+	public void testCloseWaitsForDrainer() throws Exception
+	{
+		final XmlPipeline pipeline = new XmlPipeline(2, 16);
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(pipeline);
+		pipeline.add(new XmlElement("a"));
+
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Exception[] error = new Exception[2];
+		Thread producer = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					pipeline.add(new SlowNode(entered, release));
+					pipeline.finish();
+				}
+				catch (Exception e)
+				{
+					error[0] = e;
+				}
+			}
+		};
+		producer.start();
+		entered.await();
+
+		Thread drainer = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					pipeline.drain();
+				}
+				catch (Exception e)
+				{
+					error[1] = e;
+				}
+			}
+		};
+		drainer.start();
+		// the drainer has written the first slot and waits for the slow one
+		assertTrue(awaitParked(drainer));
+
+		// release the producer once this thread waits in close()
+		final Thread owner = Thread.currentThread();
+		final boolean[] parked = new boolean[1];
+		new Thread()
+		{
+			@Override
+			public void run()
+			{
+				parked[0] = awaitParked(owner);
+				release.countDown();
+			}
+		}.start();
+
+		root.add(new XmlElement("last"));
+		producer.join();
+		drainer.join();
+		s.close();
+
+		assertTrue(parked[0]);
+		assertEquals(null, error[0]);
+		assertEquals(null, error[1]);
+		assertEquals(XML + "<root><a/><slow/><last/></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testOwnerParksOnFullRing() throws Exception
+	{
+		final XmlPipeline pipeline = new XmlPipeline(1, 16);
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(pipeline);
+
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Exception[] error = new Exception[1];
+		Thread producer = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					pipeline.add(new SlowNode(entered, release));
+				}
+				catch (Exception e)
+				{
+					error[0] = e;
+				}
+			}
+		};
+		producer.start();
+		entered.await();
+
+		// the ring is full and its only slot is not published, the owner must park instead of spinning
+		final Thread owner = Thread.currentThread();
+		final boolean[] parked = new boolean[1];
+		new Thread()
+		{
+			@Override
+			public void run()
+			{
+				parked[0] = awaitParked(owner);
+				release.countDown();
+			}
+		}.start();
+
+		pipeline.add(new XmlElement("b"));
+		producer.join();
+		pipeline.finish();
+		s.close();
+
+		assertTrue(parked[0]);
+		assertEquals(null, error[0]);
+		assertEquals(XML + "<root><slow/><b/></root>", sw.toString());
+	}
+
+
+	/**
+	 * Wait until the given thread is parked, but not longer than 10 seconds.
+	 * 
+	 * @return {@code true} if the thread has been parked, {@code false} if it never was.
+	 */
+	private static boolean awaitParked(Thread thread)
+	{
+		long deadline = System.currentTimeMillis() + 10000;
+		while (thread.getState() != Thread.State.TIMED_WAITING)
+		{
+			if (System.currentTimeMillis() > deadline)
+			{
+				return false;
+			}
+			Thread.yield();
+		}
+		return true;
+	}
+
+
+	/**
+	 * A node that blocks in {@link #open(Writer)} until it's released.
+	 */
+	private final static class SlowNode extends XmlAbstractNode
+	{
+		private final CountDownLatch mEntered;
+		private final CountDownLatch mRelease;
+
+
+		public SlowNode(CountDownLatch entered, CountDownLatch release)
+		{
+			mEntered = entered;
+			mRelease = release;
+		}
+
+
+		@Override
+		void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+		{
+		}
+
+
+		@Override
+		void open(Writer out) throws IOException
+		{
+			mEntered.countDown();
+			try
+			{
+				mRelease.await();
+			}
+			catch (InterruptedException e)
+			{
+				throw new InterruptedIOException();
+			}
+			out.write("<slow/>");
+		}
+
+
+		@Override
+		void close()
+		{
+		}
+	}
+
+
+	@Test(expected = InvalidStateException.class)
+	public void testDrainBeforeOpen() throws IOException, InvalidStateException, InvalidValueException
+	{
+		new XmlPipeline(2, 16).drain();
+	}
+
+
+	@Test(expected = InvalidStateException.class)
+	public void testAddBeforeOpen() throws IOException, InvalidStateException, InvalidValueException
+	{
+		new XmlPipeline(2, 16).add(new XmlElement("a"));
+	}
+
+
+	@Test(expected = InvalidStateException.class)
+	public void testAddAfterFinish() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlPipeline pipeline = new XmlPipeline(2, 16);
+		s.serialize(new XmlElement("root").add(pipeline));
+		pipeline.finish();
+		pipeline.add(new XmlElement("a"));
+	}
+
+
+	@Test
+	public void testFailedNode() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlPipeline pipeline = new XmlPipeline(2, 16);
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(pipeline);
+		pipeline.add(new XmlElement("a"));
+		try
+		{
+			pipeline.add(new XmlElement("urn:unbound", "b"));
+		}
+		catch (InvalidValueException e)
+		{
+			// expected
+		}
+		pipeline.add(new XmlElement("c"));
+		pipeline.finish();
+		try
+		{
+			s.close();
+		}
+		catch (InvalidValueException e)
+		{
+			// nothing after the failed node is written
+			assertEquals(XML + "<root><a/>", sw.toString());
+			return;
+		}
+		throw new AssertionError("close should have failed");
+	}
+}
@@ -0,0 +1,105 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+
+public class XmlPrimitiveTextTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private final static long[] LONGS = { 0, 1, -1, 9, 10, 99, 100, 12345678901L, 999999999999999999L, 1000000000000000000L, Long.MAX_VALUE,
+		Long.MIN_VALUE, Long.MIN_VALUE + 1, Integer.MIN_VALUE };
+
+	private final static double[] DOUBLES = { 0.0, -0.0, 1.0, -1.0, 0.5, 9999999.0, 1e7, 1e-3, 123.456, Double.NaN, Double.POSITIVE_INFINITY,
+		Double.NEGATIVE_INFINITY, Double.MAX_VALUE, Double.MIN_VALUE };
+
+
+	@Test
+	public void testWriteLong() throws IOException
+	{
+		for (long value : LONGS)
+		{
+			StringWriter out = new StringWriter();
+			XmlUtils.writeLong(out, value);
+			assertEquals(Long.toString(value), out.toString());
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			XmlUtf8Writer utf8 = new XmlUtf8Writer(bytes);
+			XmlUtils.writeLong(utf8, value);
+			utf8.flush();
+			assertEquals(Long.toString(value), bytes.toString("UTF-8"));
+		}
+	}
+
+
+	@Test
+	public void testWriteDouble() throws IOException
+	{
+		for (double value : DOUBLES)
+		{
+			StringWriter out = new StringWriter();
+			XmlUtils.writeDouble(out, value);
+			assertEquals(Double.toString(value), out.toString());
+		}
+	}
+
+
+	@Test
+	public void testElement() throws IOException, InvalidStateException, InvalidValueException, ParserConfigurationException, SAXException
+	{
+		StringWriter sw = new StringWriter();
+		XmlSerializer s = new XmlSerializer(sw);
+		XmlElement root = new XmlElement("root").addAttribute("size", 1234567890123L).addAttribute("ratio", 0.25).addAttribute("flag", true);
+		s.serialize(root);
+		root.add(new XmlElement("count").addText(-42));
+		root.add(new XmlElement("value").addText(2.0));
+		root.add(new XmlElement("done").addText(false));
+		s.close();
+		XmlTestUtils.assertXmlEquals(XML
+			+ "<root size=\"1234567890123\" ratio=\"0.25\" flag=\"true\"><count>-42</count><value>2.0</value><done>false</done></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testOutputStream() throws IOException, InvalidStateException, InvalidValueException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlSerializer s = new XmlSerializer(out);
+		XmlElement root = new XmlElement("root").addAttribute("seq", 7);
+		s.serialize(root);
+		for (int i = 0; i < 3000; ++i)
+		{
+			root.add(new XmlElement("n").addText(i * 1000003L));
+		}
+		s.close();
+
+		StringBuilder expected = new StringBuilder(XML + "<root seq=\"7\">");
+		for (int i = 0; i < 3000; ++i)
+		{
+			expected.append("<n>").append(i * 1000003L).append("</n>");
+		}
+		expected.append("</root>");
+		assertEquals(expected.toString(), out.toString("UTF-8"));
+	}
+
+
+	@Test
+	public void testTemplate() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlTemplate template = new XmlTemplate(new XmlElement("item").addAttribute("version", 3).add(new XmlElement("size").addText(1024)));
+		StringWriter sw = new StringWriter();
+		XmlSerializer s = new XmlSerializer(sw);
+		s.serialize(new XmlElement("root").add(template.newInstance()));
+		s.close();
+		assertEquals(XML + "<root><item version=\"3\"><size>1024</size></item></root>", sw.toString());
+	}
+}
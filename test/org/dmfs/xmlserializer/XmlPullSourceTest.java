@@ -0,0 +1,176 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+public class XmlPullSourceTest
+{
+	/**
+	 * An {@link Iterator} that creates items on demand and counts them.
+	 */
+	private static class Items implements Iterator<XmlAbstractNode>
+	{
+		final int count;
+		int produced;
+
+
+		Items(int count)
+		{
+			this.count = count;
+		}
+
+
+		@Override
+		public boolean hasNext()
+		{
+			return produced < count;
+		}
+
+
+		@Override
+		public XmlAbstractNode next()
+		{
+			try
+			{
+				return new XmlElement("DAV:", "response").add(new XmlElement("DAV:", "href").addText("/item/" + produced++ + "?a&b"));
+			}
+			catch (Exception e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+
+	private static String expected(int count) throws IOException, InvalidStateException, InvalidValueException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlSerializer serializer = new XmlSerializer(out);
+		XmlElement root = new XmlElement("DAV:", "multistatus");
+		serializer.serialize(root);
+		Items items = new Items(count);
+		while (items.hasNext())
+		{
+			root.add(items.next());
+		}
+		serializer.close();
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+
+	@Test
+	public void testOnDemand() throws IOException, InvalidStateException, InvalidValueException
+	{
+		Items items = new Items(2000);
+		XmlPullSource source = new XmlPullSource(new XmlElement("DAV:", "multistatus"), items, 1024);
+		assertEquals(0, items.produced);
+
+		ByteBuffer first = source.next();
+		assertEquals(1024, first.remaining());
+		// only a few items are produced for the first buffer
+		assertTrue(String.valueOf(items.produced), items.produced < 40);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(first.array(), first.position(), first.remaining());
+		ByteBuffer buffer;
+		while ((buffer = source.next()) != null)
+		{
+			assertTrue(buffer.remaining() <= 1024);
+			assertTrue(buffer.remaining() > 0);
+			out.write(buffer.array(), buffer.position(), buffer.remaining());
+		}
+		assertNull(source.next());
+		assertEquals(expected(2000), new String(out.toByteArray(), "UTF-8"));
+	}
+
+
+	@Test
+	public void testEmpty() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlPullSource source = new XmlPullSource(new XmlElement("root"), new Items(0), 1024);
+		ByteBuffer buffer = source.next();
+		assertEquals("<?xml version=\"1.0\" encoding=\"utf-8\" ?><root/>", new String(buffer.array(), 0, buffer.remaining(), "UTF-8"));
+		assertNull(source.next());
+	}
+
+
+	@Test
+	public void testHttpServer() throws Exception
+	{
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				try
+				{
+					XmlPullSource source = new XmlPullSource(new XmlElement("DAV:", "multistatus"), new Items(5000), 4096);
+					exchange.getResponseHeaders().add("Content-Type", "application/xml; charset=utf-8");
+					// chunked response, each buffer is pulled when the previous one has been written
+					exchange.sendResponseHeaders(207, 0);
+					OutputStream body = exchange.getResponseBody();
+					ByteBuffer buffer;
+					while ((buffer = source.next()) != null)
+					{
+						body.write(buffer.array(), buffer.position(), buffer.remaining());
+					}
+					body.close();
+				}
+				catch (InvalidStateException e)
+				{
+					throw new IOException(e.getMessage());
+				}
+				catch (InvalidValueException e)
+				{
+					throw new IOException(e.getMessage());
+				}
+			}
+		});
+		server.start();
+		try
+		{
+			HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/").openConnection();
+			assertEquals(207, connection.getResponseCode());
+			InputStream in = connection.getInputStream();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+			{
+				out.write(buffer, 0, read);
+			}
+			in.close();
+			assertEquals(expected(5000), new String(out.toByteArray(), "UTF-8"));
+		}
+		finally
+		{
+			server.stop(0);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.Test;
+
+
+public class XmlRawFragmentTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private final static String RAW = "<cal:data xmlns:cal=\"urn:cal\">BEGIN:VCALENDAR &amp; \u00e4\u20ac\ud83d\ude00</cal:data>";
+
+
+	private String serialize(XmlAbstractNode node) throws IOException, InvalidStateException, InvalidValueException
+	{
+		StringWriter sw = new StringWriter();
+		XmlSerializer s = new XmlSerializer(sw);
+		s.serialize(new XmlElement("ns", "root").add(node).addText("&"));
+		s.close();
+		return sw.toString();
+	}
+
+
+	private String serializeToStream(XmlAbstractNode node) throws IOException, InvalidStateException, InvalidValueException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlSerializer s = new XmlSerializer(out);
+		s.serialize(new XmlElement("ns", "root").add(node).addText("&"));
+		s.close();
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+
+	@Test
+	public void testString() throws IOException, InvalidStateException, InvalidValueException
+	{
+		String expected = XML + "<A:root xmlns:A=\"ns\">" + RAW + "&amp;</A:root>";
+		assertEquals(expected, serialize(new XmlRawFragment(RAW)));
+		assertEquals(expected, serializeToStream(new XmlRawFragment(RAW)));
+	}
+
+
+	@Test
+	public void testChars() throws IOException, InvalidStateException, InvalidValueException
+	{
+		char[] chars = ("xx" + RAW + "yy").toCharArray();
+		String expected = XML + "<A:root xmlns:A=\"ns\">" + RAW + "&amp;</A:root>";
+		assertEquals(expected, serialize(new XmlRawFragment(chars, 2, RAW.length())));
+		assertEquals(XML + "<A:root xmlns:A=\"ns\">xx" + RAW + "yy&amp;</A:root>", serializeToStream(new XmlRawFragment(chars)));
+	}
+
+
+	@Test
+	public void testByteBuffer() throws IOException, InvalidStateException, InvalidValueException
+	{
+		ByteBuffer bytes = ByteBuffer.wrap(RAW.getBytes("UTF-8"));
+		String expected = XML + "<A:root xmlns:A=\"ns\">" + RAW + "&amp;</A:root>";
+		assertEquals(expected, serialize(new XmlRawFragment(bytes)));
+		// the buffer can be used again
+		assertEquals(expected, serializeToStream(new XmlRawFragment(bytes)));
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.remaining());
+		direct.put(bytes.duplicate()).flip();
+		assertEquals(expected, serialize(new XmlRawFragment(direct)));
+		assertEquals(expected, serializeToStream(new XmlRawFragment(direct)));
+	}
+
+
+	@Test
+	public void testFileChannel() throws IOException, InvalidStateException, InvalidValueException
+	{
+		// make sure multi-byte sequences cross the chunk boundaries
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 2000; ++i)
+		{
+			content.append("<x>\u00e4\u20ac\ud83d\ude00</x>");
+		}
+		byte[] bytes = content.toString().getBytes("UTF-8");
+
+		File file = File.createTempFile("raw", ".xml");
+		try
+		{
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write("header".getBytes("UTF-8"));
+			fos.write(bytes);
+			fos.write("trailer".getBytes("UTF-8"));
+			fos.close();
+
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try
+			{
+				FileChannel channel = raf.getChannel();
+				String expected = XML + "<A:root xmlns:A=\"ns\">" + content + "&amp;</A:root>";
+				assertEquals(expected, serialize(new XmlRawFragment(channel, 6, bytes.length)));
+				assertEquals(expected, serializeToStream(new XmlRawFragment(channel, 6, bytes.length)));
+				assertEquals(0, channel.position());
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+
+	@Test(expected = InvalidStateException.class)
+	public void testOpenTwice() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlRawFragment fragment = new XmlRawFragment(RAW);
+		serialize(fragment);
+		serialize(fragment);
+	}
+}
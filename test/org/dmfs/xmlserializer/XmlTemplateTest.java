@@ -0,0 +1,107 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlTemplateTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private XmlSerializer s;
+	private StringWriter sw;
+
+	private XmlTextHole href;
+	private XmlTextHole etag;
+	private XmlAttributeHole type;
+	private XmlTemplate template;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sw = new StringWriter();
+		s = new XmlSerializer(sw);
+
+		href = new XmlTextHole();
+		etag = new XmlTextHole();
+		type = new XmlAttributeHole("cal", "type");
+		template = new XmlTemplate(new XmlElement("DAV:", "response").add(new XmlElement("DAV:", "href").add(href)).add(
+			new XmlElement("DAV:", "propstat").add(new XmlElement("DAV:", "prop").add(new XmlElement("DAV:", "getetag").add(etag).add(type))).add(
+				new XmlElement("DAV:", "status").addText("HTTP/1.1 200 OK"))));
+	}
+
+
+	@Test
+	public void testTemplate() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlElement root = new XmlElement("DAV:", "multistatus");
+		s.serialize(root);
+		root.add(template.newInstance().set(href, "/cal/1.ics").set(etag, "\"1\"").set(type, "a<b"));
+		root.add(template.newInstance().set(href, "/cal/2.ics"));
+		s.close();
+
+		String xml = sw.toString();
+		assertTrue(xml.startsWith(XML + "<A:multistatus "));
+		assertTrue(xml.contains(" xmlns:A=\"DAV:\""));
+		assertTrue(xml.contains(" xmlns:B=\"cal\""));
+		assertTrue(xml.endsWith("><A:response><A:href>/cal/1.ics</A:href><A:propstat><A:prop><A:getetag B:type=\"a&lt;b\">&quot;1&quot;</A:getetag></A:prop>"
+			+ "<A:status>HTTP/1.1 200 OK</A:status></A:propstat></A:response><A:response><A:href>/cal/2.ics</A:href><A:propstat><A:prop>"
+			+ "<A:getetag B:type=\"\"></A:getetag></A:prop><A:status>HTTP/1.1 200 OK</A:status></A:propstat></A:response></A:multistatus>"));
+	}
+
+
+	@Test
+	public void testNamespacesOnTemplateRoot() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(new XmlElement("first"));
+		// the start tag of root is closed, so the namespaces are defined in each template root
+		root.add(template.newInstance().set(href, "1"));
+		root.add(template.newInstance().set(href, "2"));
+		s.close();
+
+		String xml = sw.toString();
+		assertTrue(xml.startsWith(XML + "<root><first/><A:response xmlns:"));
+		assertTrue(xml.contains("><A:href>1</A:href>"));
+		assertTrue(xml.contains("<C:response xmlns:"));
+		assertTrue(xml.contains("><C:href>2</C:href>"));
+		assertTrue(xml.endsWith("</C:response></root>"));
+	}
+
+
+	@Test
+	public void testAddToNewElement() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlTextHole text = new XmlTextHole();
+		XmlTemplate t = new XmlTemplate(new XmlElement("value").add(text).add(new XmlComment("c")));
+		XmlElement root = new XmlElement("root");
+		root.add(t.newInstance().set(text, "<1>"));
+		root.add(t.newInstance().set(text, "<2>"));
+		s.serialize(root);
+		s.close();
+		assertEquals(XML + "<root><value>&lt;1&gt;<!--c--></value><value>&lt;2&gt;<!--c--></value></root>", sw.toString());
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownHole() throws InvalidStateException
+	{
+		template.newInstance().set(new XmlTextHole(), "x");
+	}
+
+
+	@Test(expected = InvalidStateException.class)
+	public void testOpenedTree() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		new XmlTemplate(root);
+	}
+}
@@ -0,0 +1,108 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlTextTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private XmlSerializer s;
+	private StringWriter sw;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sw = new StringWriter();
+		s = new XmlSerializer(sw);
+	}
+
+
+	@Test
+	public void testCharSequence() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlText text = new XmlText("a&").add(new StringBuilder("<b>")).add("c");
+		XmlElement root = new XmlElement("root");
+		s.serialize(root.add(text));
+		text.add(new StringBuilder("\"d\""));
+		s.close();
+		assertEquals(XML + "<root>a&amp;&lt;b&gt;c&quot;d&quot;</root>", sw.toString());
+	}
+
+
+	@Test
+	public void testChars() throws IOException, InvalidStateException, InvalidValueException
+	{
+		char[] chars = "xx<a>&yy".toCharArray();
+		XmlText text = new XmlText(null).add(chars, 2, 4);
+		XmlElement root = new XmlElement("root");
+		s.serialize(root.add(text));
+		text.add(chars, 0, chars.length);
+		s.close();
+		assertEquals(XML + "<root>&lt;a&gt;&amp;xx&lt;a&gt;&amp;yy</root>", sw.toString());
+	}
+
+
+	@Test
+	public void testReader() throws IOException, InvalidStateException, InvalidValueException
+	{
+		// make sure the content spans several chunks
+		StringBuilder content = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 1000; ++i)
+		{
+			content.append("line <").append(i).append("> & more\n");
+			expected.append("line &lt;").append(i).append("&gt; &amp; more\n");
+		}
+
+		XmlText text = new XmlText("start ").add(new StringReader(content.toString()));
+		XmlElement root = new XmlElement("root");
+		s.serialize(root.add(text));
+		text.add(new StringReader("<end>"));
+		s.close();
+		assertEquals(XML + "<root>start " + expected + "&lt;end&gt;</root>", sw.toString());
+	}
+
+
+	@Test
+	public void testReaderIsReadLazily() throws IOException, InvalidStateException, InvalidValueException
+	{
+		final int[] reads = new int[1];
+		Reader reader = new StringReader("text")
+		{
+			@Override
+			public int read(char[] cbuf) throws IOException
+			{
+				++reads[0];
+				return super.read(cbuf);
+			}
+		};
+
+		XmlElement root = new XmlElement("root");
+		root.add(new XmlText(null).add(reader));
+		assertEquals(0, reads[0]);
+		s.serialize(root);
+		s.close();
+		assertTrue(reads[0] > 0);
+		assertEquals(XML + "<root>text</root>", sw.toString());
+	}
+
+
+	@Test(expected = InvalidStateException.class)
+	public void testAddToClosed() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlText text = new XmlText("text");
+		s.serialize(new XmlElement("root").add(text));
+		s.close();
+		text.add(new StringBuilder("more"));
+	}
+}
@@ -0,0 +1,143 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlTextWriterTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private XmlSerializer s;
+	private StringWriter sw;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sw = new StringWriter();
+		s = new XmlSerializer(sw);
+	}
+
+
+	@Test
+	public void testOpenNode() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlText text = new XmlText("a");
+		s.serialize(new XmlElement("root").add(text));
+		Writer writer = text.writer();
+		writer.write('<');
+		writer.write("x&y".toCharArray());
+		writer.write("0123>", 3, 2);
+		writer.append(new StringBuilder("'q'")).append("z", 0, 1);
+		s.close();
+		assertEquals(XML + "<root>a&lt;x&amp;y3&gt;&apos;q&apos;z</root>", sw.toString());
+	}
+
+
+	@Test
+	public void testOpenNodeRanges() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlText text = new XmlText("a");
+		s.serialize(new XmlElement("root").add(text));
+		Writer writer = text.writer();
+		// the ranges split a surrogate pair
+		writer.write("--<\uD83D", 2, 2);
+		writer.write("\uDE00&--", 0, 2);
+		// open nodes must escape the range in place, without taking a copy of it
+		CharSequence sequence = new CharSequence()
+		{
+			private final String mValue = "-\"x\"\uD83D\uDE00-";
+
+
+			@Override
+			public int length()
+			{
+				return mValue.length();
+			}
+
+
+			@Override
+			public char charAt(int index)
+			{
+				return mValue.charAt(index);
+			}
+
+
+			@Override
+			public CharSequence subSequence(int start, int end)
+			{
+				throw new UnsupportedOperationException("range has been copied");
+			}
+
+
+			@Override
+			public String toString()
+			{
+				throw new UnsupportedOperationException("range has been copied");
+			}
+		};
+		writer.append(sequence, 1, 5);
+		writer.append(sequence, 5, 6);
+		s.close();
+		assertEquals(XML + "<root>a&lt;\uD83D\uDE00&amp;&quot;x&quot;\uD83D\uDE00</root>", sw.toString());
+	}
+
+
+	@Test
+	public void testNewNode() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlText text = new XmlText("a");
+		Writer writer = text.writer();
+		char[] buffer = "<b>".toCharArray();
+		writer.write(buffer);
+		// modifying the buffer must not change the result
+		buffer[1] = 'i';
+		StringBuilder sb = new StringBuilder("&");
+		writer.append(sb);
+		sb.append("x");
+		s.serialize(new XmlElement("root").add(text));
+		s.close();
+		assertEquals(XML + "<root>a&lt;b&gt;&amp;</root>", sw.toString());
+	}
+
+
+	@Test
+	public void testSerializable() throws IOException, InvalidStateException, InvalidValueException
+	{
+		final StringBuilder log = new StringBuilder();
+		XmlElement root = new XmlElement("root").add(new IXmlTextSerializable()
+		{
+			@Override
+			public void populateXmlText(XmlText adapter) throws IOException, InvalidStateException
+			{
+				log.append("populated");
+				Writer writer = adapter.writer();
+				writer.write("BEGIN:VCARD\r\nFN:A & B\r\nEND:VCARD");
+				adapter.add("<");
+			}
+		});
+		// the text is populated when it's written
+		assertEquals("", log.toString());
+		s.serialize(root);
+		s.close();
+		assertEquals("populated", log.toString());
+		assertEquals(XML + "<root>BEGIN:VCARD\r\nFN:A &amp; B\r\nEND:VCARD&lt;</root>", sw.toString());
+	}
+
+
+	@Test(expected = IOException.class)
+	public void testClosedNode() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlText text = new XmlText("a");
+		s.serialize(new XmlElement("root").add(text));
+		s.close();
+		text.writer().write("b");
+	}
+}
@@ -0,0 +1,302 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+
+public class XmlUnorderedGroupTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private XmlSerializer s;
+	private StringWriter sw;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sw = new StringWriter();
+		s = new XmlSerializer(sw);
+	}
+
+
+	private static XmlElement item(int i) throws InvalidStateException, IOException, InvalidValueException
+	{
+		return new XmlElement("item").addText(String.valueOf(i));
+	}
+
+
+	private static Set<String> items(String xml)
+	{
+		Set<String> result = new HashSet<String>();
+		Matcher matcher = Pattern.compile("<item>(\\d+)</item>").matcher(xml);
+		while (matcher.find())
+		{
+			result.add(matcher.group(1));
+		}
+		return result;
+	}
+
+
+	@Test
+	public void testAddBeforeOpen() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlUnorderedGroup group = new XmlUnorderedGroup();
+		group.add(item(1)).add(item(2));
+		s.serialize(new XmlElement("root").add(new XmlElement("first")).add(group).add(new XmlElement("last")));
+		s.close();
+		assertEquals(XML + "<root><first/><item>1</item><item>2</item><last/></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testReadyNodesAreWrittenImmediately() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlUnorderedGroup group = new XmlUnorderedGroup();
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(group);
+		group.add(item(1));
+		assertEquals(XML + "<root><item>1</item>", sw.toString());
+		group.add(item(2));
+		root.add(new XmlElement("last"));
+		s.close();
+		assertEquals(XML + "<root><item>1</item><item>2</item><last/></root>", sw.toString());
+	}
+
+
+	@Test
+	public void testManyProducers() throws Exception
+	{
+		final int threads = 8;
+		final int perThread = 200;
+		final XmlUnorderedGroup group = new XmlUnorderedGroup();
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(group);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final Exception[] error = new Exception[1];
+		for (int t = 0; t < threads; ++t)
+		{
+			final int base = t * perThread;
+			new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+						for (int i = 0; i < perThread; ++i)
+						{
+							group.add(item(base + i));
+						}
+					}
+					catch (Exception e)
+					{
+						error[0] = e;
+					}
+					finally
+					{
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		done.await();
+		s.close();
+
+		assertEquals(null, error[0]);
+		String result = sw.toString();
+		assertTrue(result, result.startsWith(XML + "<root><item>"));
+		assertTrue(result, result.endsWith("</item></root>"));
+		Set<String> expected = new HashSet<String>();
+		for (int i = 0; i < threads * perThread; ++i)
+		{
+			expected.add(String.valueOf(i));
+		}
+		assertEquals(expected, items(result));
+		assertEquals(XML.length() + "<root></root>".length() + threads * perThread * "<item></item>".length() + itemDigits(threads * perThread),
+			result.length());
+	}
+
+
+	private static int itemDigits(int count)
+	{
+		int result = 0;
+		for (int i = 0; i < count; ++i)
+		{
+			result += String.valueOf(i).length();
+		}
+		return result;
+	}
+
+
+	@Test
+	public void testSiblingWaitsForProducers() throws Exception
+	{
+		final XmlUnorderedGroup group = new XmlUnorderedGroup();
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Exception[] error = new Exception[2];
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(group);
+
+		// a producer that is still serializing its node when the owner adds the next sibling
+		Thread producer = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					group.add(new SlowNode(entered, release));
+				}
+				catch (Exception e)
+				{
+					error[0] = e;
+				}
+			}
+		};
+		producer.start();
+		entered.await();
+
+		// add the next sibling on another thread, this closes the group, which must wait for the producer before the sibling is written
+		final XmlElement parent = root;
+		Thread adder = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					parent.add(new XmlElement("last"));
+				}
+				catch (Exception e)
+				{
+					error[1] = e;
+				}
+			}
+		};
+		adder.start();
+
+		// the adder must block until the producer is done
+		long deadline = System.currentTimeMillis() + 10000;
+		while (adder.getState() != Thread.State.WAITING && adder.isAlive() && System.currentTimeMillis() < deadline)
+		{
+			Thread.yield();
+		}
+		assertEquals(Thread.State.WAITING, adder.getState());
+
+		release.countDown();
+		adder.join();
+		producer.join();
+		s.close();
+
+		assertEquals(null, error[0]);
+		assertEquals(null, error[1]);
+		assertEquals(XML + "<root><slow/><last/></root>", sw.toString());
+	}
+
+
+	/**
+	 * A node that blocks in {@link #open(java.io.Writer)} until it's released.
+	 */
+	private final static class SlowNode extends XmlAbstractNode
+	{
+		private final CountDownLatch mEntered;
+		private final CountDownLatch mRelease;
+
+
+		public SlowNode(CountDownLatch entered, CountDownLatch release)
+		{
+			mEntered = entered;
+			mRelease = release;
+		}
+
+
+		@Override
+		void setNamespaceRegistry(XmlNamespaceRegistry namespaceRegistry)
+		{
+		}
+
+
+		@Override
+		void open(Writer out) throws IOException
+		{
+			mEntered.countDown();
+			try
+			{
+				mRelease.await();
+			}
+			catch (InterruptedException e)
+			{
+				throw new InterruptedIOException();
+			}
+			out.write("<slow/>");
+		}
+
+
+		@Override
+		void close()
+		{
+		}
+	}
+
+
+	@Test
+	public void testRegisteredNamespace() throws IOException, InvalidStateException, InvalidValueException, ParserConfigurationException, SAXException
+	{
+		XmlUnorderedGroup group = new XmlUnorderedGroup();
+		XmlElement root = new XmlElement("root");
+		s.registerNamespace("urn:bound");
+		s.serialize(root);
+		root.add(group);
+		group.add(new XmlElement("urn:bound", "a").addAttribute("b", "c"));
+		s.close();
+		XmlTestUtils.assertXmlEquals(XML + "<root xmlns:A=\"urn:bound\"><A:a b=\"c\"/></root>", sw.toString());
+	}
+
+
+	@Test(expected = InvalidValueException.class)
+	public void testUnboundNamespace() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlUnorderedGroup group = new XmlUnorderedGroup();
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(group);
+		group.add(new XmlElement("urn:unbound", "a"));
+	}
+
+
+	@Test(expected = InvalidStateException.class)
+	public void testAddAfterClose() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlUnorderedGroup group = new XmlUnorderedGroup();
+		XmlElement root = new XmlElement("root");
+		s.serialize(root);
+		root.add(group);
+		root.add(new XmlElement("last"));
+		group.add(item(1));
+	}
+}
@@ -0,0 +1,449 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+public class XmlUtf8WriterTest
+{
+
+	@Test
+	public void testEncoding() throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; ++i)
+		{
+			sb.append("a\u00e4\u20ac\ud83d\ude00");
+		}
+		String text = sb.toString();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlUtf8Writer writer = new XmlUtf8Writer(out);
+		writer.write(text);
+		writer.write(text.toCharArray(), 0, text.length());
+		for (int i = 0; i < 1000; ++i)
+		{
+			writer.write(text.charAt(i));
+		}
+		writer.flush();
+		assertEquals(text + text + text.substring(0, 1000), new String(out.toByteArray(), "UTF-8"));
+	}
+
+
+	@Test
+	public void testUnpairedSurrogates() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlUtf8Writer writer = new XmlUtf8Writer(out);
+		writer.write("a\ud83db\ude00c\ud83d");
+		writer.writeRaw(new byte[] { 'x' }, 0, 1);
+		writer.flush();
+		assertEquals("a?b?c?x", new String(out.toByteArray(), "UTF-8"));
+	}
+
+
+	@Test
+	public void testRaw() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlUtf8Writer writer = new XmlUtf8Writer(out);
+		byte[] large = new byte[20000];
+		for (int i = 0; i < large.length; ++i)
+		{
+			large[i] = (byte) ('a' + i % 26);
+		}
+		writer.write("<");
+		writer.writeRaw(large, 0, large.length);
+		writer.write(">");
+		writer.flush();
+		assertEquals("<" + new String(large, "UTF-8") + ">", new String(out.toByteArray(), "UTF-8"));
+	}
+
+
+	/**
+	 * A blocking {@link WritableByteChannel} that writes a few bytes per call to a {@link ByteArrayOutputStream} and records the monitors held by the
+	 * writing thread.
+	 */
+	private final static String PADDING = "0123456789 <0123456789> 0123456789 & 0123456789 0123456789 0123456789";
+
+
+	private static class TestChannel implements WritableByteChannel
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// the channel is written by several threads in some tests, but never concurrently
+		final AtomicInteger writes = new AtomicInteger();
+		final AtomicInteger lockedMonitors = new AtomicInteger();
+		volatile boolean open = true;
+
+
+		@Override
+		public int write(ByteBuffer src) throws IOException
+		{
+			writes.incrementAndGet();
+			ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(new long[] { Thread.currentThread().getId() }, true, false)[0];
+			lockedMonitors.addAndGet(info.getLockedMonitors().length);
+			int len = Math.min(src.remaining(), 1000);
+			for (int i = 0; i < len; ++i)
+			{
+				out.write(src.get());
+			}
+			return len;
+		}
+
+
+		@Override
+		public boolean isOpen()
+		{
+			return open;
+		}
+
+
+		@Override
+		public void close() throws IOException
+		{
+			open = false;
+		}
+	}
+
+
+	@Test
+	public void testChannel() throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; ++i)
+		{
+			sb.append("a\u00e4\u20ac\ud83d\ude00");
+		}
+		String text = sb.toString();
+		byte[] large = new byte[20000];
+		for (int i = 0; i < large.length; ++i)
+		{
+			large[i] = (byte) ('a' + i % 26);
+		}
+
+		TestChannel channel = new TestChannel();
+		XmlUtf8Writer writer = new XmlUtf8Writer(channel);
+		writer.write(text);
+		writer.writeRaw(large, 0, large.length);
+		writer.close();
+		assertEquals(text + new String(large, "UTF-8"), new String(channel.out.toByteArray(), "UTF-8"));
+		assertFalse(channel.open);
+	}
+
+
+	private static XmlElement item(int i) throws InvalidStateException, IOException, InvalidValueException
+	{
+		return new XmlElement("item").addAttribute("i", i).addText("text & more text");
+	}
+
+
+	private static void assertNoMonitors(TestChannel channel, int items) throws IOException
+	{
+		assertTrue(channel.writes.get() > 1);
+		assertEquals(0, channel.lockedMonitors.get());
+		String result = new String(channel.out.toByteArray(), "UTF-8");
+		for (int i = 0; i < items; ++i)
+		{
+			assertTrue("item " + i, result.contains("<item i=\"" + i + "\">text &amp; more text<"));
+		}
+		assertTrue(result.endsWith("</root>"));
+	}
+
+
+	@Test
+	public void testNoMonitorsHeldWhileWriting() throws IOException, InvalidStateException, InvalidValueException
+	{
+		TestChannel channel = new TestChannel();
+		XmlSerializer serializer = new XmlSerializer(channel);
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+		for (int i = 0; i < 2000; ++i)
+		{
+			root.add(item(i));
+		}
+		serializer.close();
+
+		assertNoMonitors(channel, 2000);
+		assertTrue(new String(channel.out.toByteArray(), "UTF-8").endsWith("<item i=\"1999\">text &amp; more text</item></root>"));
+	}
+
+
+	@Test
+	public void testNoMonitorsHeldWhileWritingPending() throws Exception
+	{
+		TestChannel channel = new TestChannel();
+		XmlSerializer serializer = new XmlSerializer(channel);
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+		final XmlPendingNode pending = new XmlPendingNode();
+		root.add(pending);
+		for (int i = 1; i < 2000; ++i)
+		{
+			root.add(item(i));
+		}
+		// the completing thread writes everything that has been buffered behind the pending node
+		Thread thread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					pending.complete(item(0));
+				}
+				catch (Exception e)
+				{
+					pending.fail(e);
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		serializer.close();
+
+		assertNoMonitors(channel, 2000);
+	}
+
+
+	@Test
+	public void testNoMonitorsHeldWhileWritingParallel() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			TestChannel channel = new TestChannel();
+			XmlSerializer serializer = new XmlSerializer(channel);
+			XmlElement root = new XmlElement("root");
+			serializer.serialize(root);
+			List<XmlElement> items = new ArrayList<XmlElement>();
+			for (int i = 0; i < 2000; ++i)
+			{
+				// large enough to exceed the output buffer on their own
+				items.add(item(i).add(new XmlElement("padding").addText(PADDING)));
+			}
+			root.addAll(items, executor);
+			serializer.close();
+
+			assertNoMonitors(channel, 2000);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+
+	@Test
+	public void testNoMonitorsHeldWhileWritingUnordered() throws Exception
+	{
+		TestChannel channel = new TestChannel();
+		XmlSerializer serializer = new XmlSerializer(channel);
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+		final XmlUnorderedGroup group = new XmlUnorderedGroup();
+		root.add(group);
+		Thread[] threads = new Thread[4];
+		final AtomicInteger failures = new AtomicInteger();
+		for (int t = 0; t < threads.length; ++t)
+		{
+			final int first = t * 500;
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int i = first; i < first + 500; ++i)
+						{
+							group.add(item(i).add(new XmlElement("padding").addText(PADDING)));
+						}
+					}
+					catch (Exception e)
+					{
+						failures.incrementAndGet();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		serializer.close();
+
+		assertEquals(0, failures.get());
+		assertNoMonitors(channel, 2000);
+	}
+
+
+	@Test
+	public void testNoMonitorsHeldWhileWritingPipeline() throws Exception
+	{
+		TestChannel channel = new TestChannel();
+		XmlSerializer serializer = new XmlSerializer(channel);
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+		final XmlPipeline pipeline = new XmlPipeline(16, 256);
+		root.add(pipeline);
+		final AtomicInteger failures = new AtomicInteger();
+		Thread producer = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					for (int i = 0; i < 2000; ++i)
+					{
+						pipeline.add(item(i).add(new XmlElement("padding").addText(PADDING)));
+					}
+				}
+				catch (Exception e)
+				{
+					failures.incrementAndGet();
+				}
+				finally
+				{
+					pipeline.finish();
+				}
+			}
+		};
+		producer.start();
+		serializer.close();
+		producer.join();
+
+		assertEquals(0, failures.get());
+		assertNoMonitors(channel, 2000);
+	}
+
+
+	@Test
+	public void testNoMonitorsHeldWhileWritingCollector() throws Exception
+	{
+		TestChannel channel = new TestChannel();
+		XmlSerializer serializer = new XmlSerializer(channel);
+		XmlElement root = new XmlElement("root");
+		serializer.serialize(root);
+		XmlChildCollector children = new XmlChildCollector();
+		root.add(children);
+		XmlSegment segment = children.newSegment();
+		for (int i = 0; i < 2000; ++i)
+		{
+			segment.append(children.newSegment().add(item(i).add(new XmlElement("padding").addText(PADDING))));
+		}
+		children.write(segment);
+		serializer.close();
+
+		assertNoMonitors(channel, 2000);
+	}
+
+
+	@Test
+	public void testNoMonitorsHeldWhileEscapingInParallel() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			TestChannel channel = new TestChannel();
+			XmlSerializer serializer = new XmlSerializer(channel);
+			serializer.setParallelTextEscaping(executor, 1);
+			XmlElement root = new XmlElement("root");
+			serializer.serialize(root);
+			StringBuilder text = new StringBuilder();
+			while (text.length() < 10 * XmlParallelEscaper.CHUNK_SIZE)
+			{
+				text.append(PADDING);
+			}
+			root.add(new XmlElement("text").addText(text.toString()));
+			for (int i = 0; i < 10; ++i)
+			{
+				root.add(item(i));
+			}
+			serializer.close();
+
+			assertNoMonitors(channel, 10);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+
+	@Test
+	public void testNoMonitorsHeldWhileTransferringToStream() throws Exception
+	{
+		File file = File.createTempFile("fragment", ".xml");
+		try
+		{
+			StringBuilder content = new StringBuilder();
+			for (int i = 0; i < 2000; ++i)
+			{
+				content.append("<item i=\"").append(i).append("\">text &amp; more text</item>");
+			}
+			FileOutputStream fileOut = new FileOutputStream(file);
+			fileOut.write(content.toString().getBytes("UTF-8"));
+			fileOut.close();
+
+			final AtomicInteger lockedMonitors = new AtomicInteger();
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			OutputStream out = new OutputStream()
+			{
+				@Override
+				public void write(int b)
+				{
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+
+				@Override
+				public void write(byte[] b, int off, int len)
+				{
+					ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(new long[] { Thread.currentThread().getId() }, true, false)[0];
+					lockedMonitors.addAndGet(info.getLockedMonitors().length);
+					bytes.write(b, off, len);
+				}
+			};
+
+			FileInputStream in = new FileInputStream(file);
+			try
+			{
+				XmlSerializer serializer = new XmlSerializer(out);
+				XmlElement root = new XmlElement("root");
+				serializer.serialize(root);
+				root.add(new XmlRawFragment(in.getChannel(), 0, file.length()));
+				serializer.close();
+			}
+			finally
+			{
+				in.close();
+			}
+
+			assertEquals(0, lockedMonitors.get());
+			assertTrue(new String(bytes.toByteArray(), "UTF-8").endsWith("<root>" + content + "</root>"));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+}
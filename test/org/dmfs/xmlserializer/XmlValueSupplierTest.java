@@ -0,0 +1,71 @@
+package org.dmfs.xmlserializer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class XmlValueSupplierTest
+{
+	private final static String XML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>";
+
+	private XmlSerializer s;
+	private StringWriter sw;
+
+	private int mCalls;
+
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sw = new StringWriter();
+		s = new XmlSerializer(sw);
+		mCalls = 0;
+	}
+
+
+	private IXmlValueSupplier supplier(final CharSequence value)
+	{
+		return new IXmlValueSupplier()
+		{
+			@Override
+			public CharSequence getXmlValue()
+			{
+				++mCalls;
+				return value;
+			}
+		};
+	}
+
+
+	@Test
+	public void testEvaluatedAtWriteTime() throws IOException, InvalidStateException, InvalidValueException
+	{
+		XmlElement root = new XmlElement("root").add(new XmlLazyAttribute("a", supplier("<1>")));
+		XmlText text = new XmlText("x").add(supplier(new StringBuilder("&y")));
+		root.add(new XmlElement("child").add(text));
+		assertEquals(0, mCalls);
+
+		s.serialize(root);
+		assertEquals(2, mCalls);
+
+		text.add(supplier(null));
+		root.add(new XmlElement("child2").add(new XmlLazyAttribute("urn:test", "b", supplier(new StringBuilder("\"z\"")))));
+		s.close();
+		assertEquals(4, mCalls);
+		assertEquals(XML + "<root a=\"&lt;1&gt;\"><child>x&amp;y</child><child2 A:b=\"&quot;z&quot;\" xmlns:A=\"urn:test\"/></root>",
+			sw.toString());
+	}
+
+
+	@Test
+	public void testNeverWritten() throws IOException, InvalidStateException, InvalidValueException
+	{
+		new XmlElement("root").add(new XmlLazyAttribute("a", supplier("1"))).add(new XmlText(null).add(supplier("2")));
+		assertEquals(0, mCalls);
+	}
+}